@@ -0,0 +1,103 @@
+package dev.lorena.multijdk.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.lorena.multijdk.JDK;
+import dev.lorena.multijdk.JDKIndexManager;
+import dev.lorena.multijdk.JDKScanner;
+import dev.lorena.multijdk.ReleaseFileParser;
+import dev.lorena.multijdk.SettingsManager;
+
+/**
+ * Cost of discovering JDKs in a {@link SyntheticJDKTree} of {@code directories} directories.
+ * <p>
+ * {@code rescan} is what {@code JDKFinder.findJDKs(true)} does for a single location: walk it with the
+ * {@link JDKScanner} and parse the 'release' file of every home. {@code validateIndex} is the common case of
+ * {@code findJDKs(false)}: check that the saved JDK index is still valid for the location. The operating system
+ * locations are left out so results do not depend on the JDKs installed on the machine. The tree is generated once
+ * per trial, so the file system cache is warm.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class JDKDiscoveryBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	private int directories;
+
+	@Param({ "false", "true" })
+	private boolean symlinks;
+
+	private Path workDirectory;
+	private List<String> locations;
+	private int expectedHomes;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workDirectory = SyntheticJDKTree.createTempDirectory("discovery");
+		System.setProperty(SettingsManager.SETTINGS_DIRECTORY_PROPERTY, workDirectory.resolve("settings").toString());
+		workDirectory.resolve("settings").toFile().mkdirs();
+
+		Path root = workDirectory.resolve("tree");
+		expectedHomes = SyntheticJDKTree.generate(root, directories, symlinks).size();
+		locations = Collections.singletonList(root.toString());
+
+		JDKIndexManager.saveIndex(locations, rescan());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticJDKTree.delete(workDirectory);
+	}
+
+	@Benchmark
+	public List<JDK> rescan() {
+		List<Path> homes = new JDKScanner(SettingsManager.getSettings()).scan(locations);
+		List<JDK> jdks = new ArrayList<>(homes.size());
+		for (Path home : homes) {
+			ReleaseFileParser.parse(home).ifPresent(jdks::add);
+		}
+		if (jdks.size() != expectedHomes) {
+			throw new IllegalStateException("Found " + jdks.size() + " JDKs, expected " + expectedHomes);
+		}
+		return jdks;
+	}
+
+	@Benchmark
+	public List<JDK> validateIndex() {
+		Optional<List<JDK>> jdks = JDKIndexManager.loadValidIndex(locations);
+		if (!jdks.isPresent()) {
+			throw new IllegalStateException("The JDK index was not valid");
+		}
+		return jdks.get();
+	}
+
+}
@@ -0,0 +1,121 @@
+package dev.lorena.multijdk.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.lorena.multijdk.SettingsManager;
+
+/**
+ * End-to-end time from starting the MultiJDK launcher to the first byte written by the application.
+ * <p>
+ * Every invocation starts a new launcher JVM, with the classes of this benchmark JAR, that selects a fake JDK 99
+ * whose {@code bin/java} is a shell script printing one line, so only MultiJDK itself is measured. The settings,
+ * the JDK index and the fake JDK live in a temporary directory. With {@code rescan}, the launcher also walks the
+ * operating system JDK locations, so that variant depends on the machine. {@code launcherFlags} compares the
+ * default JVM flags with the ones {@code jdk.sh} passes to the launcher.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class LaunchBenchmark {
+
+	@Param({ "false", "true" })
+	private boolean rescan;
+
+	@Param({ "default", "launcher" })
+	private String launcherFlags;
+
+	private Path workDirectory;
+	private List<String> command;
+	private Process process;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, InterruptedException {
+		workDirectory = SyntheticJDKTree.createTempDirectory("launch");
+		Path jdks = workDirectory.resolve("jdks");
+		SyntheticJDKTree.writeJDKHome(jdks.resolve("jdk-99"), "99.0.1", "echo first byte");
+		Path jar = Files.createFile(workDirectory.resolve("app.jar"));
+
+		String settings = "{\"customJDKlocations\":[\"" + jdks + "\"],\"preferredJDKPerFile\":{},\"classDataSharing\":false}";
+		Files.write(workDirectory.resolve("settings.json"), settings.getBytes(StandardCharsets.UTF_8));
+
+		command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (launcherFlags.equals("launcher")) {
+			command.add("-XX:TieredStopAtLevel=1");
+			command.add("-XX:+UseSerialGC");
+		}
+		command.add("-D" + SettingsManager.SETTINGS_DIRECTORY_PROPERTY + "=" + workDirectory);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("dev.lorena.multijdk.MultiJDK");
+		command.add("-v");
+		command.add("99");
+		command.add("-j");
+		command.add(jar.toString());
+		if (rescan) {
+			command.add("--rescan");
+		}
+
+		// Build the JDK index once, so the non-rescan variant measures the common case
+		firstByte();
+		finish();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticJDKTree.delete(workDirectory);
+	}
+
+	@Benchmark
+	public int firstByte() throws IOException {
+		process = new ProcessBuilder(command).redirectError(new File("/dev/null")).start();
+		InputStream stdout = process.getInputStream();
+		int first = stdout.read();
+		if (first == -1) {
+			throw new IllegalStateException("The launcher exited without output");
+		}
+		return first;
+	}
+
+	@TearDown(Level.Invocation)
+	public void finish() throws InterruptedException, IOException {
+		byte[] buffer = new byte[8192];
+		InputStream stdout = process.getInputStream();
+		while (stdout.read(buffer) != -1) {
+			// Drain the rest of the output so the launcher can exit
+		}
+		process.waitFor();
+	}
+
+}
@@ -0,0 +1,73 @@
+package dev.lorena.multijdk.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.lorena.multijdk.JDK;
+import dev.lorena.multijdk.ReleaseFileParser;
+
+/**
+ * Cost of parsing the 'release' file of a JDK home with {@link ReleaseFileParser}.
+ * <p>
+ * The file is shaped like a Temurin 21 'release' file, long {@code MODULES} line included. {@code properties}
+ * loads the same file with {@link Properties} as a baseline.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ReleaseFileBenchmark {
+
+	private Path home;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		home = SyntheticJDKTree.createTempDirectory("release");
+		SyntheticJDKTree.writeJDKHome(home, "21.0.1", "exit 0");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticJDKTree.delete(home);
+	}
+
+	@Benchmark
+	public Optional<JDK> parse() {
+		return ReleaseFileParser.parse(home);
+	}
+
+	@Benchmark
+	public Properties properties() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(home.resolve("release"))) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+}
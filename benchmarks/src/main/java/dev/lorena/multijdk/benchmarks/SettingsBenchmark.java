@@ -0,0 +1,91 @@
+package dev.lorena.multijdk.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.lorena.multijdk.Settings;
+import dev.lorena.multijdk.SettingsManager;
+
+/**
+ * Cost of saving and loading {@code settings.json} with {@code entries} remembered JDKs in {@code preferredJDKPerFile}.
+ * <p>
+ * The settings are kept in a temporary directory through {@link SettingsManager#SETTINGS_DIRECTORY_PROPERTY}.
+ * {@code load} moves the modification time of the file so {@link SettingsManager#reloadIfChanged()} reads it again
+ * on every invocation.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SettingsBenchmark {
+
+	@Param({ "10000" })
+	private int entries;
+
+	private Path settingsDirectory;
+	private File settingsFile;
+	private Settings settings;
+	private long modified;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		settingsDirectory = SyntheticJDKTree.createTempDirectory("settings");
+		System.setProperty(SettingsManager.SETTINGS_DIRECTORY_PROPERTY, settingsDirectory.toString());
+		settingsFile = settingsDirectory.resolve("settings.json").toFile();
+
+		settings = SettingsManager.getSettings();
+		Map<String, String> preferred = new HashMap<>();
+		for (int i = 0; i < entries; i++) {
+			preferred.put("/home/user/projects/project-" + i + "/target/app-" + i + ".jar", "/usr/lib/jvm/jdk-" + (8 + i % 18) + "/bin/java");
+		}
+		settings.setPreferredJDKPerFile(preferred);
+		SettingsManager.saveSettings(settings);
+		modified = settingsFile.lastModified();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticJDKTree.delete(settingsDirectory);
+	}
+
+	@Benchmark
+	public void save() {
+		SettingsManager.saveSettings(settings);
+	}
+
+	@Benchmark
+	public Settings load() {
+		modified += 1000;
+		if (!settingsFile.setLastModified(modified)) {
+			throw new IllegalStateException("Could not touch " + settingsFile);
+		}
+		SettingsManager.reloadIfChanged();
+		return SettingsManager.getSettings();
+	}
+
+}
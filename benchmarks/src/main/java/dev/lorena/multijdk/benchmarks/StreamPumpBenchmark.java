@@ -0,0 +1,124 @@
+package dev.lorena.multijdk.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.lorena.multijdk.Settings;
+import dev.lorena.multijdk.StreamPump;
+import dev.lorena.multijdk.TeeLog;
+
+/**
+ * Throughput of the stream pumps used by {@code JDKRunner} when the process output is not inherited.
+ * <p>
+ * Every benchmark copies {@code sizeInMegabytes} of line-oriented text into {@code /dev/null}, so the cost of
+ * the write system calls is included. {@code legacyStdoutPump} and {@code legacyStdinPump} reproduce the
+ * previous char-at-a-time and line-at-a-time pumps as a baseline for {@link StreamPump}. {@code streamPumpWithTee}
+ * also offers every chunk to a {@link TeeLog} writing to a temporary directory, as {@code --tee} does.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StreamPumpBenchmark {
+
+	@Param({ "4" })
+	private int sizeInMegabytes;
+
+	private byte[] payload;
+	private OutputStream devNull;
+	private Path teeDirectory;
+	private TeeLog tee;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		StringBuilder text = new StringBuilder(sizeInMegabytes * 1024 * 1024);
+		Random random = new Random(42);
+		while (text.length() < sizeInMegabytes * 1024 * 1024) {
+			int lineLength = 20 + random.nextInt(100);
+			for (int i = 0; i < lineLength; i++) {
+				text.append((char) ('a' + random.nextInt(26)));
+			}
+			text.append('\n');
+		}
+		payload = text.toString().getBytes(StandardCharsets.UTF_8);
+		devNull = new FileOutputStream("/dev/null");
+		teeDirectory = SyntheticJDKTree.createTempDirectory("tee");
+		tee = new TeeLog(teeDirectory, "benchmark", new Settings());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		devNull.close();
+		tee.close();
+		SyntheticJDKTree.delete(teeDirectory);
+	}
+
+	@Benchmark
+	public void streamPump() {
+		OutputStream target = new BufferedOutputStream(devNull, StreamPump.BUFFER_SIZE);
+		new StreamPump(new ByteArrayInputStream(payload), target, false).run();
+	}
+
+	@Benchmark
+	public void streamPumpWithTee() {
+		OutputStream target = new BufferedOutputStream(devNull, StreamPump.BUFFER_SIZE);
+		new StreamPump(new ByteArrayInputStream(payload), target, false, tee).run();
+	}
+
+	@Benchmark
+	public void legacyStdoutPump() throws IOException {
+		PrintStream target = new PrintStream(new BufferedOutputStream(devNull), true);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+		int character;
+		while ((character = reader.read()) != -1) {
+			target.print((char) character);
+			target.flush();
+		}
+	}
+
+	@Benchmark
+	public void legacyStdinPump() throws IOException {
+		BufferedReader userInput = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+		BufferedWriter processWriter = new BufferedWriter(new OutputStreamWriter(devNull, StandardCharsets.UTF_8));
+		String line;
+		while ((line = userInput.readLine()) != null) {
+			processWriter.write(line);
+			processWriter.newLine();
+			processWriter.flush();
+		}
+	}
+
+}
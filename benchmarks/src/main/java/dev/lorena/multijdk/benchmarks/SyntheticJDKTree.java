@@ -0,0 +1,153 @@
+package dev.lorena.multijdk.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates directory trees and fake JDK homes for the benchmarks, so they run offline and without real JDKs.
+ * <p>
+ * A tree is filled breadth first with a fan-out of ten until it holds the requested number of directories.
+ * Every {@value #JDK_HOME_EVERY}th directory is a fake JDK home, with a Temurin-like 'release' file and a
+ * {@code bin/java} shell script. With symbolic links, every {@value #SYMLINK_EVERY}th directory also gets a
+ * {@code current} link to the last JDK home, as in {@code /usr/lib/jvm}, and a {@code loop} link to its parent.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+public final class SyntheticJDKTree {
+
+	static final int JDK_HOME_EVERY = 250;
+	static final int SYMLINK_EVERY = 50;
+	private static final int FAN_OUT = 10;
+
+	private SyntheticJDKTree() {
+	}
+
+	/**
+	 * Creates a tree below {@code root}.
+	 *
+	 * @param root the directory to fill, created if needed
+	 * @param directories the number of directories to create, JDK homes included
+	 * @param symlinks whether to add {@code current} and {@code loop} symbolic links
+	 * @return the fake JDK homes that were created
+	 * @throws IOException if the tree cannot be written
+	 */
+	public static List<Path> generate(Path root, int directories, boolean symlinks) throws IOException {
+		Files.createDirectories(root);
+		List<Path> homes = new ArrayList<>();
+		Deque<Path> parents = new ArrayDeque<>();
+		parents.add(root);
+
+		int created = 0;
+		while (created < directories) {
+			Path parent = parents.poll();
+			for (int i = 0; i < FAN_OUT && created < directories; i++) {
+				created++;
+				Path dir = Files.createDirectory(parent.resolve("d" + i));
+
+				if (created % JDK_HOME_EVERY == 0) {
+					int feature = 8 + (homes.size() % 18);
+					writeJDKHome(dir, feature + ".0." + homes.size() % 30, "echo fake " + feature);
+					homes.add(dir);
+					continue;
+				}
+
+				if (symlinks && created % SYMLINK_EVERY == 0) {
+					if (!homes.isEmpty()) {
+						Files.createSymbolicLink(dir.resolve("current"), homes.get(homes.size() - 1));
+					}
+					Files.createSymbolicLink(dir.resolve("loop"), parent);
+				}
+				parents.add(dir);
+			}
+		}
+		return homes;
+	}
+
+	/**
+	 * Writes a fake JDK home: a 'release' file and an executable {@code bin/java} shell script.
+	 *
+	 * @param home the JDK home directory, created if needed
+	 * @param javaVersion the JAVA_VERSION to write in the 'release' file, e.g. {@code 21.0.1}
+	 * @param script the body of {@code bin/java}
+	 * @throws IOException if the files cannot be written
+	 */
+	public static void writeJDKHome(Path home, String javaVersion, String script) throws IOException {
+		Files.createDirectories(home.resolve("bin"));
+		Files.write(home.resolve("release"), releaseFile(javaVersion).getBytes(StandardCharsets.UTF_8));
+		Path java = home.resolve("bin").resolve("java");
+		Files.write(java, ("#!/bin/sh\n" + script + "\n").getBytes(StandardCharsets.UTF_8));
+		Files.setPosixFilePermissions(java, PosixFilePermissions.fromString("rwxr-xr-x"));
+	}
+
+	/**
+	 * Returns the content of a 'release' file shaped like the one shipped by Eclipse Temurin.
+	 *
+	 * @param javaVersion the JAVA_VERSION value
+	 * @return the file content
+	 */
+	public static String releaseFile(String javaVersion) {
+		return "IMPLEMENTOR=\"Eclipse Adoptium\"\n"
+				+ "IMPLEMENTOR_VERSION=\"Temurin-" + javaVersion + "+12\"\n"
+				+ "JAVA_RUNTIME_VERSION=\"" + javaVersion + "+12-LTS\"\n"
+				+ "JAVA_VERSION=\"" + javaVersion + "\"\n"
+				+ "JAVA_VERSION_DATE=\"2023-10-17\"\n"
+				+ "LIBC=\"gnu\"\n"
+				+ "MODULES=\"java.base java.compiler java.datatransfer java.xml java.prefs java.desktop java.instrument "
+				+ "java.logging java.management java.security.sasl java.naming java.rmi java.management.rmi java.net.http "
+				+ "java.scripting java.security.jgss java.transaction.xa java.sql java.sql.rowset java.xml.crypto java.se "
+				+ "java.smartcardio jdk.accessibility jdk.internal.jvmstat jdk.attach jdk.charsets jdk.internal.opt "
+				+ "jdk.zipfs jdk.compiler jdk.crypto.ec jdk.crypto.cryptoki jdk.dynalink jdk.internal.ed jdk.editpad "
+				+ "jdk.hotspot.agent jdk.httpserver jdk.incubator.vector jdk.internal.le jdk.internal.vm.ci "
+				+ "jdk.internal.vm.compiler jdk.internal.vm.compiler.management jdk.jartool jdk.javadoc jdk.jcmd "
+				+ "jdk.management jdk.management.agent jdk.jconsole jdk.jdeps jdk.jdwp.agent jdk.jdi jdk.jfr jdk.jlink "
+				+ "jdk.jpackage jdk.jshell jdk.jsobject jdk.jstatd jdk.localedata jdk.management.jfr jdk.naming.dns "
+				+ "jdk.naming.rmi jdk.net jdk.nio.mapmode jdk.random jdk.sctp jdk.security.auth jdk.security.jgss "
+				+ "jdk.unsupported jdk.unsupported.desktop jdk.xml.dom\"\n"
+				+ "OS_ARCH=\"x86_64\"\n"
+				+ "OS_NAME=\"Linux\"\n"
+				+ "SOURCE=\"OpenJDK:5a1ec83fd3c6 .:git:a1b2c3d4e5f6\"\n"
+				+ "BUILD_SOURCE=\"git:a1b2c3d4e5f6\"\n"
+				+ "BUILD_SOURCE_REPO=\"https://github.com/adoptium/temurin-build.git\"\n"
+				+ "SOURCE_REPO=\"https://github.com/adoptium/jdk.git\"\n"
+				+ "FULL_VERSION=\"" + javaVersion + "+12-LTS\"\n"
+				+ "SEMANTIC_VERSION=\"" + javaVersion + "+12\"\n"
+				+ "BUILD_INFO=\"OS: Linux Version: 5.8.0-43-generic\"\n"
+				+ "JVM_VARIANT=\"Hotspot\"\n"
+				+ "JVM_VERSION=\"" + javaVersion + "+12-LTS\"\n"
+				+ "IMAGE_TYPE=\"JDK\"\n";
+	}
+
+	/**
+	 * Creates a temporary directory for a benchmark.
+	 *
+	 * @param prefix the directory name prefix
+	 * @return the new directory
+	 * @throws IOException if it cannot be created
+	 */
+	public static Path createTempDirectory(String prefix) throws IOException {
+		return Files.createTempDirectory("multijdk-" + prefix);
+	}
+
+	/**
+	 * Deletes a directory created by a benchmark, without following symbolic links.
+	 *
+	 * @param dir the directory to delete
+	 * @throws IOException if it cannot be deleted
+	 */
+	public static void delete(Path dir) throws IOException {
+		FileUtils.deleteDirectory(dir.toFile());
+	}
+
+}
@@ -1,17 +1,73 @@
 #!/bin/bash
 # MultiJDK Linux launcher script
 #
-# Usage: jdk <version> [<jvmParams> ...] <jar> [<jarParams> ...]
+# Usage: jdk [--tee=<dir>] [--timings[=<file>]] [--profile[=<file>]] [--metrics[=json]] [--no-gui] <version> [<jvmParams> ...] <jar> [<jarParams> ...]
+#        jdk matrix [--vendor=<text>] [--parallel=<n>] [--output=<dir>] <version,...|all> [<jvmParams> ...] <jar> [<jarParams> ...]
+#        jdk daemon [stop]
+#        jdk history [--jar <text>] [--jdk <text>] [--days <n>]
 #
 # This script launches a Java application using a specified JDK version.
-# - The first argument is the JDK version to use.
+# - Leading --options are MultiJDK options, e.g. --tee=<dir> to also copy the output
+#   to rotated log files in <dir>, --timings to print how long each launch phase took,
+#   --profile to record the run with Flight Recorder and print a summary of it,
+#   --metrics to print the CPU time, peak memory and I/O of the run,
+#   or --no-gui to choose between several JDKs on the terminal.
+# - The first other argument is the JDK version to use: a number, "auto" to pick it
+#   from the JAR's class files, or a spec such as 17+, 11..17, 21:temurin or latest-lts.
 # - Arguments before the .jar file are passed as JVM parameters.
 # - The first argument ending with .jar is treated as the JAR file to run.
 # - Arguments after the .jar file are passed to the JAR as parameters.
+# - MultiJDK only resolves the command to run; the selected java then replaces this
+#   script, so signals and the exit code go straight to the application.
+# - "jdk daemon" starts a MultiJDK daemon (Java 16+) that keeps the JDK index warm;
+#   while it runs, launches are resolved through its socket (requires socat).
+#   With "pool": true in settings.json, the daemon also runs JARs in pre-started JVMs,
+#   connected to this script through FIFOs.
+# - "jdk matrix" runs the JAR on every installed JDK of the given versions at once
+#   and prints a summary of exit codes, wall times and peak memory.
+# - "jdk history" summarizes the launches recorded with "recordHistory": true in settings.json.
+
+# MultiJDK itself only runs for a moment, so skip the optimizing compiler and use the simplest collector
+launcherJvmArgs=(-XX:TieredStopAtLevel=1 -XX:+UseSerialGC)
+
+# Subcommands are handled by the MultiJDK launcher itself
+if [ "$1" = "daemon" ] || [ "$1" = "history" ]; then
+    exec java -jar "$(dirname "$0")/jdk.jar" "$@"
+fi
+
+# "jdk matrix" takes the same arguments as a launch, but MultiJDK runs the JAR itself
+mode="run"
+if [ "$1" = "matrix" ]; then
+    mode="matrix"
+    shift
+fi
+
+# Collect MultiJDK options given before the version
+launcherOptions=()
+while [ $# -gt 0 ]; do
+    case "$1" in
+        --tee=*)
+            launcherOptions+=("--tee=$(readlink -m "${1#--tee=}")")
+            ;;
+        --timings=*)
+            launcherOptions+=("--timings=$(readlink -m "${1#--timings=}")")
+            ;;
+        --profile=*)
+            launcherOptions+=("--profile=$(readlink -m "${1#--profile=}")")
+            ;;
+        --*)
+            launcherOptions+=("$1")
+            ;;
+        *)
+            break
+            ;;
+    esac
+    shift
+done
 
 # Check if at least two arguments are provided (JDK version and JAR file)
 if [ $# -lt 2 ]; then
-    echo "Usage: jdk <version> [<jvmParams> ...] <jar> [<jarParams> ...]" >&2
+    echo "Usage: jdk [--tee=<dir>] [--timings[=<file>]] [--profile[=<file>]] [--metrics[=json]] [--no-gui] <version> [<jvmParams> ...] <jar> [<jarParams> ...]" >&2
     exit 1
 fi
 
@@ -43,38 +99,86 @@ set -- "$@"
 # Extract the jar file path
 jar="${@:$((jarIndex+1)):1}"
 
-# Collect JVM parameters (arguments before the .jar file)
-jvmParams=""
-if [ "$jarIndex" -gt 0 ]; then
-    for i in $(seq 1 $jarIndex); do
-        jvmParams="$jvmParams ${@:$i:1}"
-    done
-fi
-
-# Collect JAR parameters (arguments after the .jar file)
-jarParams=""
-if [ $((jarIndex+2)) -le $# ]; then
-    for i in $(seq $((jarIndex+2)) $#); do
-        jarParams="$jarParams ${@:$i:1}"
-    done
-fi
-
 # Get the directory of this script
 scriptDir="$(dirname "$0")"
 # Get the absolute path of the jar file
 jarAbsolute="$(readlink -f "$jar")"
 
-# Build the command to run the MultiJDK Java launcher with the correct arguments
-command="java -jar \"$scriptDir/jdk.jar\" -v $version -j \"$jarAbsolute\""
+# Build the MultiJDK arguments as an array, one element per argument, so no quoting is lost
+launcherArgs=("${launcherOptions[@]}" -v "$version" -j "$jarAbsolute")
+
+# Collect JVM parameters (arguments before the .jar file), passed with --args=
+for ((i = 1; i <= jarIndex; i++)); do
+    launcherArgs+=("--args=${!i}")
+done
+
+# Collect JAR parameters (arguments after the .jar file), passed with --params=
+for ((i = jarIndex + 2; i <= $#; i++)); do
+    launcherArgs+=("--params=${!i}")
+done
 
-# If there are JVM parameters, add them with -a
-if [ -n "$jvmParams" ]; then
-    command="$command -a $jvmParams"
+# A matrix supervises several JDKs, so MultiJDK stays running until all of them finish
+if [ "$mode" = "matrix" ]; then
+    exec java "${launcherJvmArgs[@]}" -jar "$scriptDir/jdk.jar" matrix "${launcherArgs[@]}"
 fi
-# If there are JAR parameters, add them with -p
-if [ -n "$jarParams" ]; then
-    command="$command -p $jarParams"
+
+# If a MultiJDK daemon is listening, ask it to resolve the command and run it directly.
+# The daemon answers NUL-separated fields: OK followed by the command, or ERR followed by a message.
+socket="$scriptDir/multijdk.sock"
+
+# If the daemon keeps a pool of pre-started JVMs, ask it to run the JAR in one of them.
+# The standard streams go through FIFOs, and the daemon answers EXIT followed by the exit code,
+# or OK followed by the command when the JAR has to run as a normal process.
+if [ -e "$scriptDir/multijdk.pool" ] && [ -S "$socket" ] && command -v socat >/dev/null 2>&1; then
+    fifoDir="$(mktemp -d)"
+    mkfifo "$fifoDir/in" "$fifoDir/out" "$fifoDir/err"
+    exec 3<&0
+    cat <&3 >"$fifoDir/in" 2>/dev/null &
+    inPid=$!
+    cat "$fifoDir/out" &
+    outPid=$!
+    cat "$fifoDir/err" >&2 &
+    errPid=$!
+
+    response=()
+    while IFS= read -r -d '' field; do
+        response+=("$field")
+    done < <({ printf 'RUN\0%s\0%s\0' "$fifoDir" "$PWD"; printf '%s\0' "${launcherArgs[@]}"; } | socat -t 86400 - "UNIX-CONNECT:$socket" 2>/dev/null)
+
+    if [ "${response[0]}" = "EXIT" ]; then
+        wait "$outPid" "$errPid"
+        kill "$inPid" 2>/dev/null
+        rm -rf "$fifoDir"
+        exit "${response[1]}"
+    fi
+
+    kill "$inPid" "$outPid" "$errPid" 2>/dev/null
+    rm -rf "$fifoDir"
+    exec 3<&-
+    if [ "${response[0]}" = "OK" ]; then
+        exec "${response[@]:1}"
+    fi
+fi
+
+if [ -S "$socket" ] && command -v socat >/dev/null 2>&1; then
+    response=()
+    while IFS= read -r -d '' field; do
+        response+=("$field")
+    done < <({ printf 'RESOLVE\0'; printf '%s\0' "${launcherArgs[@]}"; } | socat -t 5 - "UNIX-CONNECT:$socket" 2>/dev/null)
+
+    if [ "${response[0]}" = "OK" ]; then
+        exec "${response[@]:1}"
+    fi
+fi
+
+# Otherwise let the MultiJDK Java launcher resolve the command, then replace this script with it
+command=()
+while IFS= read -r -d '' field; do
+    command+=("$field")
+done < <(java "${launcherJvmArgs[@]}" -jar "$scriptDir/jdk.jar" --resolve "${launcherArgs[@]}")
+
+if [ ${#command[@]} -eq 0 ]; then
+    exit 1
 fi
 
-# Execute the constructed command
-eval $command
\ No newline at end of file
+exec "${command[@]}"
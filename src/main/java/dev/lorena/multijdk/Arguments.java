@@ -1,6 +1,6 @@
 package dev.lorena.multijdk;
 
-import java.util.Set;
+import java.util.List;
 
 import lombok.Data;
 
@@ -8,8 +8,48 @@ import lombok.Data;
 public class Arguments {
 	
 	private int version;
+	private boolean autoVersion;
+	private String versionSpec;
 	private String jarPath;
-	private Set<String> jvmArgs;
-	private Set<String> jarParams;
+	private List<String> jvmArgs;
+	private List<String> jarParams;
+	private boolean rescan;
+	private boolean resolve;
+	private String teeDirectory;
+	private String javaPath;
+	private boolean noGui;
+	private String timings;
+	private String profile;
+	private String metrics;
+	private List<Integer> matrixVersions;
+	private String vendor;
+	private int parallelism;
+	private String outputDirectory;
+	private String jdkFilter;
+	private int days;
+	
+	/**
+	 * Returns the version as the user gave it: a number, {@code auto} or a spec such as {@code 17+}.
+	 *
+	 * @return the requested version
+	 */
+	public String getRequestedVersion() {
+		if (versionSpec != null) {
+			return versionSpec;
+		}
+		return autoVersion ? ArgumentsHandler.AUTO_VERSION : String.valueOf(version);
+	}
+
+	/**
+	 * Checks whether the process must run under MultiJDK supervision, because a feature needs its output
+	 * or its lifetime, instead of replacing the launcher script with the selected java. This is always the case
+	 * when {@code recordHistory} is enabled in the settings, so every launch is recorded, see {@link LaunchHistory}.
+	 *
+	 * @return {@code true} if MultiJDK must stay between the launcher script and the process
+	 */
+	public boolean isSupervised() {
+		return teeDirectory != null || timings != null || profile != null || metrics != null
+				|| SettingsManager.getSettings().isRecordHistory();
+	}
 
 }
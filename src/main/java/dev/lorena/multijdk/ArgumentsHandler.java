@@ -1,11 +1,10 @@
 package dev.lorena.multijdk;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -14,7 +13,6 @@ import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.lang3.StringUtils;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -34,19 +32,54 @@ import lombok.extern.slf4j.Slf4j;
  * </pre>
  *
  * <ul>
- *   <li><b>-v, --version</b>: JDK version to use (required)</li>
+ *   <li><b>-v, --version</b>: JDK version to use, {@code auto} for the lowest one the JAR's class files run on,
+ *       or a spec such as {@code 17+}, {@code 11..17}, {@code 21:temurin} or {@code latest-lts}, see {@link JDKResolver} (required)</li>
  *   <li><b>-j, --jar</b>: Path to the JAR file to run (required)</li>
  *   <li><b>-a, --args</b>: Arguments to pass to the JAR file (optional, multiple allowed)</li>
+ *   <li><b>--rescan</b>: Ignore the JDK index and scan all locations again (optional)</li>
+ *   <li><b>--resolve</b>: Print the command that would run the JAR, NUL-separated, and exit (optional)</li>
+ *   <li><b>--tee</b>: Directory to copy the process output to, in rotated log files (optional)</li>
+ *   <li><b>--no-gui</b>: Choose between several JDKs on the terminal instead of with the dialog (optional)</li>
+ *   <li><b>--timings[=file]</b>: Print how long each launch phase took to stderr, or append it to a JSON-lines file (optional)</li>
+ *   <li><b>--profile[=file]</b>: Record the run with Flight Recorder and print a summary of it, see {@link FlightRecording} (optional)</li>
+ *   <li><b>--metrics[=json]</b>: Print what the run cost to stderr, as text or as a JSON line, see {@link ProcessMetrics} (optional)</li>
+ *   <li><b>--java</b>: Java executable to use instead of selecting a JDK, used when MultiJDK relaunches itself (optional)</li>
+ * </ul>
+ *
+ * <p>
+ * The {@code matrix} command takes the same options, but {@code -v} is a comma-separated list of versions or
+ * {@code all}, and it also accepts:
+ * </p>
+ *
+ * <ul>
+ *   <li><b>--vendor</b>: Only run the JDKs whose vendor contains this text, ignoring case (optional)</li>
+ *   <li><b>--parallel</b>: How many JDKs to run at once, by default one per CPU core (optional)</li>
+ *   <li><b>--output</b>: Directory to write the output of each JDK to, instead of printing it (optional)</li>
+ * </ul>
+ *
+ * <p>
+ * The {@code history} command takes only filters, see {@link LaunchHistory}:
+ * </p>
+ *
+ * <ul>
+ *   <li><b>--jar</b>: Only count the JARs whose path contains this text, ignoring case (optional)</li>
+ *   <li><b>--jdk</b>: Only count the JDKs whose java path contains this text, ignoring case (optional)</li>
+ *   <li><b>--days</b>: Only count the launches of the last days (optional)</li>
  * </ul>
  *
  * @author Lorena Nuñez
  * @since 1.0
- * @version 1.3
+ * @version 2.5
  */
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class ArgumentsHandler {
 
+	/**
+	 * Version that selects the JDK from the class files of the JAR, see {@link BytecodeVersionDetector}.
+	 */
+	public static final String AUTO_VERSION = "auto";
+	
 	private static Arguments arguments = null;
 	
     /**
@@ -54,20 +87,202 @@ public class ArgumentsHandler {
      * <p>
      * This method defines the expected options, parses the input arguments, and constructs
      * an {@link Arguments} instance with the parsed values. If parsing fails, it logs the error
-     * and returns {@code null}.
+     * and exits the application.
      * </p>
      *
      * @param args the command-line arguments
-     * @return an {@link Arguments} object with the parsed values, or {@code null} if parsing fails
+     * @return an {@link Arguments} object with the parsed values
      */
     public static Arguments getArguments(String[] args) throws MissingOptionException, NullPointerException {
+		try {
+			arguments = parseArguments(args);
+			log.debug("Parsed arguments: {}", arguments);
+			return arguments;
+		} catch (ParseException e) {
+			log.error("Failed to parse command line arguments: {}", e.getMessage());
+			log.info("Usage: jdk <version|auto|spec> [-a <arg1> <arg2> ...] <jarPath> [-p <param1> <param2> ...]");
+			System.exit(1);
+		}
+		
+		// This return is unreachable, but required for compilation
+		return null;
+	}
+    
+    /**
+     * Parses the command-line arguments of the {@code matrix} command and returns an {@link Arguments} object.
+     * <p>
+     * The requested versions are returned by {@link Arguments#getMatrixVersions()}, empty for {@code all}.
+     * If parsing fails, it logs the error and exits the application.
+     * </p>
+     *
+     * @param args the command-line arguments, without the {@code matrix} command itself
+     * @return an {@link Arguments} object with the parsed values
+     */
+    public static Arguments getMatrixArguments(String[] args) {
+		try {
+			arguments = parseArguments(args, true);
+			log.debug("Parsed matrix arguments: {}", arguments);
+			return arguments;
+		} catch (ParseException e) {
+			log.error("Failed to parse command line arguments: {}", e.getMessage());
+			log.info("Usage: jdk matrix <version,version,...|all> [-a <arg1> <arg2> ...] <jarPath> [-p <param1> <param2> ...]");
+			System.exit(1);
+		}
+		
+		// This return is unreachable, but required for compilation
+		return null;
+	}
+    
+    /**
+     * Parses the command-line arguments of the {@code history} command and returns an {@link Arguments} object.
+     * <p>
+     * The filters are returned by {@link Arguments#getJarPath()}, {@link Arguments#getJdkFilter()} and
+     * {@link Arguments#getDays()}, {@code null} or 0 when not given. If parsing fails, it logs the error and exits
+     * the application.
+     * </p>
+     *
+     * @param args the command-line arguments, without the {@code history} command itself
+     * @return an {@link Arguments} object with the parsed filters
+     */
+    public static Arguments getHistoryArguments(String[] args) {
+		try {
+			CommandLine cmd = new DefaultParser().parse(buildHistoryOptions(), args);
+			Arguments parsed = new Arguments();
+			parsed.setJarPath(cmd.getOptionValue("jar"));
+			parsed.setJdkFilter(cmd.getOptionValue("jdk"));
+			String days = cmd.getOptionValue("days", "0");
+			if (!isNumeric(days)) {
+				throw new ParseException("Days must be a number");
+			}
+			parsed.setDays(Integer.parseInt(days));
+			log.debug("Parsed history arguments: {}", parsed);
+			return parsed;
+		} catch (ParseException e) {
+			log.error("Failed to parse command line arguments: {}", e.getMessage());
+			log.info("Usage: jdk history [--jar <text>] [--jdk <text>] [--days <n>]");
+			System.exit(1);
+		}
+		
+		// This return is unreachable, but required for compilation
+		return null;
+	}
+    
+    /**
+     * Parses the command-line arguments without touching the application state.
+     * <p>
+     * Unlike {@link #getArguments(String[])}, this method neither remembers the result nor exits
+     * on invalid input, so it can be used by long-running callers such as the {@link MultiJDKDaemon}.
+     * </p>
+     *
+     * @param args the command-line arguments
+     * @return an {@link Arguments} object with the parsed values
+     * @throws ParseException if the arguments are missing or invalid
+     */
+    public static Arguments parseArguments(String[] args) throws ParseException {
+		return parseArguments(args, false);
+	}
+    
+    private static Arguments parseArguments(String[] args, boolean matrix) throws ParseException {
+		CommandLineParser parser = new DefaultParser();
+		CommandLine cmd = parser.parse(buildOptions(matrix), args);
+		String v = cmd.getOptionValue("version");
+		
+		Arguments parsed = new Arguments();
+		if (matrix) {
+			parsed.setMatrixVersions(parseVersionList(v));
+			parsed.setVendor(cmd.getOptionValue("vendor"));
+			parsed.setOutputDirectory(cmd.getOptionValue("output"));
+			String parallel = cmd.getOptionValue("parallel", "0");
+			if (!isNumeric(parallel)) {
+				throw new ParseException("Parallelism must be a number");
+			}
+			parsed.setParallelism(Integer.parseInt(parallel));
+		} else {
+			if (AUTO_VERSION.equalsIgnoreCase(v)) {
+				// Resolved from the class files of the JAR once the JDKs are known
+				parsed.setAutoVersion(true);
+			} else if (isNumeric(v)) {
+				parsed.setVersion(Integer.parseInt(v));
+			} else {
+				try {
+					JDKResolver.validate(v);
+				} catch (IllegalArgumentException ex) {
+					throw new ParseException(ex.getMessage());
+				}
+				parsed.setVersionSpec(v);
+			}
+		}
+		
+		String jarPath = cmd.getOptionValue("jar");
 		
+		String[] unknownJvmArguments = cmd.getOptionValues("args");
+		String[] unknownJarParams = cmd.getOptionValues("params");
+		
+		List<String> jvmArgs = (unknownJvmArguments != null) ? new ArrayList<>(Arrays.asList(unknownJvmArguments)) : new ArrayList<>();
+		List<String> jarParams = (unknownJarParams != null) ? new ArrayList<>(Arrays.asList(unknownJarParams)) : new ArrayList<>();
+		
+		// Anything left after the options, e.g. "-p a b c" or "-- a b c", is passed to the JAR as well
+		jarParams.addAll(cmd.getArgList());
+
+		boolean hasEncodingArg = jvmArgs.stream().anyMatch(arg -> arg.toLowerCase().startsWith("-dfile.encoding="));
+		
+		if (!hasEncodingArg) {
+			String argument = String.format("-Dfile.encoding=%s", Charset.defaultCharset());
+			log.debug("Encoding argument was not found, injecting argument: {}", argument);
+			jvmArgs.add(argument);
+		}
+		
+		parsed.setJarPath(jarPath);
+		parsed.setJvmArgs(jvmArgs);
+		parsed.setJarParams(jarParams);
+		parsed.setRescan(cmd.hasOption("rescan"));
+		parsed.setResolve(cmd.hasOption("resolve"));
+		parsed.setTeeDirectory(cmd.getOptionValue("tee"));
+		parsed.setJavaPath(cmd.getOptionValue("java"));
+		parsed.setNoGui(cmd.hasOption("no-gui"));
+		if (cmd.hasOption("timings")) {
+			parsed.setTimings(cmd.getOptionValue("timings", ""));
+		}
+		if (cmd.hasOption("profile")) {
+			String recording = cmd.getOptionValue("profile", "");
+			if (recording.indexOf(',') >= 0) {
+				// The path goes into the comma-separated -XX:StartFlightRecording option, which has no escaping
+				throw new ParseException("The recording file must not contain a comma");
+			}
+			parsed.setProfile(recording);
+		}
+		if (cmd.hasOption("metrics")) {
+			String format = cmd.getOptionValue("metrics", "");
+			if (!format.isEmpty() && !format.equalsIgnoreCase("json")) {
+				throw new ParseException("The metrics format must be json, or nothing for text");
+			}
+			parsed.setMetrics(format);
+		}
+		return parsed;
+	}
+    
+    private static List<Integer> parseVersionList(String value) throws ParseException {
+		List<Integer> versions = new ArrayList<>();
+		if ("all".equalsIgnoreCase(value)) {
+			return versions;
+		}
+		for (String version : value.split(",")) {
+			version = version.trim();
+			if (!isNumeric(version)) {
+				throw new ParseException("JDK versions must be numbers separated by commas, or all");
+			}
+			versions.add(Integer.parseInt(version));
+		}
+		return versions;
+	}
+    
+    private static Options buildOptions(boolean matrix) {
 		Options options = new Options();
 		
 		options.addOption(Option.builder("v")
 				.longOpt("version")
 				.hasArg()
-				.desc("JDK version to use")
+				.desc("JDK version to use, or auto")
 				.required()
 				.get());
 		
@@ -90,50 +305,116 @@ public class ArgumentsHandler {
 				.hasArg()
 				.get());
 		
-		CommandLineParser parser = new DefaultParser();
+		options.addOption(Option.builder()
+				.longOpt("rescan")
+				.desc("Ignore the JDK index and scan all locations again")
+				.get());
 		
-		try {
-			CommandLine cmd = parser.parse(options, args);
-			String v = cmd.getOptionValue("version");
+		if (!matrix) {
+			options.addOption(Option.builder()
+					.longOpt("resolve")
+					.desc("Print the command that would run the JAR, NUL-separated, instead of running it")
+					.get());
 			
-			if (!StringUtils.isNumeric(v)) {
-				log.error("JDK version must be a number");
-				System.exit(1);
-			}
+			options.addOption(Option.builder()
+					.longOpt("tee")
+					.hasArg()
+					.desc("Directory to copy the process output to, in rotated log files")
+					.get());
 			
-			int jdkVersion = Integer.parseInt(v);
-			String jarPath = cmd.getOptionValue("jar");
+			options.addOption(Option.builder()
+					.longOpt("no-gui")
+					.desc("Choose between several JDKs on the terminal instead of with the dialog")
+					.get());
 			
-			String[] unknownJvmArguments = cmd.getOptionValues("args");
-			String[] unknownJarParams = cmd.getOptionValues("params");
+			options.addOption(Option.builder()
+					.longOpt("timings")
+					.hasArg()
+					.optionalArg(true)
+					.argName("file")
+					.desc("Print how long each launch phase took to stderr, or append it as a JSON line to the given file")
+					.get());
 			
-			Set<String> jvmArgs = (unknownJvmArguments != null) ? Arrays.asList(unknownJvmArguments).stream().collect(Collectors.toSet()) : new HashSet<>();
-			Set<String> jarParams = (unknownJarParams != null) ? Arrays.asList(unknownJarParams).stream().collect(Collectors.toSet()) : new HashSet<>();
-
-			boolean hasEncodingArg = jvmArgs.stream().anyMatch(arg -> arg.toLowerCase().startsWith("-dfile.encoding="));
+			options.addOption(Option.builder()
+					.longOpt("java")
+					.hasArg()
+					.desc("Java executable to run the JAR with, instead of selecting a JDK")
+					.get());
 			
-			if (!hasEncodingArg) {
-				String argument = String.format("-Dfile.encoding=%s", Charset.defaultCharset());
-				log.debug("Encoding argument was not found, injecting argument: {}", argument);
-				jvmArgs.add(argument);
-			}
+			options.addOption(Option.builder()
+					.longOpt("profile")
+					.hasArg()
+					.optionalArg(true)
+					.argName("file")
+					.desc("Record the run with Flight Recorder and print a summary when it exits, keeping the recording in the given file")
+					.get());
 			
-			arguments = new Arguments();
-			arguments.setVersion(jdkVersion);
-			arguments.setJarPath(jarPath);
-			arguments.setJvmArgs(jvmArgs);
-			arguments.setJarParams(jarParams);
+			options.addOption(Option.builder()
+					.longOpt("metrics")
+					.hasArg()
+					.optionalArg(true)
+					.argName("json")
+					.desc("Print the wall time, CPU time, peak memory, context switches and I/O of the run when it exits, as text or JSON")
+					.get());
+		}
+		
+		if (matrix) {
+			options.addOption(Option.builder()
+					.longOpt("vendor")
+					.hasArg()
+					.desc("Only run the JDKs whose vendor contains this text")
+					.get());
 			
-			log.debug("Parsed arguments: {}", arguments);
-			return arguments;
-		} catch (ParseException e) {
-			log.error("Failed to parse command line arguments");
-			log.info("Usage: jdk <version> [-a <arg1> <arg2> ...] <jarPath> [-p <param1> <param2> ...]");
-			System.exit(1);
+			options.addOption(Option.builder()
+					.longOpt("parallel")
+					.hasArg()
+					.desc("How many JDKs to run at once, by default one per CPU core")
+					.get());
+			
+			options.addOption(Option.builder()
+					.longOpt("output")
+					.hasArg()
+					.desc("Directory to write the output of each JDK to, instead of printing it")
+					.get());
 		}
 		
-		// This return is unreachable, but required for compilation
-		return null;
+		return options;
+	}
+    
+    private static Options buildHistoryOptions() {
+		Options options = new Options();
+		
+		options.addOption(Option.builder()
+				.longOpt("jar")
+				.hasArg()
+				.desc("Only count the JARs whose path contains this text")
+				.get());
+		
+		options.addOption(Option.builder()
+				.longOpt("jdk")
+				.hasArg()
+				.desc("Only count the JDKs whose java path contains this text")
+				.get());
+		
+		options.addOption(Option.builder()
+				.longOpt("days")
+				.hasArg()
+				.desc("Only count the launches of the last days")
+				.get());
+		
+		return options;
+	}
+    
+    private static boolean isNumeric(String value) {
+		if (value == null || value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (!Character.isDigit(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
 	}
     
     public static Optional<Arguments> getParsedArguments() {
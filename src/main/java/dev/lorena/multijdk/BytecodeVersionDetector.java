@@ -0,0 +1,142 @@
+package dev.lorena.multijdk;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds the Java version a JAR needs from the class files it contains, for {@code -v auto}.
+ * <p>
+ * Only the central directory of the JAR and the first bytes of a few class files are read: the {@code Main-Class}
+ * and up to {@value #SAMPLED_CLASSES} other classes spread over the JAR. The highest class file major version among
+ * them gives the Java version, e.g. 61 is Java 17. The versioned classes of a {@code Multi-Release} JAR, under
+ * {@code META-INF/versions}, and {@code module-info.class} are ignored, since older JDKs do not load them.
+ * </p>
+ *
+ * <p>
+ * Results are cached in {@code jar-versions.tsv} next to {@code settings.json}, see {@link JarFileCache}, so later
+ * launches of the same JAR only read its attributes. Entries unused for {@value #MAX_AGE_DAYS} days, and the least
+ * recently used ones beyond {@value #MAX_ENTRIES}, are dropped.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     int version = BytecodeVersionDetector.getRequiredVersion(arguments.getJarPath());
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class BytecodeVersionDetector {
+
+	static final int SAMPLED_CLASSES = 64;
+	static final int MAX_ENTRIES = 4096;
+	static final int MAX_AGE_DAYS = 180;
+
+	private static final int CLASS_MAGIC = 0xCAFEBABE;
+	private static final int JAVA_8_MAJOR = 52;
+	private static final JarFileCache<Integer> cache = new JarFileCache<>("jar-versions.tsv", "JAR version cache",
+			MAX_ENTRIES, MAX_AGE_DAYS, Integer::valueOf, String::valueOf);
+
+	/**
+	 * Returns the Java feature version the JAR needs, e.g. 17.
+	 *
+	 * @param jarPath the JAR
+	 * @return the version, or -1 if the JAR cannot be read or holds no class file
+	 */
+	public static int getRequiredVersion(String jarPath) {
+		Path jar = Paths.get(jarPath).toAbsolutePath().normalize();
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+		} catch (IOException ex) {
+			log.debug("Cannot read {}: {}", jarPath, ex.getMessage());
+			return -1;
+		}
+
+		Integer cached = cache.get(jar, attributes);
+		if (cached != null) {
+			return cached;
+		}
+
+		int version;
+		try {
+			version = detect(jar);
+		} catch (IOException ex) {
+			log.debug("Cannot read the classes of {}: {}", jarPath, ex.getMessage());
+			return -1;
+		}
+		if (version > 0) {
+			cache.put(jar, attributes, version);
+		}
+		return version;
+	}
+
+	private static int detect(Path jar) throws IOException {
+		try (JarFile jarFile = new JarFile(jar.toFile(), false)) {
+			List<ZipEntry> sampled = new ArrayList<>();
+
+			Manifest manifest = jarFile.getManifest();
+			String mainClass = (manifest != null) ? manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS) : null;
+			ZipEntry main = (mainClass != null) ? jarFile.getEntry(mainClass.trim().replace('.', '/') + ".class") : null;
+			if (main != null) {
+				sampled.add(main);
+			}
+
+			// Listing the entries only walks the central directory, nothing is inflated
+			List<ZipEntry> classes = new ArrayList<>();
+			for (Enumeration<? extends ZipEntry> all = jarFile.entries(); all.hasMoreElements();) {
+				ZipEntry entry = all.nextElement();
+				String name = entry.getName();
+				if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class") && !entry.equals(main)) {
+					classes.add(entry);
+				}
+			}
+			int step = Math.max(1, classes.size() / SAMPLED_CLASSES);
+			for (int i = 0; i < classes.size() && sampled.size() <= SAMPLED_CLASSES; i += step) {
+				sampled.add(classes.get(i));
+			}
+
+			int major = -1;
+			for (ZipEntry entry : sampled) {
+				major = Math.max(major, readMajorVersion(jarFile, entry));
+			}
+			log.debug("Highest class file version of {} in {} sampled classes: {}", jar, sampled.size(), major);
+			// Class files older than Java 8 run on any JDK MultiJDK may find
+			return (major < 0) ? -1 : Math.max(major, JAVA_8_MAJOR) - 44;
+		}
+	}
+
+	private static int readMajorVersion(JarFile jarFile, ZipEntry entry) throws IOException {
+		try (InputStream input = jarFile.getInputStream(entry)) {
+			DataInputStream data = new DataInputStream(input);
+			if (data.readInt() != CLASS_MAGIC) {
+				return -1;
+			}
+			data.readUnsignedShort();
+			return data.readUnsignedShort();
+		} catch (EOFException ex) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Manages the class data sharing archives that speed up the startup of the JARs run by MultiJDK.
+ * <p>
+ * Archives live in the {@code cds} directory next to {@code settings.json}, one per JDK and JAR pair. The first run
+ * of a pair records an archive when the JVM exits, with {@code -XX:ArchiveClassesAtExit} on JDK 13 to 24 or
+ * {@code -XX:AOTCacheOutput} on JDK 25 and later, and the following runs load it with {@code -XX:SharedArchiveFile}
+ * or {@code -XX:AOTCache}. The archive name includes the JDK release and the JAR size and modification time, so
+ * an updated JDK or JAR gets a new archive and the old one is deleted. The least recently used archives are
+ * deleted once the directory grows over {@link Settings#getClassDataSharingCacheMaxMegabytes()}.
+ * </p>
+ *
+ * <p>
+ * JDKs older than 13 are skipped, and so are launches whose JVM arguments already configure class data sharing.
+ * A launch with {@code --profile} does not record an archive, since the JVM turns Flight Recorder off while it does.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     List&lt;String&gt; jvmArgs = ClassDataArchiveManager.getArchiveArguments(jdk, arguments);
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.2
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ClassDataArchiveManager {
+
+	private static final Path archiveDirectory = SettingsManager.getSettingsDirectory().resolve("cds");
+	private static final int DYNAMIC_ARCHIVE_VERSION = 13;
+	private static final int AOT_CACHE_VERSION = 25;
+	private static final List<String> USER_CDS_OPTIONS = Arrays.asList(
+			"-XX:SharedArchiveFile", "-XX:ArchiveClassesAtExit", "-XX:+AutoCreateSharedArchive",
+			"-XX:AOTCache", "-XX:AOTCacheOutput", "-XX:AOTMode", "-XX:AOTConfiguration", "-Xshare:off");
+
+	/**
+	 * Returns the JVM arguments that record or load the archive of the given JDK and JAR.
+	 * <p>
+	 * The archive messages of the JVM are turned off, since a missing or stale archive is not an error for the
+	 * application and those messages would otherwise end up in its standard output.
+	 * </p>
+	 *
+	 * @param jdk the JDK that will run the JAR
+	 * @param arguments the arguments of the launch
+	 * @return the JVM arguments to add, or an empty list if class data sharing does not apply
+	 */
+	public static List<String> getArchiveArguments(JDK jdk, Arguments arguments) {
+		Settings settings = SettingsManager.getSettings();
+		if (!settings.isClassDataSharing() || jdk.getVersion() < DYNAMIC_ARCHIVE_VERSION || hasUserOptions(arguments)) {
+			return Collections.emptyList();
+		}
+
+		try {
+			Path jar = Paths.get(arguments.getJarPath()).toRealPath();
+			String pairKey = hash(jdk.getPath(), jar.toString());
+			Path archive = archiveDirectory.resolve(pairKey + "-" + hash(getReleaseState(jdk), getFileState(jar))
+					+ (jdk.getVersion() >= AOT_CACHE_VERSION ? ".aot" : ".jsa"));
+
+			Files.createDirectories(archiveDirectory);
+			deleteOutdated(pairKey, archive);
+
+			boolean recorded = Files.isRegularFile(archive) && Files.size(archive) > 0;
+			if (!recorded && arguments.getProfile() != null) {
+				// Recording an archive disables Flight Recorder, so a profiled run leaves it to the next run
+				return Collections.emptyList();
+			}
+			if (recorded) {
+				Files.setLastModifiedTime(archive, FileTime.fromMillis(System.currentTimeMillis()));
+			} else {
+				evictLeastRecentlyUsed(settings.getClassDataSharingCacheMaxMegabytes() * 1024L * 1024L);
+			}
+
+			log.debug("{} class data archive {}", recorded ? "Using" : "Recording", archive);
+			if (jdk.getVersion() >= AOT_CACHE_VERSION) {
+				return Arrays.asList("-Xlog:aot=off,cds=off", (recorded ? "-XX:AOTCache=" : "-XX:AOTCacheOutput=") + archive);
+			}
+			return Arrays.asList("-Xlog:cds=off,cds+dynamic=off", (recorded ? "-XX:SharedArchiveFile=" : "-XX:ArchiveClassesAtExit=") + archive);
+		} catch (IOException ex) {
+			log.debug("Class data sharing disabled for {}: {}", arguments.getJarPath(), ex.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	private static boolean hasUserOptions(Arguments arguments) {
+		for (String arg : arguments.getJvmArgs()) {
+			for (String option : USER_CDS_OPTIONS) {
+				if (arg.startsWith(option)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String getReleaseState(JDK jdk) throws IOException {
+		Path release = jdk.getReleaseFile().toPath();
+		if (!Files.isRegularFile(release)) {
+			return jdk.getFullVersion();
+		}
+		return jdk.getFullVersion() + "@" + getFileState(release);
+	}
+
+	private static String getFileState(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		return attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+	}
+
+	/**
+	 * Deletes the archives recorded for the same JDK and JAR pair before either of them changed.
+	 */
+	private static void deleteOutdated(String pairKey, Path current) throws IOException {
+		try (DirectoryStream<Path> archives = Files.newDirectoryStream(archiveDirectory, pairKey + "-*")) {
+			for (Path archive : archives) {
+				if (!archive.equals(current)) {
+					log.debug("Deleting outdated class data archive {}", archive);
+					Files.deleteIfExists(archive);
+				}
+			}
+		}
+	}
+
+	private static void evictLeastRecentlyUsed(long maxBytes) throws IOException {
+		List<Path> archives = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(archiveDirectory)) {
+			stream.forEach(archives::add);
+		}
+
+		long total = 0L;
+		for (Path archive : archives) {
+			total += Files.size(archive);
+		}
+		if (total <= maxBytes) {
+			return;
+		}
+
+		archives.sort(Comparator.comparingLong(archive -> archive.toFile().lastModified()));
+		for (Path archive : archives) {
+			if (total <= maxBytes) {
+				break;
+			}
+			total -= Files.size(archive);
+			log.debug("Evicting class data archive {}", archive);
+			Files.deleteIfExists(archive);
+		}
+	}
+
+	/**
+	 * Hashes the given parts with 64-bit FNV-1a. Archive names only need to be distinct, not secure, and
+	 * a {@code MessageDigest} would load the security providers on every launch.
+	 */
+	static String hash(String... parts) {
+		long hash = 0xcbf29ce484222325L;
+		for (String part : parts) {
+			String value = String.valueOf(part);
+			for (int i = 0; i < value.length(); i++) {
+				hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+			}
+			hash = (hash ^ 0) * 0x100000001b3L;
+		}
+		return String.format("%016x", hash);
+	}
+
+}
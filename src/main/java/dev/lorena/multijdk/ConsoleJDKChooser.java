@@ -0,0 +1,149 @@
+package dev.lorena.multijdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Text-mode alternative to {@link JDKVersionChooser} for terminals, headless servers and {@code --no-gui}.
+ * <p>
+ * The JDKs are listed on the standard error, so the standard output stays clean for {@code --resolve},
+ * and the choice is read from the terminal, {@code /dev/tty}, when there is one, or else from the standard input.
+ * Either way it is read byte by byte up to the end of the line, so the rest of a piped standard input is left to the
+ * JVM that runs the JAR. Adding {@code !} after the number remembers the JDK for the JAR, like the checkbox of the
+ * dialog.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     JDK jdk = new ConsoleJDKChooser(jdks).choose(arguments.getJarPath());
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.3
+ * @since 1.5
+ */
+@Slf4j
+public class ConsoleJDKChooser {
+
+	private static final File TERMINAL = new File("/dev/tty");
+
+	private final List<JDK> jdks;
+
+	public ConsoleJDKChooser(List<JDK> jdks) {
+		this.jdks = jdks;
+	}
+
+	/**
+	 * Asks the user to choose one of the JDKs.
+	 *
+	 * @param jarPath the JAR that will be run, used to remember the choice
+	 * @return the chosen JDK, or {@code null} if the input ended before a valid choice was made
+	 */
+	public JDK choose(String jarPath) {
+		PrintStream out = System.err;
+		out.println("Multiple JDKs have been found for this version:");
+		for (int i = 0; i < jdks.size(); i++) {
+			JDK jdk = jdks.get(i);
+			String version = (jdk.getFullVersion() != null) ? jdk.getFullVersion() : String.valueOf(jdk.getVersion());
+			out.printf("  %d) %s - %s (%s)%n", i + 1, version, jdk.getVendor(), jdk.getPath());
+		}
+
+		InputStream terminal = openTerminal();
+		InputStream input = (terminal != null) ? terminal : System.in;
+		try {
+			while (true) {
+				out.printf("Choose a JDK [1-%d], add ! to remember it for this JAR: ", jdks.size());
+				out.flush();
+				String line = readLine(input);
+				if (line == null) {
+					out.println();
+					return null;
+				}
+
+				line = line.trim();
+				boolean remember = line.endsWith("!");
+				if (remember) {
+					line = line.substring(0, line.length() - 1).trim();
+				}
+
+				int choice = parseChoice(line);
+				if (choice >= 1 && choice <= jdks.size()) {
+					JDK chosen = jdks.get(choice - 1);
+					log.debug("Selected JDK: {}", chosen);
+					if (remember) {
+						rememberChoice(jarPath, chosen);
+					}
+					return chosen;
+				}
+			}
+		} catch (IOException ex) {
+			log.error("Could not read the JDK choice: {}", ex.getMessage());
+			return null;
+		} finally {
+			closeQuietly(terminal);
+		}
+	}
+
+	/**
+	 * Opens the controlling terminal, or returns {@code null} if there is none, e.g. on Windows or without a TTY.
+	 */
+	private static InputStream openTerminal() {
+		if (Platform.IS_WINDOWS || !TERMINAL.canRead()) {
+			return null;
+		}
+		try {
+			return new FileInputStream(TERMINAL);
+		} catch (IOException ex) {
+			log.debug("Cannot open {}: {}", TERMINAL, ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Reads one line without reading past it, unlike a {@link java.io.BufferedReader}.
+	 *
+	 * @return the line without its line break, or {@code null} if the input ended before any byte
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = input.read()) != -1 && b != '\n') {
+			line.write(b);
+		}
+		if (b == -1 && line.size() == 0) {
+			return null;
+		}
+		return new String(line.toByteArray(), Charset.defaultCharset());
+	}
+
+	private static void closeQuietly(InputStream input) {
+		try {
+			if (input != null) {
+				input.close();
+			}
+		} catch (IOException ex) {
+			// Nothing to do
+		}
+	}
+
+	private static int parseChoice(String line) {
+		try {
+			return Integer.parseInt(line);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	private static void rememberChoice(String jarPath, JDK jdk) {
+		SettingsManager.rememberPreferredJDK(JarIdentity.keyOf(jarPath), jdk.getPath());
+	}
+
+}
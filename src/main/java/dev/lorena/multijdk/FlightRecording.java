@@ -0,0 +1,252 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records a run with JDK Flight Recorder for {@code --profile}, and prints a summary of the recording when the
+ * process exits.
+ * <p>
+ * On JDK 11 and later, and on 8u262 and later, which have the open source Flight Recorder, the JVM is started with
+ * {@code -XX:StartFlightRecording} and a settings file bundled with MultiJDK. It only enables the events the summary
+ * reads: method samples every 10 ms, GC pauses, allocations, sampled on JDK 16 and later and per TLAB before, and
+ * monitor and park waits longer than 10 ms. The recording is written when the JVM exits, to the file given to
+ * {@code --profile=<file>} or else to the {@code profiles} directory next to {@code settings.json}, which keeps the
+ * last {@code profileMaxRecordings}. There, each launch reserves its own file, so launches of the same JAR in the same
+ * second do not share a recording. Paths holding a comma are refused, since the option is comma-separated.
+ * </p>
+ *
+ * <p>
+ * The summary is read with {@code jdk.jfr.consumer}, see {@link FlightRecordingSummary}, so it needs MultiJDK itself
+ * to run on Java 11 or later; otherwise only the location of the recording is printed, for JDK Mission Control or
+ * {@code jfr print}.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     List&lt;String&gt; jvmArgs = FlightRecording.getArguments(jdk, arguments);
+ *     int exitCode = runner.run(command, false);
+ *     FlightRecording.printSummary(jdk, arguments);
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class FlightRecording {
+
+	private static final Path recordingDirectory = SettingsManager.getSettingsDirectory().resolve("profiles");
+	private static final String SAMPLED_SETTINGS = "multijdk-profile.jfc";
+	private static final String TLAB_SETTINGS = "multijdk-profile-tlab.jfc";
+	private static final int ALLOCATION_SAMPLING_VERSION = 16;
+	private static final int STARTUP_LOGGING_VERSION = 17;
+
+	/**
+	 * Checks whether a JDK has the open source Flight Recorder: JDK 11 and later, and 8u262 and later.
+	 *
+	 * @param jdk the JDK
+	 * @return {@code true} if the JDK can record with {@code -XX:StartFlightRecording}
+	 */
+	public static boolean isSupported(JDK jdk) {
+		return jdk.getVersion() >= 11 || (jdk.getVersion() == 8 && jdk.getUpdate() >= 262);
+	}
+
+	/**
+	 * Returns the JVM arguments that record the run, and sets the recording file in {@code arguments} if none was given.
+	 *
+	 * @param jdk the JDK that will run the JAR
+	 * @param arguments the arguments of the launch
+	 * @return the JVM arguments to add, or an empty list if {@code --profile} was not given or the JDK cannot record
+	 */
+	public static List<String> getArguments(JDK jdk, Arguments arguments) {
+		if (arguments.getProfile() == null) {
+			return Collections.emptyList();
+		}
+
+		JDK release = withRelease(jdk);
+		if (!isSupported(release)) {
+			log.warn("Cannot profile with {} {}: Flight Recorder needs JDK 11 or later, or 8u262 or later",
+					jdk.getPath(), (release.getFullVersion() != null) ? release.getFullVersion() : release.getVersion());
+			arguments.setProfile(null);
+			return Collections.emptyList();
+		}
+
+		try {
+			boolean sampled = release.getVersion() >= ALLOCATION_SAMPLING_VERSION;
+			Path settings = extractSettings(sampled ? SAMPLED_SETTINGS : TLAB_SETTINGS);
+			if (settings.toString().indexOf(',') >= 0) {
+				throw new IOException("the settings directory " + settings.getParent() + " holds a comma");
+			}
+			Path recording = getRecordingPath(arguments);
+			arguments.setProfile(recording.toString());
+
+			List<String> flags = new ArrayList<>();
+			flags.add("-XX:StartFlightRecording=name=multijdk,filename=" + recording + ",settings=" + settings + ",dumponexit=true");
+			if (release.getVersion() >= STARTUP_LOGGING_VERSION) {
+				// Older JDKs print the startup message to the standard output, where there is no way around it
+				flags.add("-Xlog:jfr+startup=error");
+			}
+			log.debug("Recording {} to {}", arguments.getJarPath(), recording);
+			return flags;
+		} catch (IOException ex) {
+			log.warn("Cannot profile {}: {}", arguments.getJarPath(), ex.getMessage());
+			arguments.setProfile(null);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Prints the summary of the recording made for {@code arguments} to the standard error.
+	 *
+	 * @param jdk the JDK that ran the JAR
+	 * @param arguments the arguments of the launch, after {@link #getArguments(JDK, Arguments)}
+	 */
+	public static void printSummary(JDK jdk, Arguments arguments) {
+		if (arguments.getProfile() == null) {
+			return;
+		}
+
+		Path recording = Paths.get(arguments.getProfile());
+		if (!Files.isRegularFile(recording) || isEmpty(recording)) {
+			log.warn("No recording was written to {}, the process may have been killed", recording);
+			return;
+		}
+
+		if (!Platform.isJavaVersionAtLeast(11)) {
+			log.info("Recording saved to {}; run MultiJDK on Java 11 or later to summarize it, or open it in JDK Mission Control", recording);
+			return;
+		}
+
+		try {
+			JDK release = withRelease(jdk);
+			String title = FilenameUtils.getName(arguments.getJarPath()) + " on "
+					+ ((release.getFullVersion() != null) ? release.getFullVersion() : String.valueOf(release.getVersion()));
+			System.err.print(FlightRecordingSummary.summarize(recording, title));
+			System.err.flush();
+		} catch (IOException ex) {
+			log.warn("Cannot read the recording {}: {}", recording, ex.getMessage());
+		} catch (LinkageError ex) {
+			// A runtime linked without the jdk.jfr module
+			log.info("Recording saved to {}; this Java runtime cannot read it, open it in JDK Mission Control", recording);
+		}
+	}
+
+	/**
+	 * Returns the JDK with its release numbers, reading its 'release' file when it was given with {@code --java}.
+	 */
+	private static JDK withRelease(JDK jdk) {
+		if (jdk.getFullVersion() != null) {
+			return jdk;
+		}
+		Path home = Paths.get(jdk.getPath()).toAbsolutePath().getParent().getParent();
+		return ReleaseFileParser.parse(home).orElse(jdk);
+	}
+
+	private static Path getRecordingPath(Arguments arguments) throws IOException {
+		if (!arguments.getProfile().isEmpty()) {
+			Path recording = Paths.get(arguments.getProfile()).toAbsolutePath();
+			if (recording.getParent() != null) {
+				Files.createDirectories(recording.getParent());
+			}
+			return recording;
+		}
+
+		Files.createDirectories(recordingDirectory);
+		deleteOldRecordings(SettingsManager.getSettings().getProfileMaxRecordings() - 1);
+		String name = FilenameUtils.getBaseName(arguments.getJarPath()).replace(',', '_') + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		for (int attempt = 1;; attempt++) {
+			Path recording = recordingDirectory.resolve(name + ((attempt > 1) ? "-" + attempt : "") + ".jfr");
+			try {
+				// The empty file reserves the name until the JVM writes the recording over it at exit
+				Files.createFile(recording);
+				return recording;
+			} catch (FileAlreadyExistsException ex) {
+				log.debug("Recording {} already exists", recording);
+			}
+		}
+	}
+
+	private static boolean isEmpty(Path file) {
+		try {
+			return Files.size(file) == 0L;
+		} catch (IOException ex) {
+			return true;
+		}
+	}
+
+	/**
+	 * Deletes the oldest recordings in the {@code profiles} directory beyond the given number.
+	 */
+	private static void deleteOldRecordings(int keep) throws IOException {
+		List<Path> recordings = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(recordingDirectory, "*.jfr")) {
+			for (Path file : files) {
+				recordings.add(file);
+			}
+		}
+		recordings.sort(Comparator.comparingLong(FlightRecording::lastModified).reversed());
+		for (Path old : recordings.subList(Math.min(Math.max(0, keep), recordings.size()), recordings.size())) {
+			log.debug("Deleting old recording {}", old);
+			Files.deleteIfExists(old);
+		}
+	}
+
+	private static long lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException ex) {
+			return 0L;
+		}
+	}
+
+	/**
+	 * Copies a bundled settings file to the {@code profiles} directory, where the JVM can read it, unless an
+	 * identical copy is already there.
+	 */
+	private static Path extractSettings(String name) throws IOException {
+		byte[] content;
+		try (InputStream input = FlightRecording.class.getResourceAsStream("/jfr/" + name)) {
+			if (input == null) {
+				throw new IOException("Missing bundled settings " + name);
+			}
+			content = IOUtils.toByteArray(input);
+		}
+
+		Path settings = recordingDirectory.resolve(name);
+		if (Files.isRegularFile(settings) && Arrays.equals(Files.readAllBytes(settings), content)) {
+			return settings;
+		}
+		Files.createDirectories(recordingDirectory);
+		Path temporary = SettingsManager.temporaryFileFor(settings);
+		try {
+			Files.write(temporary, content, StandardOpenOption.CREATE_NEW);
+			SettingsManager.moveAtomically(temporary, settings);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		return settings;
+	}
+
+}
@@ -0,0 +1,243 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Summarizes a Flight Recorder recording made by {@link FlightRecording}, in a few lines for the terminal.
+ * <p>
+ * The recording is read one event at a time, and only four things are kept: the methods on top of the sampled
+ * stacks, the duration of every GC pause, the bytes allocated per class and allocating method, and the time spent
+ * waiting per monitor class and waiting method. The summary lists the {@value #TOP_METHODS} hottest methods, the
+ * GC pause percentiles, and the {@value #TOP_ENTRIES} largest allocation and lock contention sites.
+ * </p>
+ *
+ * <p>
+ * This class uses {@code jdk.jfr.consumer}, so it is only loaded on Java 11 or later; {@link FlightRecording}
+ * checks that first.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     System.err.print(FlightRecordingSummary.summarize(recording, "app.jar on 21.0.1"));
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class FlightRecordingSummary {
+
+	static final int TOP_METHODS = 10;
+	static final int TOP_ENTRIES = 5;
+
+	/**
+	 * Reads a recording and returns its summary.
+	 *
+	 * @param recording the {@code .jfr} file
+	 * @param title what was recorded, e.g. the JAR and the JDK version
+	 * @return the summary, several lines ending with a line separator
+	 * @throws IOException if the recording cannot be read
+	 */
+	public static String summarize(Path recording, String title) throws IOException {
+		Map<String, long[]> samples = new HashMap<>();
+		Map<String, long[]> allocations = new HashMap<>();
+		Map<String, long[]> contention = new HashMap<>();
+		long[] pauses = new long[64];
+		int pauseCount = 0;
+		long sampleCount = 0;
+		long allocated = 0;
+		long contended = 0;
+		Instant first = null;
+		Instant last = null;
+
+		try (RecordingFile file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				RecordedEvent event = file.readEvent();
+				if (first == null || event.getStartTime().isBefore(first)) {
+					first = event.getStartTime();
+				}
+				if (last == null || event.getEndTime().isAfter(last)) {
+					last = event.getEndTime();
+				}
+
+				switch (event.getEventType().getName()) {
+					case "jdk.ExecutionSample":
+						add(samples, topFrame(event.getStackTrace()), 1L);
+						sampleCount++;
+						break;
+					case "jdk.GCPhasePause":
+						if (pauseCount == pauses.length) {
+							pauses = Arrays.copyOf(pauses, pauseCount * 2);
+						}
+						pauses[pauseCount++] = event.getDuration().toNanos();
+						break;
+					case "jdk.ObjectAllocationSample":
+						allocated += add(allocations, allocationSite(event), event.getLong("weight"));
+						break;
+					case "jdk.ObjectAllocationInNewTLAB":
+						allocated += add(allocations, allocationSite(event), event.getLong("tlabSize"));
+						break;
+					case "jdk.ObjectAllocationOutsideTLAB":
+						allocated += add(allocations, allocationSite(event), event.getLong("allocationSize"));
+						break;
+					case "jdk.JavaMonitorEnter":
+						contended += add(contention, contentionSite(event, "monitorClass"), event.getDuration().toNanos());
+						break;
+					case "jdk.ThreadPark":
+						contended += add(contention, contentionSite(event, "parkedClass"), event.getDuration().toNanos());
+						break;
+					default:
+						break;
+				}
+			}
+		}
+
+		long recorded = (first != null) ? Duration.between(first, last).toNanos() : 0L;
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format(Locale.ROOT, "Profile of %s, %s recorded in %s%n", title, formatNanos(recorded), recording));
+
+		summary.append(String.format(Locale.ROOT, "CPU samples: %d%n", sampleCount));
+		for (Map.Entry<String, long[]> entry : top(samples, TOP_METHODS)) {
+			summary.append(String.format(Locale.ROOT, "  %6.1f%%  %s%n", percent(entry.getValue()[0], sampleCount), entry.getKey()));
+		}
+
+		long[] sorted = Arrays.copyOf(pauses, pauseCount);
+		Arrays.sort(sorted);
+		long paused = 0;
+		for (long pause : sorted) {
+			paused += pause;
+		}
+		if (pauseCount == 0) {
+			summary.append(String.format(Locale.ROOT, "GC pauses: none%n"));
+		} else {
+			summary.append(String.format(Locale.ROOT, "GC pauses: %d, %s in total (%.1f%% of the run), p50 %s, p95 %s, p99 %s, max %s%n",
+					pauseCount, formatNanos(paused), percent(paused, recorded), formatNanos(percentile(sorted, 50)),
+					formatNanos(percentile(sorted, 95)), formatNanos(percentile(sorted, 99)), formatNanos(sorted[pauseCount - 1])));
+		}
+
+		summary.append(String.format(Locale.ROOT, "Allocation hot spots: about %s allocated%n", formatBytes(allocated)));
+		for (Map.Entry<String, long[]> entry : top(allocations, TOP_ENTRIES)) {
+			summary.append(String.format(Locale.ROOT, "  %6.1f%%  %s%n", percent(entry.getValue()[0], allocated), entry.getKey()));
+		}
+
+		summary.append(String.format(Locale.ROOT, "Lock contention: %s waiting%n", formatNanos(contended)));
+		for (Map.Entry<String, long[]> entry : top(contention, TOP_ENTRIES)) {
+			summary.append(String.format(Locale.ROOT, "  %9s  %s (%d times)%n", formatNanos(entry.getValue()[0]), entry.getKey(), entry.getValue()[1]));
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * Adds {@code amount} to the total of {@code key}, and counts it, and returns {@code amount}.
+	 */
+	private static long add(Map<String, long[]> totals, String key, long amount) {
+		long[] total = totals.computeIfAbsent(key, k -> new long[2]);
+		total[0] += amount;
+		total[1]++;
+		return amount;
+	}
+
+	private static List<Map.Entry<String, long[]>> top(Map<String, long[]> totals, int limit) {
+		List<Map.Entry<String, long[]>> entries = new ArrayList<>(totals.entrySet());
+		entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+		return entries.subList(0, Math.min(limit, entries.size()));
+	}
+
+	private static String allocationSite(RecordedEvent event) {
+		return typeName(event.getClass("objectClass")) + " in " + topFrame(event.getStackTrace());
+	}
+
+	private static String contentionSite(RecordedEvent event, String classField) {
+		RecordedClass waitedOn = event.hasField(classField) ? event.getClass(classField) : null;
+		return ((waitedOn != null) ? typeName(waitedOn) + " in " : "") + topFrame(event.getStackTrace());
+	}
+
+	private static String topFrame(RecordedStackTrace stackTrace) {
+		if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+			return "(no stack trace)";
+		}
+		RecordedFrame frame = stackTrace.getFrames().get(0);
+		String method = frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+		return (frame.getLineNumber() > 0) ? method + ":" + frame.getLineNumber() : method;
+	}
+
+	/**
+	 * Returns the Java name of a class, e.g. {@code int[]} rather than {@code [I}.
+	 */
+	private static String typeName(RecordedClass recordedClass) {
+		if (recordedClass == null) {
+			return "?";
+		}
+		String name = recordedClass.getName();
+		int dimensions = 0;
+		while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+			dimensions++;
+		}
+		if (dimensions == 0) {
+			return name;
+		}
+
+		String element = name.substring(dimensions);
+		switch (element) {
+			case "Z": element = "boolean"; break;
+			case "B": element = "byte"; break;
+			case "C": element = "char"; break;
+			case "S": element = "short"; break;
+			case "I": element = "int"; break;
+			case "J": element = "long"; break;
+			case "F": element = "float"; break;
+			case "D": element = "double"; break;
+			default: element = element.substring(1, element.length() - 1).replace('/', '.'); break;
+		}
+		StringBuilder type = new StringBuilder(element);
+		for (int i = 0; i < dimensions; i++) {
+			type.append("[]");
+		}
+		return type.toString();
+	}
+
+	/**
+	 * Returns the nearest-rank percentile of sorted values.
+	 */
+	private static long percentile(long[] sorted, int percent) {
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	private static double percent(long part, long whole) {
+		return (whole > 0) ? 100.0 * part / whole : 0.0;
+	}
+
+	private static String formatNanos(long nanos) {
+		if (nanos >= 1_000_000_000L) {
+			return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+		}
+		return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes >= 1024L * 1024 * 1024) {
+			return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024 * 1024));
+		}
+		return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+	}
+
+}
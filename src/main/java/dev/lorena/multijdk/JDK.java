@@ -1,19 +1,65 @@
 package dev.lorena.multijdk;
 
-import lombok.AllArgsConstructor;
+import java.io.File;
+import java.util.List;
+
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
-@AllArgsConstructor
+@NoArgsConstructor
 public class JDK implements Comparable<JDK> {
 
 	private int version;
+	private int interim;
+	private int update;
+	private int patch;
+	private String fullVersion;
 	private String path;
 	private String vendor;
-	
+	private String implementorVersion;
+	private String osArch;
+	private String jvmVariant;
+	private List<String> modules;
+
+	public JDK(int version, String path, String vendor) {
+		this.version = version;
+		this.path = path;
+		this.vendor = vendor;
+	}
+
+	/**
+	 * Returns the 'release' file of this JDK, located two levels above the java executable.
+	 *
+	 * @return the 'release' file of the JDK home
+	 */
+	public File getReleaseFile() {
+		return new File(new File(path).getParentFile().getParentFile(), "release");
+	}
+
+	/**
+	 * Compares only the release numbers (feature, interim, update and patch) of two JDKs.
+	 *
+	 * @param o the JDK to compare with
+	 * @return a negative number, zero or a positive number if this JDK is older, the same release or newer than {@code o}
+	 */
+	public int compareReleaseTo(JDK o) {
+		// Plain comparisons rather than a composed Comparator, which spins several lambda classes on every launch
+		if (version != o.version) {
+			return Integer.compare(version, o.version);
+		}
+		if (interim != o.interim) {
+			return Integer.compare(interim, o.interim);
+		}
+		if (update != o.update) {
+			return Integer.compare(update, o.update);
+		}
+		return Integer.compare(patch, o.patch);
+	}
+
 	@Override
 	public int compareTo(JDK o) {
-		int versionCompare = Integer.compare(this.version, o.version);
+		int versionCompare = compareReleaseTo(o);
 		if (versionCompare != 0) {
 			return versionCompare;
 		}
@@ -22,5 +68,5 @@ public class JDK implements Comparable<JDK> {
 		if (o.vendor == null) return 1;
 		return this.vendor.compareToIgnoreCase(o.vendor);
 	}
-	
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,155 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Directory walker that locates JDK homes below a set of roots.
+ * <p>
+ * A directory is considered a JDK home when it contains both a 'release' file and a 'bin/java'
+ * executable ('bin\java.exe' on Windows). Once a home is found the walker does not descend into it,
+ * directories whose name matches one of the exclude globs are skipped entirely, and symbolic links
+ * are followed but every home is reported only once, by its canonical real path.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     JDKDirectoryWalker walker = new JDKDirectoryWalker(Arrays.asList("node_modules", ".git"));
+ *     walker.walk(Paths.get("/usr/lib/jvm"), 4);
+ *     Set&lt;Path&gt; homes = walker.getJDKHomes();
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+public class JDKDirectoryWalker extends SimpleFileVisitor<Path> {
+
+	private static final String JAVA_EXECUTABLE = Platform.IS_WINDOWS ? "java.exe" : "java";
+
+	private final List<PathMatcher> excludes;
+	private final Set<Path> jdkHomes = new LinkedHashSet<>();
+	private Path currentRoot = null;
+
+	/**
+	 * Creates a walker that skips directories whose name matches any of the given globs.
+	 *
+	 * @param excludeGlobs glob patterns matched against directory names, e.g. {@code node_modules}
+	 */
+	public JDKDirectoryWalker(List<String> excludeGlobs) {
+		this.excludes = excludeGlobs.stream()
+				.map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Walks the given root looking for JDK homes.
+	 *
+	 * @param root the directory to walk; ignored if it does not exist
+	 * @param maxDepth the maximum depth, relative to {@code root}, at which a JDK home is looked for
+	 */
+	public void walk(Path root, int maxDepth) {
+		if (!Files.isDirectory(root)) {
+			log.trace("Skipping missing location {}", root);
+			return;
+		}
+		currentRoot = root;
+		try {
+			// A home at depth N is only recognised in preVisitDirectory, which requires depth N + 1
+			Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth + 1, this);
+		} catch (IOException ex) {
+			log.error("There was an error searching for JDKs in {}: {}", root, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the canonical paths of the JDK homes found so far, in discovery order.
+	 *
+	 * @return the JDK homes found by this walker
+	 */
+	public Set<Path> getJDKHomes() {
+		return jdkHomes;
+	}
+
+	/**
+	 * Checks whether the given directory looks like a JDK home.
+	 *
+	 * @param dir the directory to check
+	 * @return {@code true} if the directory has a 'release' file and a java executable
+	 */
+	public static boolean isJDKHome(Path dir) {
+		return Files.isRegularFile(dir.resolve("release")) && Files.isRegularFile(dir.resolve("bin").resolve(JAVA_EXECUTABLE));
+	}
+
+	/**
+	 * Returns the java executable inside the given JDK home.
+	 *
+	 * @param home the JDK home
+	 * @return the path to 'bin/java' (or 'bin\java.exe' on Windows)
+	 */
+	public static Path getJavaExecutable(Path home) {
+		return home.resolve("bin").resolve(JAVA_EXECUTABLE);
+	}
+
+	@Override
+	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+		Timings.add(Timings.Counter.DIRECTORIES_VISITED, 1);
+		if (!dir.equals(currentRoot) && isExcluded(dir)) {
+			log.trace("Skipping excluded directory {}", dir);
+			return FileVisitResult.SKIP_SUBTREE;
+		}
+
+		if (isJDKHome(dir)) {
+			Path realHome = dir.toRealPath();
+			if (jdkHomes.add(realHome)) {
+				log.trace("Found JDK home {} at {}", realHome, dir);
+			} else {
+				log.trace("Skipping already known JDK home {} reached through {}", realHome, dir);
+			}
+			return FileVisitResult.SKIP_SUBTREE;
+		}
+
+		return FileVisitResult.CONTINUE;
+	}
+
+	@Override
+	public FileVisitResult visitFileFailed(Path file, IOException exc) {
+		log.trace("Could not visit {}: {}", file, exc.toString());
+		return FileVisitResult.CONTINUE;
+	}
+
+	/**
+	 * Checks whether the name of the given directory matches one of the exclude globs.
+	 *
+	 * @param dir the directory to check
+	 * @return {@code true} if the directory must not be walked
+	 */
+	public boolean isExcluded(Path dir) {
+		Path name = dir.getFileName();
+		if (name == null) {
+			return false;
+		}
+		for (PathMatcher matcher : excludes) {
+			if (matcher.matches(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
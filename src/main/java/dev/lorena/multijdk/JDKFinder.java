@@ -1,21 +1,10 @@
 package dev.lorena.multijdk;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
-import java.util.Properties;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.Strings;
-import org.apache.commons.lang3.SystemUtils;
+import java.util.Optional;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -24,17 +13,17 @@ import lombok.extern.slf4j.Slf4j;
  * Utility class for searching and identifying installed JDKs on the system.
  * <p>
  * This class scans common installation directories and any custom locations specified in the settings.
- * It extracts JDK version and vendor information by reading the 'release' file found in JDK installations.
+ * It extracts JDK version, vendor and build information by reading the 'release' file found in JDK installations.
  * </p>
  *
  * <p><b>Usage example:</b></p>
  * <pre>
  *     JDKFinder finder = new JDKFinder();
- *     List<JDK> jdks = finder.findJDKs();
+ *     List<JDK> jdks = finder.findJDKs(false);
  * </pre>
  *
  * @author Lorena Nuñez
- * @version 1.4
+ * @version 2.0
  * @since 1.0
  */
 @Slf4j
@@ -47,11 +36,42 @@ public class JDKFinder {
      * Searches for installed JDKs in common locations on the system.
      * <p>
      * The method looks for JDK installations in well-known directories and returns a list of detected JDKs with their version, path, and vendor information.
+     * The result of the last full scan is kept in the JDK index and reused as long as it is still valid, unless {@code rescan} is {@code true}.
      * </p>
      *
+     * @param rescan whether to ignore the JDK index and scan all locations again
      * @return a list of found {@link JDK} objects with version, path, and vendor information
      */
-    public List<JDK> findJDKs() {
+    public List<JDK> findJDKs(boolean rescan) {
+        List<String> locations = getLocations();
+        
+        if (!rescan) {
+        	long start = Timings.start();
+        	Optional<List<JDK>> indexedJDKs = JDKIndexManager.loadValidIndex(locations);
+        	Timings.record("indexValidation", start);
+        	if (indexedJDKs.isPresent()) {
+        		Timings.add(Timings.Counter.JDKS_FOUND, indexedJDKs.get().size());
+        		return indexedJDKs.get();
+        	}
+        }
+        
+        long start = Timings.start();
+        List<JDK> jdks = extractJDKsfromLocations(locations);
+        Timings.record("scan", start);
+        Timings.add(Timings.Counter.JDKS_FOUND, jdks.size());
+        log.debug("Searching for JDK installations in common locations:");
+        log.debug("Found JDK installations:");
+        jdks.forEach(jdk -> log.debug("\t{}: {}", jdk.getVersion(), jdk.getPath()));
+        JDKIndexManager.saveIndex(locations, jdks);
+        return jdks;
+    }
+    
+    /**
+     * Returns the locations JDKs are searched in: the common ones for the operating system, followed by the custom ones from the settings.
+     *
+     * @return the discovery roots, in priority order
+     */
+    public List<String> getLocations() {
         Settings settings = SettingsManager.getSettings();
         
         List<String> locations = getCommonLocationsForOS(os);
@@ -60,12 +80,7 @@ public class JDKFinder {
         
         log.debug("Custom JDK locations from settings: {}", settings.getCustomJDKlocations());
         locations.addAll(settings.getCustomJDKlocations());
-        
-        List<JDK> jdks = extractJDKsfromLocations(locations);
-        log.debug("Searching for JDK installations in common locations:");
-        log.debug("Found JDK installations:");
-        jdks.forEach(jdk -> log.debug("\t{}: {}", jdk.getVersion(), jdk.getPath()));
-        return jdks;
+        return locations;
     }
     
     private List<String> getCommonLocationsForOS(String os) {
@@ -104,119 +119,20 @@ public class JDKFinder {
     /**
      * Extracts JDKs from the given list of directory paths.
      * <p>
-     * For each path, this method searches recursively for 'java.exe' executables, then attempts to locate and parse the corresponding 'release' file to extract version and vendor information.
+     * The paths are scanned concurrently by a {@link JDKScanner}: the walk stops descending at every JDK home it finds, skips the excluded directories
+     * configured in the settings and reports each home only once even when it is reachable through several symbolic links.
+     * The 'release' file of every home is then parsed once by the {@link ReleaseFileParser}.
      * </p>
      *
      * @param paths list of directory paths to search for JDKs
      * @return a list of {@link JDK} objects found in the specified locations
      */
 	private List<JDK> extractJDKsfromLocations(List<String> paths) {
-        List<JDK> jdks = new ArrayList<>();
-        IOFileFilter filter = new IOFileFilter() {
-			@Override
-			public boolean accept(File file) {
-				return accept(file.getParentFile(), file.getName());
-			}
-			@Override
-			public boolean accept(File dir, String name) {
-				boolean isJavaExec = (SystemUtils.IS_OS_WINDOWS) ? name.equalsIgnoreCase("java.exe") : name.equalsIgnoreCase("java");
-		        boolean pathContainsJdk = Strings.CI.contains(dir.getAbsolutePath(), "jdk");
-		        boolean pathDontContainsJre = !Strings.CI.contains(dir.getAbsolutePath(), "jre");
-		        return isJavaExec && pathContainsJdk && pathDontContainsJre;
-			}
-        };
-        
-		paths.forEach(path -> {
-        	Collection<File> files = FileUtils.listFiles(new File(path), filter, DirectoryFileFilter.DIRECTORY);
-        	files.forEach(file ->  {
-        		
-        		File releaseFile = FileUtils.getFile(file.getParentFile().getParentFile().getAbsolutePath(), "release");
-        		
-        		if (releaseFile != null && releaseFile.exists() && releaseFile.canRead()) {
-        			int version = extractVersionFromReleaseFile(releaseFile);
-	        		String jdkPath = file.getAbsolutePath();
-	        		String vendor = extractVendorFromReleaseFile(releaseFile);
-	        		jdks.add(new JDK(version,jdkPath, vendor));
-        		} else {
-        			log.error("There was an error reading the RELEASE file for JDK at path: {}", file.getAbsolutePath());
-        		}
-        		
-        	});
-        });
+        List<Path> homes = new JDKScanner(SettingsManager.getSettings()).scan(paths);
+		
+        List<JDK> jdks = new ArrayList<>(homes.size());
+        homes.forEach(home -> ReleaseFileParser.parse(home).ifPresent(jdks::add));
         return jdks;
     }
 	
-    /**
-     * Extracts the major version number from the 'release' file of a JDK installation.
-     * <p>
-     * The method reads the 'JAVA_VERSION' property from the release file and parses the major version number according to Java versioning conventions.
-     * </p>
-     *
-     * @param file the 'release' file inside a JDK directory
-     * @return the major version number of the JDK, or -1 if not found or on error
-     */
-	private int extractVersionFromReleaseFile(File file) {
-		int numericVersion = -1;
-
-		Properties properties = getPropertiesFromReleaseFile(file);
-
-		String version = properties.getProperty("JAVA_VERSION").replace("\"", "");
- 		String numbers = StringUtils.getDigits(version);
-
-		if (version.startsWith("1.")) {
-			numericVersion = Integer.parseInt(String.valueOf(numbers.charAt(1)));
-		} else if (numbers.startsWith("9")) {
-			numericVersion = Integer.parseInt(String.valueOf(numbers.charAt(0)));
-		} else {
-			numericVersion = Integer.parseInt(StringUtils.left(numbers, 2));
-		}
-
-		return numericVersion;
-	}
-	
-    /**
-     * Extracts the vendor name from the 'release' file of a JDK installation.
-     * <p>
-     * The method reads the 'IMPLEMENTOR' property from the release file.
-     * </p>
-     *
-     * @param file the 'release' file inside a JDK directory
-     * @return the vendor name, or null if not found
-     */
-	private String extractVendorFromReleaseFile(File file) {
-		Properties properties = getPropertiesFromReleaseFile(file);
-		String vendor = properties.getProperty("IMPLEMENTOR");
-		return (vendor != null) ? vendor.trim() : null;
-	}
-	
-    /**
-     * Loads properties from a JDK 'release' file.
-     * <p>
-     * Reads the file content and loads it into a {@link Properties} object.
-     * </p>
-     *
-     * @param file the 'release' file to read
-     * @return a {@link Properties} object containing the file's properties, or null if the file cannot be read
-     */
-	private Properties getPropertiesFromReleaseFile(File file) {
-		if (file == null) {
-			log.error("File cannot be null");
-			System.exit(0);
-		}
-		if (file.exists() && file.canRead()) {
-			try {
-				String fileContent = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
-				Properties properties = new Properties();
-				properties.load(new StringReader(fileContent));
-				return properties;
-			} catch (IOException ex) {
-				log.error("There was an error loading properties from RELEASE file: {}", ex.getMessage());
-			}
-		} else {
-			log.error("RELEASE files does not exists or JVM cannot read it: {}", file.getAbsolutePath());
-			System.exit(0);
-		}
-		return new Properties();
-	}
-	
 }
\ No newline at end of file
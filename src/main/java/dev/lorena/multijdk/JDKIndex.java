@@ -0,0 +1,50 @@
+package dev.lorena.multijdk;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Persisted snapshot of a JDK discovery run.
+ * <p>
+ * Stores the scanned roots with their modification time and search depth, the excluded directory
+ * globs in effect, and every discovered {@link JDK} together with the modification time and size
+ * of its 'release' file, so a later run can revalidate the snapshot with a handful of {@code stat} calls instead of walking the roots again.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Data
+public class JDKIndex {
+
+	/** Version of the index layout; indexes written with another version are discarded. */
+	public static final int FORMAT_VERSION = 2;
+
+	private int formatVersion;
+	private List<IndexedRoot> roots;
+	private List<String> excludedDirectories;
+	private List<IndexedJDK> jdks;
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class IndexedRoot {
+		private String path;
+		private long lastModified;
+		private int searchDepth;
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class IndexedJDK {
+		private JDK jdk;
+		private long releaseLastModified;
+		private long releaseSize;
+	}
+
+}
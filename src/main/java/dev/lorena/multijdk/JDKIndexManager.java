@@ -0,0 +1,139 @@
+package dev.lorena.multijdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads, validates and saves the on-disk {@link JDKIndex} stored next to {@code settings.json}.
+ * <p>
+ * An index is considered valid when it was built for the same list of roots and search settings, every root still has
+ * the recorded modification time, and every indexed JDK still has a 'release' file with the recorded
+ * modification time and size. Anything else forces a full rescan in {@link JDKFinder}.
+ * </p>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class JDKIndexManager {
+
+	private static final Gson gson = new Gson();
+	private static final Path indexPath = SettingsManager.getSettingsDirectory().resolve("jdk-index.json");
+
+	/**
+	 * Loads the persisted index and returns its JDKs if it is still valid for the given roots.
+	 *
+	 * @param roots the discovery roots the caller is about to scan
+	 * @return the indexed JDKs, or an empty {@link Optional} if the index is missing, unreadable or stale
+	 */
+	public static Optional<List<JDK>> loadValidIndex(List<String> roots) {
+		if (!Files.isRegularFile(indexPath)) {
+			log.debug("No JDK index found at {}", indexPath);
+			return Optional.empty();
+		}
+
+		JDKIndex index;
+		try {
+			String content = new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8);
+			index = gson.fromJson(content, JDKIndex.class);
+		} catch (IOException | JsonParseException ex) {
+			log.debug("JDK index at {} could not be read, ignoring it: {}", indexPath, ex.getMessage());
+			return Optional.empty();
+		}
+
+		if (index == null || index.getRoots() == null || index.getJdks() == null) {
+			return Optional.empty();
+		}
+
+		if (index.getFormatVersion() != JDKIndex.FORMAT_VERSION) {
+			log.debug("JDK index at {} was written by another MultiJDK version", indexPath);
+			return Optional.empty();
+		}
+
+		List<String> indexedRoots = index.getRoots().stream().map(JDKIndex.IndexedRoot::getPath).collect(Collectors.toList());
+		if (!indexedRoots.equals(roots)) {
+			log.debug("Discovery roots changed since the JDK index was built");
+			return Optional.empty();
+		}
+
+		Settings settings = SettingsManager.getSettings();
+		if (!settings.getExcludedDirectories().equals(index.getExcludedDirectories())) {
+			log.debug("Excluded directories changed since the JDK index was built");
+			return Optional.empty();
+		}
+
+		for (JDKIndex.IndexedRoot root : index.getRoots()) {
+			if (root.getSearchDepth() != settings.getSearchDepthFor(root.getPath())) {
+				log.debug("Search depth for {} changed since the JDK index was built", root.getPath());
+				return Optional.empty();
+			}
+			if (new File(root.getPath()).lastModified() != root.getLastModified()) {
+				log.debug("Root {} changed since the JDK index was built", root.getPath());
+				return Optional.empty();
+			}
+		}
+
+		List<JDK> jdks = new ArrayList<>(index.getJdks().size());
+		for (JDKIndex.IndexedJDK indexed : index.getJdks()) {
+			File releaseFile = indexed.getJdk().getReleaseFile();
+			if (releaseFile.lastModified() != indexed.getReleaseLastModified() || releaseFile.length() != indexed.getReleaseSize()) {
+				log.debug("JDK at {} changed since the JDK index was built", indexed.getJdk().getPath());
+				return Optional.empty();
+			}
+			jdks.add(indexed.getJdk());
+		}
+
+		log.debug("Using JDK index from {} ({} JDKs)", indexPath, jdks.size());
+		return Optional.of(jdks);
+	}
+
+	/**
+	 * Persists the result of a full discovery run.
+	 * <p>
+	 * The index is written to a temporary file and moved into place, so a concurrent reader never sees
+	 * a partially written index. Failures are logged and otherwise ignored, as the index is only a cache.
+	 * </p>
+	 *
+	 * @param roots the roots that were scanned
+	 * @param jdks the JDKs found in those roots
+	 */
+	public static void saveIndex(List<String> roots, List<JDK> jdks) {
+		Settings settings = SettingsManager.getSettings();
+		JDKIndex index = new JDKIndex();
+		index.setFormatVersion(JDKIndex.FORMAT_VERSION);
+		index.setRoots(roots.stream()
+				.map(root -> new JDKIndex.IndexedRoot(root, new File(root).lastModified(), settings.getSearchDepthFor(root)))
+				.collect(Collectors.toList()));
+		index.setExcludedDirectories(settings.getExcludedDirectories());
+		index.setJdks(jdks.stream()
+				.map(jdk -> new JDKIndex.IndexedJDK(jdk, jdk.getReleaseFile().lastModified(), jdk.getReleaseFile().length()))
+				.collect(Collectors.toList()));
+
+		try {
+			Path tempFile = Files.createTempFile(indexPath.getParent(), "jdk-index", ".tmp");
+			Files.write(tempFile, gson.toJson(index).getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.debug("JDK index saved to {}", indexPath);
+		} catch (IOException ex) {
+			log.warn("Could not save JDK index to {}: {}", indexPath, ex.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,302 @@
+package dev.lorena.multijdk;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FilenameUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs one JAR on several JDKs at once, to check it against every installed version, and summarizes the results.
+ * <p>
+ * The JDKs are the discovered ones matching the requested versions and vendor, each installation once. Up to one
+ * JDK per CPU core runs at a time, unless {@code --parallel} says otherwise, so the matrix takes about as long as the
+ * slowest JDK instead of the sum of all of them. The output of each JDK is captured with {@link JDKRunner#capture}
+ * and printed as a block when it finishes, or written to its own file with {@code --output}. At the end a table
+ * shows the exit code, wall time and, on Linux, peak resident memory of every run.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     int exitCode = new JDKMatrix(new JDKRunner()).run(jdks, ArgumentsHandler.getMatrixArguments(args));
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.2
+ * @since 1.5
+ */
+@Slf4j
+public class JDKMatrix {
+
+	private final JDKRunner runner;
+
+	public JDKMatrix(JDKRunner runner) {
+		this.runner = runner;
+	}
+
+	/**
+	 * Runs the JAR on every selected JDK and prints the summary table to the standard output.
+	 *
+	 * @param jdks the discovered JDKs
+	 * @param arguments the parsed {@code matrix} arguments
+	 * @return 0 if the JAR exited with 0 on every JDK, 1 otherwise
+	 */
+	public int run(List<JDK> jdks, Arguments arguments) {
+		List<JDK> selected = select(jdks, arguments);
+		if (selected.isEmpty()) {
+			log.error("No JDK found for versions {}{}", describeVersions(arguments),
+					(arguments.getVendor() != null) ? " and vendor " + arguments.getVendor() : "");
+			return 1;
+		}
+
+		List<Path> outputFiles;
+		try {
+			outputFiles = buildOutputFiles(selected, arguments);
+		} catch (IOException ex) {
+			log.error("Cannot write the output to {}: {}", arguments.getOutputDirectory(), ex.getMessage());
+			return 1;
+		}
+
+		int parallelism = (arguments.getParallelism() > 0) ? arguments.getParallelism() : Runtime.getRuntime().availableProcessors();
+		parallelism = Math.min(parallelism, selected.size());
+		// The launch profile splits the budget between this many JVMs, as they start before /proc shows any of them
+		arguments.setParallelism(parallelism);
+		log.info("Running {} on {} JDKs, {} at a time", arguments.getJarPath(), selected.size(), parallelism);
+
+		long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+		List<Future<MatrixResult>> futures = new ArrayList<>();
+		for (int i = 0; i < selected.size(); i++) {
+			JDK jdk = selected.get(i);
+			Path outputFile = outputFiles.get(i);
+			futures.add(workers.submit(() -> runOne(jdk, arguments, outputFile)));
+		}
+		workers.shutdown();
+
+		List<MatrixResult> results = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				results.add(futures.get(i).get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				workers.shutdownNow();
+				return 1;
+			} catch (ExecutionException ex) {
+				log.error("Could not run {}: {}", selected.get(i).getPath(), ex.getCause().getMessage());
+				results.add(new MatrixResult(selected.get(i)));
+			}
+		}
+
+		printSummary(results, System.nanoTime() - start);
+
+		for (MatrixResult result : results) {
+			if (result.exitCode != 0) {
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Selects the JDKs to run, oldest first: those matching one of the requested versions, or all of them when none
+	 * was requested, and whose vendor contains the requested text or is the requested distribution, see
+	 * {@link JDKResolver#matchesVendor(JDK, String)}. JDKs found through several paths, e.g. symbolic
+	 * links, are only kept once.
+	 *
+	 * @param jdks the discovered JDKs
+	 * @param arguments the parsed {@code matrix} arguments
+	 * @return the JDKs to run
+	 */
+	static List<JDK> select(List<JDK> jdks, Arguments arguments) {
+		List<Integer> versions = arguments.getMatrixVersions();
+		String vendor = arguments.getVendor();
+
+		List<JDK> sorted = new ArrayList<>(jdks);
+		Collections.sort(sorted);
+
+		List<JDK> selected = new ArrayList<>();
+		Set<Path> seen = new HashSet<>();
+		for (JDK jdk : sorted) {
+			if (versions != null && !versions.isEmpty() && !versions.contains(jdk.getVersion())) {
+				continue;
+			}
+			if (vendor != null && !JDKResolver.matchesVendor(jdk, vendor)) {
+				continue;
+			}
+			if (seen.add(realPath(Paths.get(jdk.getPath())))) {
+				selected.add(jdk);
+			}
+		}
+		return selected;
+	}
+
+	private MatrixResult runOne(JDK jdk, Arguments arguments, Path outputFile) {
+		MatrixResult result = new MatrixResult(jdk);
+		List<String> command = runner.buildCommand(jdk, arguments);
+		log.debug("Built command: {}", String.join(" ", command));
+
+		ByteArrayOutputStream buffer = (outputFile == null) ? new ByteArrayOutputStream() : null;
+		long start = System.nanoTime();
+		try (OutputStream output = (outputFile == null)
+				? buffer
+				: new BufferedOutputStream(new FileOutputStream(outputFile.toFile()), StreamPump.BUFFER_SIZE)) {
+			result.exitCode = runner.capture(command, output, process -> samplePeakRss(process, result));
+		} catch (IOException ex) {
+			log.error("Could not run {}: {}", jdk.getPath(), ex.getMessage());
+		}
+		result.wallNanos = System.nanoTime() - start;
+
+		if (buffer != null) {
+			printOutput(result, buffer);
+		} else {
+			log.info("{} finished with exit code {}, output in {}", describe(jdk), result.exitCode, outputFile);
+		}
+		return result;
+	}
+
+	private static List<Path> buildOutputFiles(List<JDK> jdks, Arguments arguments) throws IOException {
+		List<Path> files = new ArrayList<>();
+		if (arguments.getOutputDirectory() == null) {
+			for (int i = 0; i < jdks.size(); i++) {
+				files.add(null);
+			}
+			return files;
+		}
+
+		Path directory = Files.createDirectories(Paths.get(arguments.getOutputDirectory()));
+		String jarName = FilenameUtils.getBaseName(arguments.getJarPath());
+		Set<String> names = new HashSet<>();
+		for (JDK jdk : jdks) {
+			String vendor = (jdk.getVendor() != null) ? jdk.getVendor().replaceAll("[^A-Za-z0-9.]+", "_") : "unknown";
+			String name = jarName + "-" + versionOf(jdk) + "-" + vendor;
+			String unique = name;
+			for (int i = 2; !names.add(unique); i++) {
+				unique = name + "-" + i;
+			}
+			files.add(directory.resolve(unique + ".log"));
+		}
+		return files;
+	}
+
+	private static void printOutput(MatrixResult result, ByteArrayOutputStream buffer) {
+		PrintStream out = System.out;
+		synchronized (out) {
+			out.printf("==> %s, exit code %d <==%n", describe(result.jdk), result.exitCode);
+			byte[] bytes = buffer.toByteArray();
+			out.write(bytes, 0, bytes.length);
+			if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+				out.println();
+			}
+			out.println();
+			out.flush();
+		}
+	}
+
+	private static void printSummary(List<MatrixResult> results, long totalNanos) {
+		int failed = 0;
+		StringBuilder table = new StringBuilder();
+		table.append(String.format(Locale.ROOT, "%-12s %-20s %5s %10s %14s  %s%n", "Version", "Vendor", "Exit", "Wall (ms)", "Peak RSS (MB)", "Path"));
+		for (MatrixResult result : results) {
+			if (result.exitCode != 0) {
+				failed++;
+			}
+			String rss = (result.peakRssKilobytes >= 0) ? String.format(Locale.ROOT, "%.1f", result.peakRssKilobytes / 1024.0) : "-";
+			table.append(String.format(Locale.ROOT, "%-12s %-20s %5d %10d %14s  %s%n",
+					versionOf(result.jdk), (result.jdk.getVendor() != null) ? result.jdk.getVendor() : "-", result.exitCode,
+					result.wallNanos / 1_000_000, rss, result.jdk.getPath()));
+		}
+		table.append(String.format(Locale.ROOT, "%d JDKs in %d ms, %d failed%n", results.size(), totalNanos / 1_000_000, failed));
+
+		synchronized (System.out) {
+			System.out.print(table);
+			System.out.flush();
+		}
+	}
+
+	/**
+	 * Updates the peak resident memory of a running process from the kernel's high-water mark, {@code VmHWM} in
+	 * {@code /proc/<pid>/status}. The mark only grows, so sampling while the process runs misses at most the growth
+	 * of its last moments. Other systems are not sampled.
+	 */
+	private static void samplePeakRss(Process process, MatrixResult result) {
+		if (!Platform.IS_LINUX) {
+			return;
+		}
+		if (result.pid == 0) {
+			result.pid = Platform.pidOf(process);
+		}
+		if (result.pid < 0) {
+			return;
+		}
+
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(result.pid), "status"))) {
+				if (line.startsWith("VmHWM:")) {
+					long kilobytes = Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+					result.peakRssKilobytes = Math.max(result.peakRssKilobytes, kilobytes);
+					return;
+				}
+			}
+		} catch (IOException | NumberFormatException ex) {
+			// The process exited between two samples
+			log.debug("Could not sample the memory of process {}: {}", result.pid, ex.getMessage());
+		}
+	}
+
+	private static Path realPath(Path path) {
+		try {
+			return path.toRealPath();
+		} catch (IOException ex) {
+			return path.toAbsolutePath().normalize();
+		}
+	}
+
+	private static String versionOf(JDK jdk) {
+		return (jdk.getFullVersion() != null) ? jdk.getFullVersion() : String.valueOf(jdk.getVersion());
+	}
+
+	private static String describe(JDK jdk) {
+		return versionOf(jdk) + " " + ((jdk.getVendor() != null) ? jdk.getVendor() : "") + " (" + jdk.getPath() + ")";
+	}
+
+	private static String describeVersions(Arguments arguments) {
+		List<Integer> versions = arguments.getMatrixVersions();
+		return (versions == null || versions.isEmpty()) ? "all" : versions.toString();
+	}
+
+	/**
+	 * The outcome of running the JAR on one JDK. Written by the worker that ran it, read once it finished.
+	 */
+	private static final class MatrixResult {
+
+		private final JDK jdk;
+		private int exitCode = -1;
+		private long wallNanos = 0L;
+		private long peakRssKilobytes = -1L;
+		private long pid = 0L;
+
+		private MatrixResult(JDK jdk) {
+			this.jdk = jdk;
+		}
+
+	}
+
+}
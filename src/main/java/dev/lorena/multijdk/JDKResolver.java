@@ -0,0 +1,279 @@
+package dev.lorena.multijdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Indexes the discovered JDKs by feature version and resolves version specs against them, without asking.
+ * <p>
+ * The JDKs of each feature version are kept in order of preference: JDKs for the architecture MultiJDK runs on
+ * first, then newer releases, then the vendors listed in {@code preferredVendors} in the settings, in that order.
+ * Finding the JDKs of a version is a lookup in a sorted map, so the daemon can keep one resolver for as long as the
+ * JDK index does not change.
+ * </p>
+ *
+ * <p>
+ * A spec is a version constraint, optionally followed by {@code :vendor}:
+ * </p>
+ * <ul>
+ *   <li>{@code 17}: version 17</li>
+ *   <li>{@code 17+}: version 17 or later</li>
+ *   <li>{@code 11..17}: versions 11 to 17</li>
+ *   <li>{@code latest}: any version</li>
+ *   <li>{@code latest-lts}: any long-term support version, 8, 11, 17, 21, 25 and every fourth one after</li>
+ *   <li>{@code 21:temurin}: version 21 from Eclipse Temurin; vendors are matched by name, or by the usual
+ *       distribution names such as {@code temurin}, {@code corretto}, {@code zulu} or {@code liberica}</li>
+ * </ul>
+ * <p>
+ * When several versions match, the highest one is used, and within it the first JDK in order of preference, so the
+ * same spec always resolves to the same JDK.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     Optional&lt;JDK&gt; jdk = new JDKResolver(jdks).resolve("17+:temurin");
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+public class JDKResolver {
+
+	private static final Map<String, List<String>> VENDOR_ALIASES = new HashMap<>();
+
+	static {
+		VENDOR_ALIASES.put("temurin", Arrays.asList("eclipse adoptium", "temurin", "adoptopenjdk"));
+		VENDOR_ALIASES.put("adoptium", Arrays.asList("eclipse adoptium", "temurin", "adoptopenjdk"));
+		VENDOR_ALIASES.put("corretto", Arrays.asList("amazon"));
+		VENDOR_ALIASES.put("zulu", Arrays.asList("azul"));
+		VENDOR_ALIASES.put("liberica", Arrays.asList("bellsoft"));
+		VENDOR_ALIASES.put("semeru", Arrays.asList("ibm", "international business machines"));
+		VENDOR_ALIASES.put("sapmachine", Arrays.asList("sap"));
+		VENDOR_ALIASES.put("dragonwell", Arrays.asList("alibaba"));
+		VENDOR_ALIASES.put("jbr", Arrays.asList("jetbrains"));
+	}
+
+	private final NavigableMap<Integer, List<JDK>> index = new TreeMap<>();
+
+	/**
+	 * Builds the index of the given JDKs.
+	 *
+	 * @param jdks the discovered JDKs
+	 */
+	public JDKResolver(List<JDK> jdks) {
+		for (JDK jdk : jdks) {
+			index.computeIfAbsent(jdk.getVersion(), version -> new ArrayList<>()).add(jdk);
+		}
+		Comparator<JDK> preference = buildPreference(SettingsManager.getSettings().getPreferredVendors());
+		for (List<JDK> versionJDKs : index.values()) {
+			versionJDKs.sort(preference);
+		}
+	}
+
+	/**
+	 * Returns the JDKs of a feature version, in order of preference.
+	 *
+	 * @param version the feature version, e.g. 17
+	 * @return the JDKs, or an empty list if there is none
+	 */
+	public List<JDK> getJDKs(int version) {
+		List<JDK> versionJDKs = index.get(version);
+		return (versionJDKs != null) ? Collections.unmodifiableList(versionJDKs) : Collections.emptyList();
+	}
+
+	/**
+	 * Returns the lowest feature version with a JDK that is at least {@code version}.
+	 *
+	 * @param version the minimum feature version
+	 * @return the version, or -1 if no JDK is recent enough
+	 */
+	public int getLowestVersionFrom(int version) {
+		Integer found = index.ceilingKey(version);
+		return (found != null) ? found : -1;
+	}
+
+	/**
+	 * Returns the preferred JDK matching a spec.
+	 *
+	 * @param spec the spec, e.g. {@code 17+:temurin}
+	 * @return the JDK, or an empty {@link Optional} if none matches
+	 * @throws IllegalArgumentException if the spec is invalid
+	 */
+	public Optional<JDK> resolve(String spec) {
+		Constraint constraint = Constraint.parse(spec);
+		if (constraint.min > constraint.max) {
+			return Optional.empty();
+		}
+		for (Map.Entry<Integer, List<JDK>> entry : index.subMap(constraint.min, true, constraint.max, true).descendingMap().entrySet()) {
+			if (constraint.ltsOnly && !isLongTermSupport(entry.getKey())) {
+				continue;
+			}
+			for (JDK jdk : entry.getValue()) {
+				if (constraint.vendor == null || matchesVendor(jdk, constraint.vendor)) {
+					return Optional.of(jdk);
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Checks a spec without resolving it.
+	 *
+	 * @param spec the spec
+	 * @throws IllegalArgumentException if the spec is invalid
+	 */
+	public static void validate(String spec) {
+		Constraint.parse(spec);
+	}
+
+	/**
+	 * Checks whether a JDK comes from a vendor, given by name or by distribution name, ignoring case.
+	 *
+	 * @param jdk the JDK
+	 * @param vendor the vendor, e.g. {@code temurin} or {@code Eclipse Adoptium}
+	 * @return {@code true} if the vendor of the JDK matches
+	 */
+	public static boolean matchesVendor(JDK jdk, String vendor) {
+		if (jdk.getVendor() == null) {
+			return false;
+		}
+		String jdkVendor = jdk.getVendor().toLowerCase(Locale.ROOT);
+		String wanted = vendor.toLowerCase(Locale.ROOT);
+		if (jdkVendor.contains(wanted)) {
+			return true;
+		}
+		for (String alias : VENDOR_ALIASES.getOrDefault(wanted, Collections.emptyList())) {
+			if (jdkVendor.contains(alias)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a feature version gets long-term support from most vendors: 8, 11, and every fourth version
+	 * from 17 on.
+	 *
+	 * @param version the feature version
+	 * @return {@code true} for a long-term support version
+	 */
+	static boolean isLongTermSupport(int version) {
+		return version == 8 || version == 11 || (version >= 17 && (version - 17) % 4 == 0);
+	}
+
+	private static Comparator<JDK> buildPreference(List<String> preferredVendors) {
+		String hostArch = normalizeArch(System.getProperty("os.arch"));
+		List<String> vendors = (preferredVendors != null) ? preferredVendors : Collections.emptyList();
+		return (a, b) -> {
+			boolean aNative = a.getOsArch() == null || normalizeArch(a.getOsArch()).equals(hostArch);
+			boolean bNative = b.getOsArch() == null || normalizeArch(b.getOsArch()).equals(hostArch);
+			if (aNative != bNative) {
+				return aNative ? -1 : 1;
+			}
+			int release = b.compareReleaseTo(a);
+			if (release != 0) {
+				return release;
+			}
+			int vendor = Integer.compare(vendorRank(a, vendors), vendorRank(b, vendors));
+			if (vendor != 0) {
+				return vendor;
+			}
+			return a.getPath().compareTo(b.getPath());
+		};
+	}
+
+	private static int vendorRank(JDK jdk, List<String> preferredVendors) {
+		for (int i = 0; i < preferredVendors.size(); i++) {
+			if (matchesVendor(jdk, preferredVendors.get(i))) {
+				return i;
+			}
+		}
+		return preferredVendors.size();
+	}
+
+	/**
+	 * Gives the same name to the architectures that the JDKs and the JVM call differently, e.g. {@code amd64} and
+	 * {@code x86_64}.
+	 */
+	private static String normalizeArch(String arch) {
+		String lower = (arch != null) ? arch.toLowerCase(Locale.ROOT) : "";
+		switch (lower) {
+			case "amd64":
+			case "x86_64":
+				return "x64";
+			case "arm64":
+				return "aarch64";
+			case "i386":
+			case "i586":
+			case "i686":
+				return "x86";
+			default:
+				return lower;
+		}
+	}
+
+	/**
+	 * A parsed spec: a range of feature versions, optionally long-term support only, and an optional vendor.
+	 */
+	private static final class Constraint {
+
+		private int min = 0;
+		private int max = Integer.MAX_VALUE;
+		private boolean ltsOnly = false;
+		private String vendor = null;
+
+		private static Constraint parse(String spec) {
+			if (spec == null || spec.trim().isEmpty()) {
+				throw new IllegalArgumentException("Empty JDK version");
+			}
+			Constraint constraint = new Constraint();
+			String versions = spec.trim().toLowerCase(Locale.ROOT);
+			int colon = versions.indexOf(':');
+			if (colon >= 0) {
+				constraint.vendor = versions.substring(colon + 1).trim();
+				versions = versions.substring(0, colon).trim();
+				if (constraint.vendor.isEmpty()) {
+					throw new IllegalArgumentException("Missing vendor after ':' in " + spec);
+				}
+			}
+
+			int range = versions.indexOf("..");
+			if (versions.equals("latest")) {
+				return constraint;
+			} else if (versions.equals("latest-lts")) {
+				constraint.ltsOnly = true;
+			} else if (versions.endsWith("+")) {
+				constraint.min = parseVersion(versions.substring(0, versions.length() - 1), spec);
+			} else if (range >= 0) {
+				constraint.min = parseVersion(versions.substring(0, range), spec);
+				constraint.max = parseVersion(versions.substring(range + 2), spec);
+			} else {
+				constraint.min = parseVersion(versions, spec);
+				constraint.max = constraint.min;
+			}
+			return constraint;
+		}
+
+		private static int parseVersion(String version, String spec) {
+			try {
+				return Integer.parseInt(version.trim());
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Invalid JDK version " + spec
+						+ ", expected e.g. 17, 17+, 11..17, latest, latest-lts or 21:temurin");
+			}
+		}
+
+	}
+
+}
@@ -1,13 +1,19 @@
 package dev.lorena.multijdk;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FilenameUtils;
 
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -16,8 +22,8 @@ import lombok.extern.slf4j.Slf4j;
  * Utility class to run a JAR file using a specified JDK and arguments.
  * <p>
  * This class builds and executes a command to run a JAR file with the selected JDK,
- * passing any additional arguments as needed. It also handles process input/output streams
- * and logs errors or process output as appropriate.
+ * passing any additional arguments as needed. The process inherits the MultiJDK standard streams,
+ * unless a caller needs to capture its output, in which case the streams are pumped by MultiJDK.
  * </p>
  *
  * <p><b>Usage example:</b></p>
@@ -27,18 +33,32 @@ import lombok.extern.slf4j.Slf4j;
  * </pre>
  *
  * @author Lorena Nuñez
- * @version 1.3
+ * @version 2.5
  * @since 1.0
  */
 @Slf4j
 public class JDKRunner {
 	
+	private static final long STREAM_DRAIN_TIMEOUT_MILLIS = 1000L;
+	private static final long MONITOR_FIRST_INTERVAL_MILLIS = 5L;
+	private static final long MONITOR_INTERVAL_MILLIS = 50L;
+	
+	private String metrics = null;
+	private boolean recordHistory = false;
+	private ProcessMetrics lastMetrics = null;
+	
 	/**
 	 * Runs a JAR file using the specified JDK and arguments.
 	 * <p>
 	 * Builds and executes a command to run the JAR file with the selected JDK,
-	 * passing any additional arguments as needed. Handles process input/output streams
-	 * and logs errors or process output as appropriate.
+	 * passing any additional arguments as needed. The child process inherits the standard
+	 * input, output and error of MultiJDK, and its exit code becomes the exit code of MultiJDK.
+	 * When a tee directory is given, the output is pumped instead and also copied to
+	 * {@code <jar name>.stdout.log} and {@code <jar name>.stderr.log} in that directory. With {@code --timings},
+	 * the output is pumped as well, to measure when the process writes its first byte. With {@code --profile}, a
+	 * summary of the Flight Recorder recording is printed once the process exits, see {@link FlightRecording}, and
+	 * with {@code --metrics}, what the process cost, see {@link ProcessMetrics}. With {@code recordHistory} in the
+	 * settings, the run is measured the same way and appended to the {@link LaunchHistory}.
 	 * </p>
 	 *
 	 * @param jdk the {@link JDK} to use for running the JAR
@@ -47,12 +67,73 @@ public class JDKRunner {
 	public void runJDK(JDK jdk, Arguments arguments) {
 		
 		log.debug("Running JAR: {} with JDK: {} (version {})", arguments.getJarPath(), jdk.getPath(), jdk.getVersion());
-				
+		
+		List<String> command = buildCommand(jdk, arguments);
+			
+		log.debug("Built command: {}", String.join(" ", command));
+		
+		if (!arguments.isSupervised()) {
+			System.exit(run(command, false));
+		}
+		
+		metrics = arguments.getMetrics();
+		recordHistory = SettingsManager.getSettings().isRecordHistory();
+		int exitCode = (arguments.getTeeDirectory() != null)
+				? runTeed(command, arguments)
+				: run(command, arguments.getTimings() != null);
+		FlightRecording.printSummary(jdk, arguments);
+		if (recordHistory && lastMetrics != null) {
+			LaunchHistory.record(jdk, arguments, exitCode, lastMetrics.getWallNanos(), lastMetrics.getPeakRssKilobytes());
+		}
+		System.exit(exitCode);
+	}
+	
+	private int runTeed(List<String> command, Arguments arguments) {
+		Settings settings = SettingsManager.getSettings();
+		String name = FilenameUtils.getBaseName(arguments.getJarPath());
+		TeeLog stdoutTee;
+		TeeLog stderrTee;
+		try {
+			stdoutTee = new TeeLog(Paths.get(arguments.getTeeDirectory()), name + ".stdout", settings);
+			stderrTee = new TeeLog(Paths.get(arguments.getTeeDirectory()), name + ".stderr", settings);
+		} catch (IOException ex) {
+			log.error("Cannot write logs to {}: {}", arguments.getTeeDirectory(), ex.getMessage());
+			return 1;
+		}
+		
+		try {
+			return run(command, stdoutTee, stderrTee);
+		} finally {
+			stdoutTee.close();
+			stderrTee.close();
+		}
+	}
+	
+	/**
+	 * Builds the command line that runs a JAR file with the specified JDK and arguments.
+	 * <p>
+	 * Unless disabled in the settings, the JVM arguments of {@link ClassDataArchiveManager} come first,
+	 * so the JDK records or loads a class data sharing archive for the JAR, followed by those of
+	 * {@link LaunchProfile} and {@link JVMErgonomics}, whose learned heap size is capped at the share of the
+	 * launch profile, and by the Flight Recorder options of {@code --profile}. The arguments of the user come last,
+	 * so they take precedence.
+	 * </p>
+	 *
+	 * @param jdk the {@link JDK} to use for running the JAR
+	 * @param arguments the {@link Arguments} containing the JAR path and arguments
+	 * @return the command line, one element per argument, starting with the java executable
+	 */
+	public List<String> buildCommand(JDK jdk, Arguments arguments) {
 		List<String> commandList = new ArrayList<>();
 		boolean hasArgs = !arguments.getJvmArgs().isEmpty();
 		boolean hasParams = !arguments.getJarParams().isEmpty();
 		
 		commandList.add(jdk.getPath());
+		commandList.addAll(ClassDataArchiveManager.getArchiveArguments(jdk, arguments));
+		LaunchProfile.Profile profile = LaunchProfile.getProfile(jdk, arguments);
+		commandList.addAll(profile.getFlags());
+		commandList.addAll(JVMErgonomics.getArguments(jdk, arguments, profile.getHeapBytes()));
+		commandList.addAll(FlightRecording.getArguments(jdk, arguments));
 			
 		if (hasArgs) {
 			log.debug("Has arguments: {}", String.join(" ", arguments.getJvmArgs()));
@@ -66,133 +147,221 @@ public class JDKRunner {
 			log.debug("Has params: {}", String.join(" ", arguments.getJarParams()));
 			commandList.addAll(arguments.getJarParams());
 		}
-			
 		
-		String command = String.join(" ", commandList);
-			
-		log.debug("Built command: {}", String.join(" ", command));
-		run(command);	
+		return commandList;
 	}
 
 	/**
-	 * Builds a {@link Runnable} that reads user input from the console and writes it to the process's input stream.
+	 * Builds a {@link Runnable} that forwards the MultiJDK standard input to the process's input stream.
 	 * <p>
-	 * This method creates a thread action that continuously reads lines from {@code System.in}
-	 * and writes them to the provided process's input stream, allowing interactive input to the process.
+	 * Bytes are forwarded unchanged, so binary input is not corrupted, and the process input stream is closed
+	 * once the standard input reaches end of stream, so the process sees EOF as well.
 	 * </p>
 	 *
 	 * @param process the {@link Process} whose input stream will receive user input
 	 * @return a {@link Runnable} that handles forwarding user input to the process
 	 */
 	private Runnable buildInputActions(Process process) {
-		return () -> {
-			BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in));
-			BufferedWriter processWriter = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
-			String line = "";
-			while (true) {
-				try {
-					line = userInput.readLine();
-					if (line == null) {
-						log.debug("EOF received from user input. Closing process input stream...");
-						break;
-					}
-					processWriter.write(line);
-					processWriter.newLine(); // Ensure a newline is sent
-					processWriter.flush();
-				} catch (IOException ex) {
-					log.error("An error has ocurred on the process IO.", ex);
-				}
-			}
-		};
+		return new StreamPump(System.in, process.getOutputStream(), true);
 	}
 	
 	/**
-	 * Builds a {@link Runnable} that reads the standard output of the given process and prints it to {@code System.out}.
+	 * Builds a {@link Runnable} that copies the standard output of the given process to the MultiJDK standard output.
 	 * <p>
-	 * This method creates a thread action that continuously reads characters from the process's standard output stream
-	 * and prints them to the console, allowing real-time display of the process output.
+	 * Bytes are copied in large chunks straight to the standard output file descriptor, and flushed
+	 * whenever the process stops writing.
 	 * </p>
 	 *
 	 * @param process the {@link Process} whose standard output will be read
+	 * @param tee the log to also copy the output to, or {@code null} for none
+	 * @param spawnStart when the process was started, as returned by {@link Timings#start()}
 	 * @return a {@link Runnable} that handles reading and printing the process output
 	 */
-	private Runnable buildStdoutReaderAction(Process process) {
-		return () -> {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()));
-			try {
-	              int character;
-	              log.trace("Waiting for process output...");
-	              while ((character = reader.read()) != -1) {
-	                  System.out.print((char) character);
-	                  System.out.flush();
-	              }
-	              log.trace("Process output stream closed.");
-	          } catch (IOException e) {
-	              log.error("Error reading process output: {}", e.getMessage());
-	          }
-		};
+	private Runnable buildStdoutReaderAction(Process process, TeeLog tee, long spawnStart) {
+		OutputStream stdout = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), StreamPump.BUFFER_SIZE);
+		return new StreamPump(new FirstByteTimingInputStream(process.getInputStream(), spawnStart), stdout, false, tee);
 	}
 	
 	/**
-	 * Builds a {@link Runnable} that reads the standard error of the given process and prints it to {@code System.err}.
+	 * Builds a {@link Runnable} that copies the standard error of the given process to the MultiJDK standard error.
 	 * <p>
-	 * This method creates a thread action that continuously reads characters from the process's error stream
-	 * and prints them to the error console, allowing real-time display of the process error output.
+	 * Bytes are copied in large chunks straight to the standard error file descriptor, and flushed
+	 * whenever the process stops writing.
 	 * </p>
 	 *
 	 * @param process the {@link Process} whose error stream will be read
+	 * @param tee the log to also copy the error output to, or {@code null} for none
+	 * @param spawnStart when the process was started, as returned by {@link Timings#start()}
 	 * @return a {@link Runnable} that handles reading and printing the process error output
 	 */
-	private Runnable buildStderrReaderAction(Process process) {
-		return () -> {
-			BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream(), Charset.defaultCharset()));
-			try {
-	              int character;
-	              log.trace("Waiting for process error output...");
-	              while ((character = errorReader.read()) != -1) {
-	                  System.err.print((char) character);
-	                  System.err.flush();
-	              }
-	              log.trace("Process error stream closed.");
-	          } catch (IOException e) {
-	              log.error("Error reading process error output: {}", e.getMessage());
-	          }
-		};
+	private Runnable buildStderrReaderAction(Process process, TeeLog tee, long spawnStart) {
+		OutputStream stderr = new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), StreamPump.BUFFER_SIZE);
+		return new StreamPump(new FirstByteTimingInputStream(process.getErrorStream(), spawnStart), stderr, false, tee);
 	}
 	
 	/**
-	 * Executes the given command as a new process and manages its input, output, and error streams.
+	 * Executes the given command as a new process and waits for it to finish.
 	 * <p>
-	 * This method starts the process, creates and starts threads to handle user input, standard output,
-	 * and standard error streams, and waits for the process to finish. Logs the process exit code upon completion.
+	 * By default the process inherits the standard input, output and error of MultiJDK, so its output goes
+	 * straight to our file descriptors without passing through the JVM. When {@code pumped} is {@code true},
+	 * the streams are instead copied by three threads, which is only needed by features that capture or tee
+	 * the process output.
 	 * </p>
 	 *
-	 * @param command the command string to execute
+	 * @param command the command to execute, one element per argument
+	 * @param pumped whether to copy the process streams through MultiJDK instead of inheriting them
+	 * @return the exit code of the process
 	 */
 	@SneakyThrows
-	private void run(String command) {
-		Runtime runtime = Runtime.getRuntime();
-		Process process = runtime.exec(command);
+	public int run(List<String> command, boolean pumped) {
+		if (pumped) {
+			return run(command, null, null);
+		}
 		
+		long start = Timings.start();
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		Timings.record("spawn", start);
+		ProcessMetrics processMetrics = startMetrics(process);
+		int exitCode = process.waitFor();
+		log.debug("Process finished with exit code: {}", exitCode);
+		reportMetrics(processMetrics, command, exitCode);
+		return exitCode;
+	}
+	
+	/**
+	 * Executes the given command as a new process with pumped streams, optionally copying its output to logs.
+	 * <p>
+	 * The time from spawning the process to the first byte on either of its output streams is recorded
+	 * in {@link Timings} as {@code firstOutput}.
+	 * </p>
+	 *
+	 * @param command the command to execute, one element per argument
+	 * @param stdoutTee the log to copy the standard output to, or {@code null} for none
+	 * @param stderrTee the log to copy the standard error to, or {@code null} for none
+	 * @return the exit code of the process
+	 */
+	@SneakyThrows
+	public int run(List<String> command, TeeLog stdoutTee, TeeLog stderrTee) {
+		long start = Timings.start();
+		Process process = new ProcessBuilder(command).start();
+		Timings.record("spawn", start);
+		ProcessMetrics processMetrics = startMetrics(process);
 		
 		Thread inputThread = new Thread(buildInputActions(process));
 		inputThread.setName("inputThread");
 		inputThread.setDaemon(true);
 		inputThread.start();
 
-		Thread stdoutThread = new Thread(buildStdoutReaderAction(process));
+		Thread stdoutThread = new Thread(buildStdoutReaderAction(process, stdoutTee, start));
 		stdoutThread.setName("stdoutThread");
 		stdoutThread.setDaemon(true);
 		stdoutThread.start();
 
-		Thread stderrThread = new Thread(buildStderrReaderAction(process));
+		Thread stderrThread = new Thread(buildStderrReaderAction(process, stderrTee, start));
 		stderrThread.setName("stderrThread");
 		stderrThread.setDaemon(true);
 		stderrThread.start();
 
-		process.waitFor();
+		int exitCode = process.waitFor();
+		Timings.record("process", start);
+		
+		// Let the output threads drain what the process wrote right before exiting
+		stdoutThread.join(STREAM_DRAIN_TIMEOUT_MILLIS);
+		stderrThread.join(STREAM_DRAIN_TIMEOUT_MILLIS);
+		
+		log.debug("Process finished with exit code: {}", exitCode);
+		reportMetrics(processMetrics, command, exitCode);
+		return exitCode;
+	}
+	
+	/**
+	 * Starts measuring the process for {@code --metrics} or the launch history, sampling it every
+	 * {@code metricsIntervalMillis}.
+	 *
+	 * @param process the process that was just started
+	 * @return the metrics, or {@code null} if neither {@code --metrics} nor {@code recordHistory} is set
+	 */
+	private ProcessMetrics startMetrics(Process process) {
+		if (metrics == null && !recordHistory) {
+			return null;
+		}
+		lastMetrics = ProcessMetrics.start(process, SettingsManager.getSettings().getMetricsIntervalMillis());
+		return lastMetrics;
+	}
+	
+	/**
+	 * Prints the metrics of a process that exited to the standard error, in the format given to {@code --metrics}.
+	 */
+	private void reportMetrics(ProcessMetrics processMetrics, List<String> command, int exitCode) {
+		if (processMetrics == null) {
+			return;
+		}
+		processMetrics.stop();
+		if (metrics != null) {
+			System.err.print(processMetrics.format(metrics, command.get(0), exitCode));
+			System.err.flush();
+		}
+	}
+	
+	/**
+	 * Executes the given command as a new process and captures its output, e.g. to run several processes at once.
+	 * <p>
+	 * The standard output and error of the process are merged, so they keep their relative order, and copied
+	 * to {@code output} by a single thread. The process gets no standard input. While it runs, {@code monitor}
+	 * is called periodically, e.g. to sample its memory usage: every {@value #MONITOR_FIRST_INTERVAL_MILLIS} ms at
+	 * first, doubling up to every {@value #MONITOR_INTERVAL_MILLIS} ms, so short-lived processes are sampled too.
+	 * </p>
+	 *
+	 * @param command the command to execute, one element per argument
+	 * @param output the stream to copy the process output to; it is not closed
+	 * @param monitor called periodically with the running process
+	 * @return the exit code of the process
+	 */
+	@SneakyThrows
+	public int capture(List<String> command, OutputStream output, Consumer<Process> monitor) {
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		process.getOutputStream().close();
+		
+		Thread outputThread = new Thread(new StreamPump(process.getInputStream(), output, false));
+		outputThread.setName("captureThread");
+		outputThread.setDaemon(true);
+		outputThread.start();
+		
+		long interval = MONITOR_FIRST_INTERVAL_MILLIS;
+		while (!process.waitFor(interval, TimeUnit.MILLISECONDS)) {
+			monitor.accept(process);
+			interval = Math.min(interval * 2, MONITOR_INTERVAL_MILLIS);
+		}
+		
+		outputThread.join(STREAM_DRAIN_TIMEOUT_MILLIS);
+		
 		log.debug("Process finished with exit code: {}", process.exitValue());
-		System.exit(process.exitValue());
+		return process.exitValue();
+	}
+	
+	/**
+	 * Records in {@link Timings} when the first bytes are read from a process stream.
+	 */
+	private static final class FirstByteTimingInputStream extends FilterInputStream {
+		
+		private final long spawnStart;
+		private boolean seen = false;
+		
+		private FirstByteTimingInputStream(InputStream in, long spawnStart) {
+			super(in);
+			this.spawnStart = spawnStart;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (!seen && read > 0) {
+				seen = true;
+				Timings.recordOnce("firstOutput", spawnStart);
+			}
+			return read;
+		}
+		
 	}
 	
-}
\ No newline at end of file
+}
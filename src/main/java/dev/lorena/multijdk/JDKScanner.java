@@ -0,0 +1,153 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scans several JDK search locations concurrently.
+ * <p>
+ * Every location is split into its immediate subdirectories, and each subtree is walked by its own
+ * {@link JDKDirectoryWalker} on a shared executor: virtual threads when MultiJDK runs on Java 21 or later,
+ * a {@link ForkJoinPool} otherwise. Homes are collected into a concurrent map keyed by their real path and
+ * ordered by the position of the subtree that found them first, so the result is the same on every run
+ * regardless of which task finishes first.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     JDKScanner scanner = new JDKScanner(settings);
+ *     List&lt;Path&gt; homes = scanner.scan(Arrays.asList("/usr/lib/jvm/", "/opt/"));
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@Slf4j
+public class JDKScanner {
+
+	private static final int FORK_JOIN_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private final Settings settings;
+
+	/**
+	 * Creates a scanner that uses the search depths and excluded directories of the given settings.
+	 *
+	 * @param settings the settings to read the search configuration from
+	 */
+	public JDKScanner(Settings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Scans the given locations and returns the real paths of the JDK homes found.
+	 *
+	 * @param locations the directories to scan, in priority order
+	 * @return the JDK homes found, deduplicated and in a deterministic order
+	 */
+	public List<Path> scan(List<String> locations) {
+		JDKDirectoryWalker filter = new JDKDirectoryWalker(settings.getExcludedDirectories());
+		Map<Path, Long> homes = new ConcurrentHashMap<>();
+		List<Future<?>> tasks = new ArrayList<>();
+		ExecutorService executor = newExecutor();
+
+		try {
+			for (String location : locations) {
+				Path root = Paths.get(location);
+				int depth = settings.getSearchDepthFor(location);
+
+				if (!Files.isDirectory(root)) {
+					log.trace("Skipping missing location {}", root);
+					continue;
+				}
+
+				if (JDKDirectoryWalker.isJDKHome(root) || depth < 1) {
+					tasks.add(submitWalk(executor, root, depth, tasks.size(), homes));
+					continue;
+				}
+
+				for (Path subtree : listSubdirectories(root)) {
+					if (!filter.isExcluded(subtree)) {
+						tasks.add(submitWalk(executor, subtree, depth - 1, tasks.size(), homes));
+					}
+				}
+			}
+
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			log.error("JDK search was interrupted");
+		} catch (ExecutionException ex) {
+			log.error("There was an error searching for JDKs: {}", ex.getCause().getMessage());
+		} finally {
+			executor.shutdown();
+		}
+
+		return homes.entrySet().stream()
+				.sorted(Map.Entry.comparingByValue())
+				.map(Map.Entry::getKey)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Walks one subtree and records its homes with an order key made of the subtree position and the position
+	 * of the home inside it. When the same home is reachable from several subtrees, the smallest key wins.
+	 */
+	private Future<?> submitWalk(ExecutorService executor, Path subtree, int depth, int position, Map<Path, Long> homes) {
+		return executor.submit(() -> {
+			JDKDirectoryWalker walker = new JDKDirectoryWalker(settings.getExcludedDirectories());
+			walker.walk(subtree, depth);
+			long order = (long) position << 32;
+			for (Path home : walker.getJDKHomes()) {
+				homes.merge(home, order++, Math::min);
+			}
+		});
+	}
+
+	private List<Path> listSubdirectories(Path root) {
+		List<Path> subdirectories = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isDirectory)) {
+			stream.forEach(subdirectories::add);
+		} catch (IOException ex) {
+			log.error("There was an error searching for JDKs in {}: {}", root, ex.getMessage());
+		}
+		Collections.sort(subdirectories);
+		return subdirectories;
+	}
+
+	/**
+	 * Creates the executor used for a scan. Virtual threads are looked up reflectively, as MultiJDK still
+	 * targets Java 8.
+	 */
+	private static ExecutorService newExecutor() {
+		if (Platform.isJavaVersionAtLeast(21)) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException ex) {
+				log.debug("Virtual threads are not available, falling back to a fork-join pool: {}", ex.getMessage());
+			}
+		}
+		return new ForkJoinPool(FORK_JOIN_PARALLELISM);
+	}
+
+}
@@ -28,6 +28,8 @@ import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.WindowConstants;
 
+import com.formdev.flatlaf.FlatLightLaf;
+
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -35,13 +37,10 @@ import lombok.extern.slf4j.Slf4j;
 public class JDKVersionChooser extends JDialog {
 	
 	private final Map<ButtonModel, JDK> jdkMap = new HashMap<>();
-	private transient Settings settings = null;
 	private transient JDK choosenJDK = null;
 	
 	public JDKVersionChooser(List<JDK> jdks) {
 		
-		settings = SettingsManager.getSettings();
-		
 		JPanel contentPanel = new JPanel();
 		BorderLayout layout = new BorderLayout();
 		
@@ -77,6 +76,17 @@ public class JDKVersionChooser extends JDialog {
 		return choosenJDK;
 	}
 	
+	/**
+	 * Sets up the look and feel and shows the chooser dialog until the user picks a JDK.
+	 *
+	 * @param jdks the JDKs to choose from
+	 * @return the chosen JDK, or {@code null} if none was chosen
+	 */
+	public static JDK choose(List<JDK> jdks) {
+		FlatLightLaf.setup();
+		return new JDKVersionChooser(jdks).getChoosenJDK();
+	}
+	
 	private Component buildJDKsListComponent(List<JDK> jdks) {
 		JPanel panel = new JPanel();
 		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -85,7 +95,8 @@ public class JDKVersionChooser extends JDialog {
 		jdks.stream()
 			.sorted()
 			.forEach(jdk -> {
-				String text = String.format("Version: %s - Vendor: %s - Path: (%s)", jdk.getVersion(), jdk.getVendor(), jdk.getPath());
+				String version = (jdk.getFullVersion() != null) ? jdk.getFullVersion() : String.valueOf(jdk.getVersion());
+				String text = String.format("Version: %s - Vendor: %s - Path: (%s)", version, jdk.getVendor(), jdk.getPath());
 				log.debug("Adding JDK radio button: {}", text);
 				JRadioButton radioButton = new JRadioButton(text);
 				panel.add(radioButton);
@@ -113,20 +124,14 @@ public class JDKVersionChooser extends JDialog {
 			
 			if (rememberChoiceCheckBox.isSelected()) {
 				
-				if (settings.getPreferredJDKPerFile() == null) {
-					settings.setPreferredJDKPerFile(new HashMap<>());
-				}
-				
 				Optional<Arguments> args = ArgumentsHandler.getParsedArguments();
 				
 				if (args.isPresent()) {
-					settings.getPreferredJDKPerFile().put(args.get().getJarPath(), choosenJDK.getPath());
+					SettingsManager.rememberPreferredJDK(JarIdentity.keyOf(args.get().getJarPath()), choosenJDK.getPath());
 				} else {
 					JOptionPane.showMessageDialog(this, "Error getting the JAR file path from arguments. Cannot remember the choice.", "Error", JOptionPane.ERROR_MESSAGE);
 					System.exit(1);
 				}
-				
-				SettingsManager.saveSettings(settings);
 			}
 		});
 		cancelButton.addActionListener(e -> System.exit(0));
@@ -0,0 +1,366 @@
+package dev.lorena.multijdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the JDKs of a long-running MultiJDK, such as the {@link MultiJDKDaemon}, up to date without rescanning.
+ * <p>
+ * The watcher registers a {@link WatchService} on the discovery roots, on every known JDK home and on the
+ * directories between them, and nothing else. Events are collected until none arrived for
+ * {@value #DEBOUNCE_MILLIS} ms, so a package upgrade that touches hundreds of files is applied once. Then:
+ * </p>
+ * <ul>
+ *   <li>known homes that are no longer JDK homes are dropped, and those whose {@code release} file changed are
+ *   parsed again;</li>
+ *   <li>directories that appeared or changed in a watched directory are walked, up to the search depth left for
+ *   their root, and the homes found are added and watched.</li>
+ * </ul>
+ * <p>
+ * After each change the JDK index is saved, so launches that do not go through the daemon see it too. When the
+ * operating system drops events, the watcher falls back to a full scan. A JDK unpacked into an existing directory
+ * that is neither a root nor on the way to a known JDK is not seen until the next {@code --rescan}.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     JDKWatcher watcher = new JDKWatcher(finder);
+ *     watcher.start(finder.findJDKs(false));
+ *     List&lt;JDK&gt; jdks = watcher.getJDKs();
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@Slf4j
+public class JDKWatcher {
+
+	static final long DEBOUNCE_MILLIS = 2_000L;
+
+	private final JDKFinder finder;
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+	private final Map<Path, String> rootOf = new HashMap<>();
+	private final Map<Path, JDK> homes = new LinkedHashMap<>();
+	private final Map<Path, Long> releaseStates = new HashMap<>();
+	private WatchService watchService = null;
+	private List<String> roots = new ArrayList<>();
+	private volatile List<JDK> jdks = new ArrayList<>();
+	private volatile long generation = 0L;
+
+	public JDKWatcher(JDKFinder finder) {
+		this.finder = finder;
+	}
+
+	/**
+	 * Starts watching the discovery roots and the given JDKs, on a background thread.
+	 *
+	 * @param discovered the JDKs found by the last discovery run
+	 * @throws IOException if the watch service cannot be created
+	 */
+	public synchronized void start(List<JDK> discovered) throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		reset(discovered);
+
+		Thread thread = new Thread(this::watch, "jdkWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Replaces the JDKs, e.g. after a rescan requested by the user, and watches their homes.
+	 *
+	 * @param discovered the JDKs found by the last discovery run
+	 */
+	public synchronized void reset(List<JDK> discovered) {
+		for (WatchKey key : watchedDirectories.keySet()) {
+			key.cancel();
+		}
+		watchedDirectories.clear();
+		rootOf.clear();
+		homes.clear();
+		releaseStates.clear();
+
+		roots = finder.getLocations();
+		for (String root : roots) {
+			Path rootPath = Paths.get(root).toAbsolutePath().normalize();
+			rootOf.putIfAbsent(rootPath, root);
+			register(rootPath);
+		}
+		for (JDK jdk : discovered) {
+			addHome(homeOf(jdk), jdk);
+		}
+		publish();
+	}
+
+	/**
+	 * Returns the current JDKs.
+	 *
+	 * @return the JDKs, not to be modified
+	 */
+	public List<JDK> getJDKs() {
+		return jdks;
+	}
+
+	/**
+	 * Returns a number that changes whenever the JDKs change, so callers can rebuild what they derive from them.
+	 *
+	 * @return the generation of the JDK list
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public synchronized void stop() {
+		try {
+			if (watchService != null) {
+				watchService.close();
+			}
+		} catch (IOException ex) {
+			log.debug("Error closing the JDK watcher: {}", ex.getMessage());
+		}
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<>();
+				boolean overflow = collect(watchService.take(), changed);
+				// Wait for the burst to end before touching anything
+				WatchKey key;
+				while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					overflow |= collect(key, changed);
+				}
+				apply(changed, overflow);
+			}
+		} catch (ClosedWatchServiceException ex) {
+			log.debug("JDK watcher stopped");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds the paths an event is about to {@code changed}, and returns {@code true} if events were lost.
+	 */
+	private synchronized boolean collect(WatchKey key, Set<Path> changed) {
+		Path directory = watchedDirectories.get(key);
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+			} else if (directory != null) {
+				changed.add(directory.resolve((Path) event.context()));
+			}
+		}
+		if (!key.reset()) {
+			// The directory is gone
+			watchedDirectories.remove(key);
+			if (directory != null) {
+				changed.add(directory);
+			}
+		}
+		return overflow;
+	}
+
+	private synchronized void apply(Set<Path> changed, boolean overflow) {
+		if (overflow) {
+			log.info("Missed file system events, scanning all JDK locations again");
+			List<JDK> discovered = finder.findJDKs(true);
+			reset(discovered);
+			return;
+		}
+
+		boolean modified = revalidateHomes();
+		Set<Path> directories = new LinkedHashSet<>();
+		for (Path path : changed) {
+			if (Files.isDirectory(path)) {
+				directories.add(path);
+			} else if (path.getParent() != null && !rootOf.containsKey(path.getParent())) {
+				// e.g. the release file of a JDK still being unpacked into a new directory
+				directories.add(path.getParent());
+			}
+		}
+		for (Path directory : directories) {
+			if (!isInsideHome(directory)) {
+				modified |= walkNewDirectory(directory);
+			}
+		}
+
+		if (modified) {
+			publish();
+			JDKIndexManager.saveIndex(roots, jdks);
+		}
+	}
+
+	/**
+	 * Drops the homes that are gone and parses again those whose {@code release} file changed.
+	 */
+	private boolean revalidateHomes() {
+		boolean modified = false;
+		Iterator<Map.Entry<Path, JDK>> iterator = homes.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path, JDK> entry = iterator.next();
+			Path home = entry.getKey();
+			if (!JDKDirectoryWalker.isJDKHome(home)) {
+				log.info("JDK {} was removed", entry.getValue().getPath());
+				iterator.remove();
+				releaseStates.remove(home);
+				modified = true;
+			} else if (releaseState(home) != releaseStates.getOrDefault(home, -1L)) {
+				Optional<JDK> parsed = ReleaseFileParser.parse(home);
+				if (parsed.isPresent()) {
+					log.info("JDK {} was updated to {}", parsed.get().getPath(), parsed.get().getFullVersion());
+					entry.setValue(parsed.get());
+				} else {
+					iterator.remove();
+				}
+				releaseStates.put(home, releaseState(home));
+				modified = true;
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Walks a directory that appeared or changed under a root, and adds the JDK homes found in it. The directory is watched
+	 * too while it is within the search depth, so a JDK being unpacked into it is seen.
+	 */
+	private boolean walkNewDirectory(Path directory) {
+		String root = findRoot(directory);
+		if (root == null) {
+			return false;
+		}
+		Settings settings = SettingsManager.getSettings();
+		int depthLeft = settings.getSearchDepthFor(root) - Paths.get(root).toAbsolutePath().normalize().relativize(directory).getNameCount();
+		if (depthLeft < 0) {
+			return false;
+		}
+
+		JDKDirectoryWalker walker = new JDKDirectoryWalker(settings.getExcludedDirectories());
+		if (walker.isExcluded(directory)) {
+			return false;
+		}
+		walker.walk(directory, depthLeft);
+		boolean modified = false;
+		for (Path home : walker.getJDKHomes()) {
+			if (homes.containsKey(home)) {
+				continue;
+			}
+			Optional<JDK> parsed = ReleaseFileParser.parse(home);
+			if (parsed.isPresent()) {
+				log.info("JDK {} {} was installed at {}", parsed.get().getFullVersion(), parsed.get().getVendor(), parsed.get().getPath());
+				addHome(home, parsed.get());
+				registerPath(directory, home);
+				modified = true;
+			}
+		}
+		if (depthLeft > 0) {
+			register(directory);
+		}
+		return modified;
+	}
+
+	private void addHome(Path home, JDK jdk) {
+		homes.put(home, jdk);
+		releaseStates.put(home, releaseState(home));
+		register(home);
+
+		// Also watch the directories between the root and the home, where its next version would appear
+		Path parent = home.getParent();
+		for (Path rootPath : rootOf.keySet()) {
+			if (parent != null && parent.startsWith(rootPath)) {
+				registerPath(rootPath, parent);
+			}
+		}
+	}
+
+	private void registerPath(Path from, Path to) {
+		for (Path dir = to; dir != null && dir.startsWith(from); dir = dir.getParent()) {
+			register(dir);
+		}
+	}
+
+	private void register(Path directory) {
+		if (!Files.isDirectory(directory) || watchedDirectories.containsValue(directory)) {
+			return;
+		}
+		try {
+			WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			watchedDirectories.put(key, directory);
+			log.trace("Watching {}", directory);
+		} catch (IOException ex) {
+			log.debug("Cannot watch {}: {}", directory, ex.getMessage());
+		}
+	}
+
+	private String findRoot(Path path) {
+		String found = null;
+		int foundLength = -1;
+		for (Map.Entry<Path, String> root : rootOf.entrySet()) {
+			if (path.startsWith(root.getKey()) && root.getKey().getNameCount() > foundLength) {
+				found = root.getValue();
+				foundLength = root.getKey().getNameCount();
+			}
+		}
+		return found;
+	}
+
+	private boolean isInsideHome(Path path) {
+		for (Path home : homes.keySet()) {
+			if (path.startsWith(home)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void publish() {
+		jdks = new ArrayList<>(homes.values());
+		generation++;
+	}
+
+	/**
+	 * Returns the real path of the home of a JDK, as {@link JDKDirectoryWalker} reports it, so a JDK reached through a
+	 * symbolic link such as {@code current -> jdk-21} is only known once.
+	 */
+	private static Path homeOf(JDK jdk) {
+		Path home = Paths.get(jdk.getPath()).getParent().getParent();
+		try {
+			return home.toRealPath();
+		} catch (IOException ex) {
+			return home.toAbsolutePath().normalize();
+		}
+	}
+
+	private static long releaseState(Path home) {
+		File release = home.resolve("release").toFile();
+		return release.lastModified() * 31 + release.length();
+	}
+
+}
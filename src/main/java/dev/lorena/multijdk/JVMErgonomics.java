@@ -0,0 +1,465 @@
+package dev.lorena.multijdk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Learns from past runs of each JAR and suggests, or applies, heap, GC and JIT settings for the next ones.
+ * <p>
+ * With {@code "ergonomics": "suggest"} or {@code "apply"} in the settings, every launch on JDK 9 or later writes a
+ * small unified GC log to the {@code ergonomics} directory next to {@code settings.json}. The next launch of the same
+ * JAR on the same JDK version reads the logs of the finished runs: peak heap, GC pause time, allocation rate, run time
+ * and available CPUs. They are kept in {@code ergonomics.tsv}, one line per JAR and JDK version, and the logs deleted.
+ * Lines not updated for {@value #MAX_AGE_DAYS} days, and the least recently updated ones beyond {@value #MAX_ENTRIES},
+ * are dropped whenever the file is saved.
+ * This happens under the settings lock, so concurrent launches of the same JAR neither count a run twice nor lose
+ * each other's updates.
+ * </p>
+ *
+ * <p>
+ * After {@value #MIN_RUNS} runs, MultiJDK derives {@code -Xmx} from the peak heap, {@code -Xms} when the JAR spends a
+ * noticeable share of its time in GC pauses, {@code -XX:+UseSerialGC} and {@code -XX:TieredStopAtLevel=1} for
+ * short-lived tools with small heaps, and {@code -XX:+UseParallelGC} for longer, GC-bound runs. In {@code suggest}
+ * mode they are only printed; in {@code apply} mode they are added before the JVM arguments of the user. Either way,
+ * a setting is left out when the user passes any option that controls the same thing. When a {@link LaunchProfile}
+ * gives the JVM a share of the container, the learned heap is capped at that share, since {@code -Xmx} would
+ * otherwise override it.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     List&lt;String&gt; jvmArgs = JVMErgonomics.getArguments(jdk, arguments, profile.getHeapBytes());
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.3
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class JVMErgonomics {
+
+	static final int MAX_ENTRIES = 4096;
+	static final int MAX_AGE_DAYS = 180;
+
+	private static final Path logDirectory = SettingsManager.getSettingsDirectory().resolve("ergonomics");
+	private static final Path historyPath = SettingsManager.getSettingsDirectory().resolve("ergonomics.tsv");
+	private static final int UNIFIED_LOGGING_VERSION = 9;
+	private static final int MIN_RUNS = 3;
+	private static final long SHORT_LIVED_MILLIS = 2000L;
+	private static final long SMALL_HEAP_KILOBYTES = 256L * 1024;
+	private static final long ABANDONED_LOG_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final double WEIGHT = 0.3;
+	private static final String[] HEAP_MAX_OPTIONS = { "-Xmx", "-XX:MaxHeapSize", "-XX:MaxRAM", "-XX:MaxRAMPercentage", "-XX:MaxRAMFraction" };
+	private static final String[] HEAP_MIN_OPTIONS = { "-Xms", "-XX:InitialHeapSize", "-XX:InitialRAMPercentage", "-XX:InitialRAMFraction" };
+	private static final String[] JIT_OPTIONS = { "-XX:TieredStopAtLevel", "-XX:-TieredCompilation", "-XX:+TieredCompilation", "-Xint", "-Xcomp" };
+
+	/**
+	 * Returns the JVM arguments to add for the given JDK and JAR: the GC log that records this run and,
+	 * in {@code apply} mode, the learned settings.
+	 *
+	 * @param jdk the JDK that will run the JAR
+	 * @param arguments the arguments of the launch
+	 * @param maxHeapBytes the heap share given by the launch profile, or 0 for none
+	 * @return the JVM arguments to add, or an empty list if ergonomics are off or do not apply
+	 */
+	public static List<String> getArguments(JDK jdk, Arguments arguments, long maxHeapBytes) {
+		String mode = SettingsManager.getSettings().getErgonomics();
+		boolean apply = "apply".equalsIgnoreCase(mode);
+		if (!apply && !"suggest".equalsIgnoreCase(mode) || jdk.getVersion() < UNIFIED_LOGGING_VERSION) {
+			return Collections.emptyList();
+		}
+
+		try {
+			Path jar = Paths.get(arguments.getJarPath()).toRealPath();
+			String key = ClassDataArchiveManager.hash(jar.toString(), String.valueOf(jdk.getVersion()));
+			Files.createDirectories(logDirectory);
+
+			RunHistory history;
+			FileLock lock = SettingsManager.lock();
+			try {
+				history = learn(key, jar, jdk.getVersion());
+			} finally {
+				SettingsManager.unlock(lock);
+			}
+			List<String> learned = (history != null) ? suggest(history, arguments.getJvmArgs(), maxHeapBytes) : Collections.emptyList();
+
+			List<String> result = new ArrayList<>();
+			if (!learned.isEmpty()) {
+				if (apply) {
+					log.debug("Applying learned JVM arguments: {}", String.join(" ", learned));
+					result.addAll(learned);
+				} else {
+					log.info("Suggested JVM arguments for {}: {} ({})", jar.getFileName(), String.join(" ", learned), history);
+				}
+			}
+			Path gcLog = logDirectory.resolve(key + "-%p.gclog");
+			result.add("-Xlog:gc,gc+init,gc+heap+exit:file=\"" + gcLog + "\":uptime:filecount=1,filesize=4m");
+			return result;
+		} catch (IOException ex) {
+			log.debug("JVM ergonomics disabled for {}: {}", arguments.getJarPath(), ex.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Reads the GC logs of the finished runs of a JAR into its history and deletes them. The caller must hold the
+	 * settings lock.
+	 *
+	 * @return the updated history, or {@code null} if the JAR has none yet
+	 */
+	private static RunHistory learn(String key, Path jar, int version) throws IOException {
+		List<RunStats> runs = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> logs = Files.newDirectoryStream(logDirectory, key + "-*.gclog")) {
+			for (Path gcLog : logs) {
+				RunStats stats = parseGCLog(gcLog);
+				if (stats != null || now - Files.getLastModifiedTime(gcLog).toMillis() > ABANDONED_LOG_MILLIS) {
+					Files.deleteIfExists(gcLog);
+					Files.deleteIfExists(Paths.get(gcLog + ".0"));
+				}
+				if (stats != null) {
+					runs.add(stats);
+				}
+			}
+		}
+
+		// Only the line of this JAR is needed unless there is something new to save
+		Map<String, RunHistory> histories = loadHistories();
+		RunHistory history = histories.get(key);
+		if (runs.isEmpty()) {
+			return history;
+		}
+
+		if (history == null) {
+			history = new RunHistory(jar.toString(), version);
+			histories.put(key, history);
+		}
+		for (RunStats stats : runs) {
+			history.add(stats);
+		}
+		history.lastSeen = now;
+		saveHistories(histories, now);
+		return history;
+	}
+
+	/**
+	 * Derives JVM arguments from a history, leaving out those the user already controls, with the heap capped at
+	 * {@code maxHeapBytes} unless it is 0.
+	 */
+	static List<String> suggest(RunHistory history, List<String> userArgs, long maxHeapBytes) {
+		List<String> suggested = new ArrayList<>();
+		if (history.runs < MIN_RUNS) {
+			return suggested;
+		}
+
+		boolean shortLived = history.uptimeMillis < SHORT_LIVED_MILLIS;
+		double gcShare = (history.uptimeMillis > 0) ? history.gcPauseMillis / history.uptimeMillis : 0;
+		long maxHeapMegabytes = Math.max(32, roundUp(history.peakHeapKilobytes * 2 / 1024, 16));
+		if (maxHeapBytes > 0 && maxHeapMegabytes > maxHeapBytes / (1024 * 1024)) {
+			maxHeapMegabytes = Math.max(16, maxHeapBytes / (1024 * 1024));
+			log.info("Capping the learned heap at the launch profile share of {} MB", maxHeapMegabytes);
+		}
+
+		if (!hasOption(userArgs, HEAP_MAX_OPTIONS)) {
+			suggested.add("-Xmx" + maxHeapMegabytes + "m");
+		}
+		if (gcShare >= 0.05 && !hasOption(userArgs, HEAP_MIN_OPTIONS)) {
+			suggested.add("-Xms" + Math.min(maxHeapMegabytes, roundUp(history.peakHeapKilobytes / 1024, 16)) + "m");
+		}
+		if (!hasGCOption(userArgs)) {
+			if (shortLived && history.peakHeapKilobytes < SMALL_HEAP_KILOBYTES) {
+				suggested.add("-XX:+UseSerialGC");
+			} else if (!shortLived && gcShare >= 0.10 && history.cpus > 1) {
+				suggested.add("-XX:+UseParallelGC");
+			}
+		}
+		if (shortLived && !hasOption(userArgs, JIT_OPTIONS)) {
+			suggested.add("-XX:TieredStopAtLevel=1");
+		}
+		return suggested;
+	}
+
+	private static boolean hasOption(List<String> userArgs, String[] options) {
+		for (String arg : userArgs) {
+			for (String option : options) {
+				if (arg.startsWith(option)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasGCOption(List<String> userArgs) {
+		for (String arg : userArgs) {
+			if (arg.startsWith("-XX:+Use") && arg.endsWith("GC")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long roundUp(long value, long multiple) {
+		return ((value + multiple - 1) / multiple) * multiple;
+	}
+
+	/**
+	 * Reads the figures of one run from a GC log written with {@code -Xlog:gc,gc+init,gc+heap+exit}. Lines are
+	 * parsed by hand, which costs less than loading the regular expression classes on every launch.
+	 *
+	 * @param gcLog the log file
+	 * @return the figures, or {@code null} if the run has not finished, since the heap summary is written at exit
+	 */
+	static RunStats parseGCLog(Path gcLog) throws IOException {
+		RunStats stats = new RunStats();
+		long lastAfter = 0L;
+		long allocated = 0L;
+		long exitUsed = 0L;
+		boolean exitSeen = false;
+
+		try (BufferedReader reader = Files.newBufferedReader(gcLog, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int end = line.indexOf("s] ");
+				if (!line.startsWith("[") || end < 0) {
+					continue;
+				}
+				stats.uptimeMillis = (long) (parseDouble(line.substring(1, end)) * 1000);
+				String content = line.substring(end + 3);
+
+				if (exitSeen) {
+					exitUsed += parseExitUsed(content);
+				} else if (content.equals("Heap")) {
+					exitSeen = true;
+				} else if (content.startsWith("CPUs: ")) {
+					int available = content.indexOf(" available");
+					int comma = content.lastIndexOf(", ", available);
+					if (available > 0 && comma > 0) {
+						stats.cpus = (int) parseDouble(content.substring(comma + 2, available));
+					}
+				} else if (content.startsWith("GC(")) {
+					int arrow = content.indexOf("->");
+					if (arrow < 0) {
+						continue;
+					}
+					long before = parseSize(content.substring(content.lastIndexOf(' ', arrow) + 1, arrow));
+					long after = parseSize(content.substring(arrow + 2, indexOfAny(content, arrow + 2, '(', ' ')));
+					allocated += Math.max(0, before - lastAfter);
+					lastAfter = after;
+					stats.peakHeapKilobytes = Math.max(stats.peakHeapKilobytes, before);
+					if (content.contains("Pause") && content.endsWith("ms")) {
+						stats.gcPauseMillis += parseDouble(content.substring(content.lastIndexOf(' ') + 1, content.length() - 2));
+					}
+				}
+			}
+		}
+
+		if (!exitSeen) {
+			return null;
+		}
+		allocated += Math.max(0, exitUsed - lastAfter);
+		stats.peakHeapKilobytes = Math.max(stats.peakHeapKilobytes, exitUsed);
+		stats.allocationKilobytesPerSecond = (stats.uptimeMillis > 0) ? allocated * 1000.0 / stats.uptimeMillis : 0;
+		return stats;
+	}
+
+	/**
+	 * Returns the used heap of a generation line of the exit summary, e.g. {@code def new generation total 19648K,
+	 * used 2097K} or {@code ZHeap used 8M, capacity 64M}, or 0 for any other line.
+	 */
+	private static long parseExitUsed(String content) {
+		int used = content.indexOf(", used ");
+		if (used >= 0 && content.contains(" total ")) {
+			used += ", used ".length();
+		} else if (content.trim().startsWith("ZHeap") && (used = content.indexOf(" used ")) >= 0) {
+			used += " used ".length();
+		} else {
+			return 0;
+		}
+		return parseSize(content.substring(used, indexOfAny(content, used, ',', ' ')));
+	}
+
+	private static int indexOfAny(String value, int from, char first, char second) {
+		for (int i = from; i < value.length(); i++) {
+			if (value.charAt(i) == first || value.charAt(i) == second) {
+				return i;
+			}
+		}
+		return value.length();
+	}
+
+	/**
+	 * Parses a size such as {@code 17M}, {@code 2097K} or ZGC's {@code 14M(22%)} into kilobytes.
+	 */
+	private static long parseSize(String size) {
+		int percent = size.indexOf('(');
+		if (percent >= 0) {
+			size = size.substring(0, percent);
+		}
+		if (size.isEmpty()) {
+			return 0;
+		}
+		double value = parseDouble(size.substring(0, size.length() - 1));
+		switch (Character.toUpperCase(size.charAt(size.length() - 1))) {
+			case 'G':
+				return (long) (value * 1024 * 1024);
+			case 'M':
+				return (long) (value * 1024);
+			case 'K':
+				return (long) value;
+			default:
+				return (long) (parseDouble(size) / 1024);
+		}
+	}
+
+	private static double parseDouble(String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	private static Map<String, RunHistory> loadHistories() throws IOException {
+		Map<String, RunHistory> histories = new LinkedHashMap<>();
+		if (!Files.isRegularFile(historyPath)) {
+			return histories;
+		}
+		for (String line : Files.readAllLines(historyPath, StandardCharsets.UTF_8)) {
+			if (line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\t", -1);
+			// Lines written before the last-seen column count as seen now
+			if (fields.length == 9 || fields.length == 10) {
+				histories.put(fields[0], RunHistory.parse(fields));
+			}
+		}
+		return histories;
+	}
+
+	private static void saveHistories(Map<String, RunHistory> histories, long now) throws IOException {
+		evict(histories, now);
+		StringBuilder content = new StringBuilder("# key\truns\tpeakHeapKB\tgcPauseMs\tallocationKBps\tuptimeMs\tcpus\tjdkVersion\tjar\tlastSeen\n");
+		for (Map.Entry<String, RunHistory> entry : histories.entrySet()) {
+			content.append(entry.getKey()).append('\t').append(entry.getValue().format()).append('\n');
+		}
+		Path temporary = SettingsManager.temporaryFileFor(historyPath);
+		try {
+			Files.write(temporary, content.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+			SettingsManager.moveAtomically(temporary, historyPath);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Drops the histories not updated for {@value #MAX_AGE_DAYS} days, then the least recently updated ones beyond
+	 * {@value #MAX_ENTRIES}.
+	 */
+	private static void evict(Map<String, RunHistory> histories, long now) {
+		long maxAgeMillis = TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+		histories.values().removeIf(history -> now - history.lastSeen > maxAgeMillis);
+		if (histories.size() > MAX_ENTRIES) {
+			List<Map.Entry<String, RunHistory>> sorted = new ArrayList<>(histories.entrySet());
+			sorted.sort(Comparator.comparingLong(e -> e.getValue().lastSeen));
+			for (Map.Entry<String, RunHistory> evicted : sorted.subList(0, histories.size() - MAX_ENTRIES)) {
+				histories.remove(evicted.getKey());
+			}
+		}
+	}
+
+	/**
+	 * The figures of a single run, read from its GC log.
+	 */
+	static final class RunStats {
+		long peakHeapKilobytes = 0L;
+		double gcPauseMillis = 0;
+		double allocationKilobytesPerSecond = 0;
+		long uptimeMillis = 0L;
+		int cpus = 0;
+	}
+
+	/**
+	 * What is known about a JAR on a JDK version: the highest peak heap ever seen, and moving averages that favour
+	 * recent runs for the rest.
+	 */
+	static final class RunHistory {
+		private final String jar;
+		private final int version;
+		int runs = 0;
+		long peakHeapKilobytes = 0L;
+		double gcPauseMillis = 0;
+		double allocationKilobytesPerSecond = 0;
+		double uptimeMillis = 0;
+		int cpus = 0;
+		long lastSeen = System.currentTimeMillis();
+
+		RunHistory(String jar, int version) {
+			this.jar = jar;
+			this.version = version;
+		}
+
+		void add(RunStats stats) {
+			boolean first = runs == 0;
+			runs++;
+			peakHeapKilobytes = Math.max(peakHeapKilobytes, stats.peakHeapKilobytes);
+			gcPauseMillis = first ? stats.gcPauseMillis : average(gcPauseMillis, stats.gcPauseMillis);
+			allocationKilobytesPerSecond = first ? stats.allocationKilobytesPerSecond : average(allocationKilobytesPerSecond, stats.allocationKilobytesPerSecond);
+			uptimeMillis = first ? stats.uptimeMillis : average(uptimeMillis, stats.uptimeMillis);
+			if (stats.cpus > 0) {
+				cpus = stats.cpus;
+			}
+		}
+
+		private static double average(double current, double sample) {
+			return current + WEIGHT * (sample - current);
+		}
+
+		String format() {
+			return String.format(Locale.ROOT, "%d\t%d\t%.1f\t%.1f\t%.0f\t%d\t%d\t%s\t%d",
+					runs, peakHeapKilobytes, gcPauseMillis, allocationKilobytesPerSecond, uptimeMillis, cpus, version, jar, lastSeen);
+		}
+
+		static RunHistory parse(String[] fields) {
+			RunHistory history = new RunHistory(fields[8], (int) parseDouble(fields[7]));
+			history.runs = (int) parseDouble(fields[1]);
+			history.peakHeapKilobytes = (long) parseDouble(fields[2]);
+			history.gcPauseMillis = parseDouble(fields[3]);
+			history.allocationKilobytesPerSecond = parseDouble(fields[4]);
+			history.uptimeMillis = parseDouble(fields[5]);
+			history.cpus = (int) parseDouble(fields[6]);
+			if (fields.length > 9) {
+				history.lastSeen = (long) parseDouble(fields[9]);
+			}
+			return history;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "peak heap %d MB, GC pauses %.1f ms, allocation %.1f MB/s, run time %.0f ms, %d CPUs, %d runs",
+					peakHeapKilobytes / 1024, gcPauseMillis, allocationKilobytesPerSecond / 1024, uptimeMillis, cpus, runs);
+		}
+	}
+
+}
@@ -0,0 +1,302 @@
+package dev.lorena.multijdk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps pre-started JVMs, running {@link PoolWorker}, to run small JARs without paying for a JVM start each time.
+ * <p>
+ * The pool belongs to the {@link MultiJDKDaemon} and is enabled with {@code "pool": true} in the settings. Workers
+ * are kept per JDK and working directory, since a running JVM cannot change either. The first launch of a JDK in a
+ * directory starts {@code poolWorkersPerJDK} workers and runs as a normal process; the following launches take a
+ * warm worker and a replacement is started in the background. Idle workers are stopped after
+ * {@code poolIdleTimeoutMinutes}, and every worker retires itself after {@code poolMaxReuses} jobs or when the JAR
+ * leaves threads or too much heap behind, see {@link PoolWorker}.
+ * </p>
+ *
+ * <p>
+ * A JAR runs as a normal process instead when it needs JVM arguments or supervision, is listed in
+ * {@code poolExcludedJars}, or has {@code MultiJDK-Pool: false} in its manifest. Pooled JARs share the environment
+ * variables of the daemon, and their standard input is not a terminal.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     Optional&lt;Integer&gt; exitCode = pool.run(jdk, arguments, workingDirectory, fifoDirectory);
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@Slf4j
+public class JVMPool {
+
+	static final String MANIFEST_ATTRIBUTE = "MultiJDK-Pool";
+
+	private final String launcherPath;
+	private final Map<String, Deque<PooledJVM>> idle = new HashMap<>();
+	private final Map<String, Integer> starting = new HashMap<>();
+	private final ExecutorService starters = Executors.newCachedThreadPool();
+	private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param launcherPath the MultiJDK JAR, which holds {@link PoolWorker}
+	 */
+	public JVMPool(String launcherPath) {
+		this.launcherPath = launcherPath;
+		reaper.scheduleWithFixedDelay(this::stopIdleWorkers, 1, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Runs a JAR in a warm worker, connected to the FIFOs in {@code fifoDirectory}, and waits for it to finish.
+	 *
+	 * @param jdk the selected JDK
+	 * @param arguments the parsed arguments
+	 * @param workingDirectory the working directory of the launch
+	 * @param fifoDirectory the directory holding the {@code in}, {@code out} and {@code err} FIFOs
+	 * @return the exit code, or an empty {@link Optional} if the JAR must run as a normal process
+	 */
+	public Optional<Integer> run(JDK jdk, Arguments arguments, String workingDirectory, String fifoDirectory) {
+		String reason = getIncompatibility(arguments);
+		if (reason != null) {
+			log.debug("Not running {} in the pool: {}", arguments.getJarPath(), reason);
+			return Optional.empty();
+		}
+
+		String key = jdk.getPath() + File.pathSeparator + workingDirectory;
+		PooledJVM jvm = take(key);
+		warmUp(jdk, workingDirectory, key);
+		if (jvm == null) {
+			log.info("No warm JVM for {} in {} yet", jdk.getPath(), workingDirectory);
+			return Optional.empty();
+		}
+
+		List<String> job = new ArrayList<>();
+		job.add(fifoDirectory);
+		job.add(arguments.getJarPath());
+		job.addAll(arguments.getJarParams());
+		try {
+			jvm.send(job);
+		} catch (IOException ex) {
+			log.debug("Pooled JVM for {} is gone: {}", jdk.getPath(), ex.getMessage());
+			jvm.process.destroy();
+			return Optional.empty();
+		}
+
+		// From here on the JAR may have written output, so it cannot run again as a normal process
+		try {
+			int exitCode = jvm.replies.readInt();
+			starters.submit(() -> recycle(jvm, key));
+			return Optional.of(exitCode);
+		} catch (IOException ex) {
+			// The JAR called System.exit, or the worker crashed
+			return Optional.of(waitForExit(jvm));
+		}
+	}
+
+	/**
+	 * Stops every worker.
+	 */
+	public synchronized void shutdown() {
+		reaper.shutdownNow();
+		starters.shutdownNow();
+		for (Deque<PooledJVM> workers : idle.values()) {
+			for (PooledJVM jvm : workers) {
+				jvm.process.destroy();
+			}
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Returns why a launch cannot run in a pooled JVM, or {@code null} if it can.
+	 */
+	private static String getIncompatibility(Arguments arguments) {
+		if (arguments.isSupervised()) {
+			return "it needs MultiJDK supervision";
+		}
+
+		String encoding = "-Dfile.encoding=" + Charset.defaultCharset();
+		for (String jvmArg : arguments.getJvmArgs()) {
+			if (!jvmArg.equalsIgnoreCase(encoding)) {
+				return "it has JVM arguments";
+			}
+		}
+
+		if (SettingsManager.getSettings().getPoolExcludedJars().contains(arguments.getJarPath())) {
+			return "it is listed in poolExcludedJars";
+		}
+
+		try (JarFile jar = new JarFile(arguments.getJarPath())) {
+			Manifest manifest = jar.getManifest();
+			if (manifest == null || manifest.getMainAttributes().getValue("Main-Class") == null) {
+				return "it has no Main-Class";
+			}
+			if ("false".equalsIgnoreCase(manifest.getMainAttributes().getValue(MANIFEST_ATTRIBUTE))) {
+				return "its manifest has " + MANIFEST_ATTRIBUTE + ": false";
+			}
+		} catch (IOException ex) {
+			return "its manifest cannot be read: " + ex.getMessage();
+		}
+		return null;
+	}
+
+	private synchronized PooledJVM take(String key) {
+		Deque<PooledJVM> workers = idle.get(key);
+		while (workers != null && !workers.isEmpty()) {
+			PooledJVM jvm = workers.pollFirst();
+			if (jvm.process.isAlive()) {
+				return jvm;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts workers in the background until {@code poolWorkersPerJDK} are idle or starting for the key.
+	 */
+	private synchronized void warmUp(JDK jdk, String workingDirectory, String key) {
+		int wanted = SettingsManager.getSettings().getPoolWorkersPerJDK();
+		Deque<PooledJVM> workers = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+		int pending = starting.getOrDefault(key, 0);
+		for (int i = workers.size() + pending; i < wanted; i++) {
+			starting.merge(key, 1, Integer::sum);
+			starters.submit(() -> start(jdk, workingDirectory, key));
+		}
+	}
+
+	private void start(JDK jdk, String workingDirectory, String key) {
+		Settings settings = SettingsManager.getSettings();
+		List<String> command = Arrays.asList(jdk.getPath(), "-Dfile.encoding=" + Charset.defaultCharset(),
+				"-cp", launcherPath, PoolWorker.class.getName(),
+				String.valueOf(settings.getPoolMaxReuses()), String.valueOf(settings.getPoolHeapThresholdPercent()));
+		try {
+			Process process = new ProcessBuilder(command)
+					.directory(new File(workingDirectory))
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			PooledJVM jvm = new PooledJVM(process);
+			if (jvm.awaitReady()) {
+				log.debug("Started pooled JVM for {} in {}", jdk.getPath(), workingDirectory);
+				release(jvm, key);
+			} else {
+				process.destroy();
+			}
+		} catch (IOException ex) {
+			log.error("Could not start a pooled JVM for {}: {}", jdk.getPath(), ex.getMessage());
+		} finally {
+			synchronized (this) {
+				starting.merge(key, -1, Integer::sum);
+			}
+		}
+	}
+
+	/**
+	 * Waits for a worker to be ready again after a job and returns it to the pool, unless it retired.
+	 */
+	private void recycle(PooledJVM jvm, String key) {
+		try {
+			if (jvm.awaitReady()) {
+				release(jvm, key);
+				return;
+			}
+		} catch (IOException ex) {
+			log.debug("Pooled JVM retired: {}", ex.getMessage());
+		}
+		waitForExit(jvm);
+	}
+
+	/**
+	 * Makes a worker available for the key, or stops it if enough workers were started while it was busy.
+	 */
+	private synchronized void release(PooledJVM jvm, String key) {
+		Deque<PooledJVM> workers = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+		if (workers.size() >= SettingsManager.getSettings().getPoolWorkersPerJDK()) {
+			jvm.process.destroy();
+			return;
+		}
+		jvm.idleSince = System.currentTimeMillis();
+		workers.addLast(jvm);
+	}
+
+	private synchronized void stopIdleWorkers() {
+		long timeout = TimeUnit.MINUTES.toMillis(SettingsManager.getSettings().getPoolIdleTimeoutMinutes());
+		long now = System.currentTimeMillis();
+		for (Deque<PooledJVM> workers : idle.values()) {
+			Iterator<PooledJVM> iterator = workers.iterator();
+			while (iterator.hasNext()) {
+				PooledJVM jvm = iterator.next();
+				if (now - jvm.idleSince > timeout || !jvm.process.isAlive()) {
+					jvm.process.destroy();
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private static int waitForExit(PooledJVM jvm) {
+		try {
+			return jvm.process.waitFor();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			jvm.process.destroy();
+			return 1;
+		}
+	}
+
+	/**
+	 * A worker process and its control streams.
+	 */
+	private static final class PooledJVM {
+
+		private final Process process;
+		private final DataOutputStream control;
+		private final DataInputStream replies;
+		private long idleSince = 0L;
+
+		private PooledJVM(Process process) {
+			this.process = process;
+			this.control = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			this.replies = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		}
+
+		private boolean awaitReady() throws IOException {
+			return PoolWorker.READY.equals(replies.readUTF());
+		}
+
+		private void send(List<String> job) throws IOException {
+			control.writeInt(job.size());
+			for (String field : job) {
+				control.writeUTF(field);
+			}
+			control.flush();
+		}
+
+	}
+
+}
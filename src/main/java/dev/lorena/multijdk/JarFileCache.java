@@ -0,0 +1,209 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caches a value computed from a JAR, such as its identity or the Java version it needs, in a TSV file next to
+ * {@code settings.json}, so later launches only read the attributes of the JAR.
+ * <p>
+ * Entries are keyed by the absolute path of the JAR and hold its modification time and size, so a JAR that changed is
+ * a miss, and the last time they were used, refreshed at most once a day so most launches do not write. Entries unused
+ * for the given number of days, and the least recently used ones beyond the given count, are dropped when the cache is
+ * saved.
+ * </p>
+ *
+ * <p>
+ * The file is read once per process. It is saved under the settings lock, after merging what other processes saved
+ * since, keeping the most recently used entry of each JAR, and replaced in one rename. So concurrent launches keep
+ * each other's entries, and the daemon picks up theirs whenever it saves.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     JarFileCache&lt;Integer&gt; cache = new JarFileCache&lt;&gt;("jar-versions.tsv", "JAR version cache", 4096, 180,
+ *             Integer::valueOf, String::valueOf);
+ *     Integer version = cache.get(jar, attributes);
+ * </pre>
+ *
+ * @param <V> the type of the cached values
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@Slf4j
+public class JarFileCache<V> {
+
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private final Path cachePath;
+	private final String description;
+	private final int maxEntries;
+	private final long maxAgeMillis;
+	private final Function<String, V> parser;
+	private final Function<V, String> formatter;
+	private Map<String, Entry<V>> entries = null;
+
+	/**
+	 * Creates a cache backed by a file in the settings directory.
+	 *
+	 * @param fileName the name of the file, e.g. {@code jar-versions.tsv}
+	 * @param description what the cache holds, for the log
+	 * @param maxEntries how many JARs to keep at most
+	 * @param maxAgeDays after how many days without use an entry is dropped
+	 * @param parser reads a value from the file, and may throw {@link NumberFormatException}
+	 * @param formatter writes a value to the file, without line breaks
+	 */
+	public JarFileCache(String fileName, String description, int maxEntries, int maxAgeDays,
+			Function<String, V> parser, Function<V, String> formatter) {
+		this.cachePath = SettingsManager.getSettingsDirectory().resolve(fileName);
+		this.description = description;
+		this.maxEntries = maxEntries;
+		this.maxAgeMillis = maxAgeDays * DAY_MILLIS;
+		this.parser = parser;
+		this.formatter = formatter;
+	}
+
+	/**
+	 * Returns the value cached for a JAR, if its modification time and size are unchanged.
+	 *
+	 * @param jar the absolute, normalized path of the JAR
+	 * @param attributes the current attributes of the JAR
+	 * @return the cached value, or {@code null} if there is none or the JAR changed
+	 */
+	public synchronized V get(Path jar, BasicFileAttributes attributes) {
+		Entry<V> entry = getEntries().get(jar.toString());
+		if (entry == null || entry.modified != attributes.lastModifiedTime().toMillis() || entry.size != attributes.size()) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		// Refreshing the last use once a day is enough for the eviction, and keeps most launches read-only
+		if (now - entry.lastUsed > DAY_MILLIS) {
+			entry.lastUsed = now;
+			save();
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Caches the value of a JAR and saves the cache. JARs whose path holds a tab or a line break are not cached.
+	 *
+	 * @param jar the absolute, normalized path of the JAR
+	 * @param attributes the attributes of the JAR the value was computed from
+	 * @param value the value
+	 */
+	public synchronized void put(Path jar, BasicFileAttributes attributes, V value) {
+		String path = jar.toString();
+		if (path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0) {
+			return;
+		}
+		getEntries().put(path, new Entry<>(attributes.lastModifiedTime().toMillis(), attributes.size(), System.currentTimeMillis(), value));
+		save();
+	}
+
+	private Map<String, Entry<V>> getEntries() {
+		if (entries == null) {
+			entries = read();
+		}
+		return entries;
+	}
+
+	private Map<String, Entry<V>> read() {
+		Map<String, Entry<V>> read = new HashMap<>();
+		if (!Files.isRegularFile(cachePath)) {
+			return read;
+		}
+		try {
+			for (String line : Files.readAllLines(cachePath, StandardCharsets.UTF_8)) {
+				String[] fields = line.split("\t", 5);
+				if (fields.length == 5) {
+					read.put(fields[0], new Entry<>(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]), parser.apply(fields[4])));
+				}
+			}
+		} catch (IOException | NumberFormatException ex) {
+			log.debug("Ignoring the {} {}: {}", description, cachePath, ex.getMessage());
+		}
+		return read;
+	}
+
+	/**
+	 * Merges the entries other processes saved, drops the old and least recently used ones and writes the cache.
+	 */
+	private void save() {
+		FileLock lock = null;
+		try {
+			lock = SettingsManager.lock();
+			for (Map.Entry<String, Entry<V>> saved : read().entrySet()) {
+				entries.merge(saved.getKey(), saved.getValue(), (mine, theirs) -> (theirs.lastUsed > mine.lastUsed) ? theirs : mine);
+			}
+			evict(System.currentTimeMillis());
+			write();
+		} catch (IOException ex) {
+			log.debug("Could not save the {} {}: {}", description, cachePath, ex.getMessage());
+		} finally {
+			SettingsManager.unlock(lock);
+		}
+	}
+
+	private void evict(long now) {
+		entries.values().removeIf(entry -> now - entry.lastUsed > maxAgeMillis);
+		if (entries.size() > maxEntries) {
+			List<Map.Entry<String, Entry<V>>> sorted = new ArrayList<>(entries.entrySet());
+			sorted.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+			for (Map.Entry<String, Entry<V>> evicted : sorted.subList(0, entries.size() - maxEntries)) {
+				entries.remove(evicted.getKey());
+			}
+		}
+	}
+
+	private void write() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (Map.Entry<String, Entry<V>> e : entries.entrySet()) {
+			Entry<V> entry = e.getValue();
+			content.append(e.getKey()).append('\t').append(entry.modified).append('\t').append(entry.size).append('\t')
+					.append(entry.lastUsed).append('\t').append(formatter.apply(entry.value)).append('\n');
+		}
+
+		Path temporary = SettingsManager.temporaryFileFor(cachePath);
+		try {
+			Files.write(temporary, content.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+			SettingsManager.moveAtomically(temporary, cachePath);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * The value of a JAR as of its modification time and size.
+	 */
+	private static final class Entry<V> {
+
+		private final long modified;
+		private final long size;
+		private long lastUsed;
+		private final V value;
+
+		private Entry(long modified, long size, long lastUsed, V value) {
+			this.modified = modified;
+			this.size = size;
+			this.lastUsed = lastUsed;
+			this.value = value;
+		}
+
+	}
+
+}
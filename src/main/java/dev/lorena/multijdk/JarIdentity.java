@@ -0,0 +1,209 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Identifies a JAR by what it is rather than where it is, so the JDK remembered for it survives a redeploy.
+ * <p>
+ * The identity comes from the manifest, {@code Automatic-Module-Name} or else {@code Implementation-Title} with its
+ * {@code Implementation-Vendor}, which stay the same from one version of an application to the next. A JAR without
+ * either is identified by a CRC-32 and Adler-32 of its content, read through a memory-mapped file, which survives
+ * moving or renaming it. Identities are cached in {@code jar-identities.tsv} next to {@code settings.json}, see
+ * {@link JarFileCache}, so a JAR is only read again when it changes. Cache entries unused for {@value #MAX_AGE_DAYS}
+ * days, and the least recently used ones beyond {@value #MAX_ENTRIES}, are dropped.
+ * </p>
+ *
+ * <p>
+ * {@code preferredJDKPerFile} used to be keyed by JAR path. Such entries are still found, and moved to the identity
+ * of the JAR the first time they are. The last time each remembered JDK was used is kept in
+ * {@code preferredJDKLastUsed}, refreshed through the settings journal at most once a day. When the settings are
+ * compacted, {@link #evictUnused(Map, Map)} drops the path entries of deleted JARs and the identities unused for
+ * {@value #MAX_AGE_DAYS} days. Only these persisted facts count: a JAR missing from the identity cache of one process
+ * may still be used by another.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     String jdkPath = JarIdentity.findPreferredJDK(settings.getPreferredJDKPerFile(), arguments.getJarPath());
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.2
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class JarIdentity {
+
+	static final String MANIFEST_PREFIX = "manifest:";
+	static final String CONTENT_PREFIX = "content:";
+	static final int MAX_ENTRIES = 4096;
+	static final int MAX_AGE_DAYS = 180;
+
+	private static final long MAPPED_CHUNK_BYTES = 64L * 1024 * 1024;
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	private static final JarFileCache<String> cache = new JarFileCache<>("jar-identities.tsv", "JAR identity cache",
+			MAX_ENTRIES, MAX_AGE_DAYS, Function.identity(), Function.identity());
+
+	/**
+	 * Returns the JDK remembered for a JAR, by identity or, for entries remembered before identities, by path, and
+	 * records that it was used if it was not already today.
+	 *
+	 * @param preferredJDKPerFile the remembered JDKs
+	 * @param jarPath the JAR
+	 * @return the java executable remembered for the JAR, or {@code null} if there is none
+	 */
+	public static String findPreferredJDK(Map<String, String> preferredJDKPerFile, String jarPath) {
+		if (preferredJDKPerFile == null || preferredJDKPerFile.isEmpty()) {
+			return null;
+		}
+
+		String identity = of(jarPath);
+		String jdkPath = (identity != null) ? preferredJDKPerFile.get(identity) : null;
+		if (jdkPath != null) {
+			Map<String, Long> lastUsed = SettingsManager.getSettings().getPreferredJDKLastUsed();
+			Long used = (lastUsed != null) ? lastUsed.get(identity) : null;
+			if (used == null || System.currentTimeMillis() - used > DAY_MILLIS) {
+				SettingsManager.rememberPreferredJDK(identity, jdkPath);
+			}
+			return jdkPath;
+		}
+
+		jdkPath = preferredJDKPerFile.get(jarPath);
+		if (jdkPath != null && identity != null) {
+			log.debug("Remembering {} for {} by identity {}", jdkPath, jarPath, identity);
+			SettingsManager.rememberPreferredJDK(identity, jdkPath);
+		}
+		return jdkPath;
+	}
+
+	/**
+	 * Returns the key under which to remember the JDK of a JAR: its identity, or its path if it cannot be read.
+	 *
+	 * @param jarPath the JAR
+	 * @return the key for {@code preferredJDKPerFile}
+	 */
+	public static String keyOf(String jarPath) {
+		String identity = of(jarPath);
+		return (identity != null) ? identity : jarPath;
+	}
+
+	/**
+	 * Returns the identity of a JAR, from the cache when its path, modification time and size are unchanged.
+	 *
+	 * @param jarPath the JAR
+	 * @return the identity, or {@code null} if the JAR cannot be read
+	 */
+	public static String of(String jarPath) {
+		Path jar = Paths.get(jarPath).toAbsolutePath().normalize();
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+		} catch (IOException ex) {
+			log.debug("Cannot identify {}: {}", jarPath, ex.getMessage());
+			return null;
+		}
+
+		String identity = cache.get(jar, attributes);
+		if (identity != null) {
+			return identity;
+		}
+
+
+		try {
+			identity = compute(jar, attributes.size());
+		} catch (IOException ex) {
+			log.debug("Cannot identify {}: {}", jarPath, ex.getMessage());
+			return null;
+		}
+		log.debug("Identity of {} is {}", jar, identity);
+		cache.put(jar, attributes, identity);
+		return identity;
+	}
+
+	/**
+	 * Removes the remembered JDKs that are no longer needed: path entries of JARs that do not exist anymore, and
+	 * identities not used for {@value #MAX_AGE_DAYS} days. Identities remembered before their last use was recorded
+	 * are considered used now. Called with the settings lock held, when the settings are compacted.
+	 *
+	 * @param preferredJDKPerFile the remembered JDKs
+	 * @param preferredJDKLastUsed when each of them was last used, in milliseconds since the epoch
+	 */
+	public static void evictUnused(Map<String, String> preferredJDKPerFile, Map<String, Long> preferredJDKLastUsed) {
+		long now = System.currentTimeMillis();
+		Iterator<String> keys = preferredJDKPerFile.keySet().iterator();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			boolean identity = key.startsWith(MANIFEST_PREFIX) || key.startsWith(CONTENT_PREFIX);
+			boolean unused = identity
+					? now - preferredJDKLastUsed.computeIfAbsent(key, k -> now) > MAX_AGE_DAYS * DAY_MILLIS
+					: !Files.exists(Paths.get(key));
+			if (unused) {
+				log.debug("Forgetting the JDK remembered for {}", key);
+				keys.remove();
+			}
+		}
+		preferredJDKLastUsed.keySet().retainAll(preferredJDKPerFile.keySet());
+	}
+
+	private static String compute(Path jar, long size) throws IOException {
+		try (JarFile jarFile = new JarFile(jar.toFile(), false)) {
+			Manifest manifest = jarFile.getManifest();
+			if (manifest != null) {
+				Attributes attributes = manifest.getMainAttributes();
+				String module = attributes.getValue("Automatic-Module-Name");
+				if (module != null && !module.trim().isEmpty()) {
+					return MANIFEST_PREFIX + clean(module);
+				}
+				String title = attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
+				if (title != null && !title.trim().isEmpty()) {
+					String vendor = attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR);
+					return MANIFEST_PREFIX + ((vendor != null) ? clean(vendor) + "/" : "") + clean(title);
+				}
+			}
+		}
+		return CONTENT_PREFIX + hashContent(jar, size);
+	}
+
+	/**
+	 * Hashes the content of a file through memory-mapped chunks, so it is read without copying it to the heap.
+	 * CRC-32 and Adler-32 are intrinsics on most JVMs, and together with the size are distinct enough for JARs.
+	 */
+	private static String hashContent(Path file, long size) throws IOException {
+		CRC32 crc = new CRC32();
+		Adler32 adler = new Adler32();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (long position = 0; position < size; position += MAPPED_CHUNK_BYTES) {
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_CHUNK_BYTES, size - position));
+				crc.update(chunk.duplicate());
+				adler.update(chunk);
+			}
+		}
+		return String.format("%08x%08x-%d", crc.getValue(), adler.getValue(), size);
+	}
+
+	private static String clean(String value) {
+		return value.trim().replace('\t', ' ');
+	}
+
+}
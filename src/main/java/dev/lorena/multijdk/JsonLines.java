@@ -0,0 +1,51 @@
+package dev.lorena.multijdk;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Writes the one-line JSON reports of {@code --timings=<file>} and {@code --metrics=json}.
+ * <p>
+ * Both reports are small value objects serialized by the same {@link Gson}, so they escape strings and write numbers
+ * the same way. Fields that are {@code null} are written as {@code null}, so every line has the same keys, and HTML
+ * characters are left as they are, since the lines are meant to be read by people and scripts, not browsers.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     System.err.print(JsonLines.toJsonLine(report));
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class JsonLines {
+
+	private static final Gson gson = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+	/**
+	 * Serializes a report as a single line of JSON.
+	 *
+	 * @param report the report
+	 * @return the JSON, ending with a line break
+	 */
+	public static String toJsonLine(Object report) {
+		return gson.toJson(report) + "\n";
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds, rounded to the microsecond.
+	 *
+	 * @param nanos a duration in nanoseconds
+	 * @return the duration in milliseconds, with at most three decimals
+	 */
+	public static double millis(long nanos) {
+		return Math.round(nanos / 1_000.0) / 1_000.0;
+	}
+
+}
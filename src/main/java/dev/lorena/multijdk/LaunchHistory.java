@@ -0,0 +1,626 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps a history of the launches, for {@code "recordHistory": true}, and summarizes it for {@code jdk history}.
+ * <p>
+ * Every supervised launch appends one fixed-width record of {@value #RECORD_BYTES} bytes: when it started, hashes of
+ * the JAR and java paths, how long it ran, its peak resident memory, its exit code and the JDK version. The record is
+ * written with a single append to the newest segment in the {@code history} directory next to {@code settings.json},
+ * and a new segment is started every {@value #SEGMENT_RECORDS} records or once the newest one holds launches of more
+ * than a day ago. The paths behind the hashes are appended to {@code names.tsv} the first time they are seen.
+ * Writers take turns on {@code history.lock}, so a compaction never misses the names or the segment of a launch
+ * being recorded; readers need no lock.
+ * </p>
+ *
+ * <p>
+ * When a segment is started, the history is compacted: segments older than {@code historyMaxAgeDays} are deleted,
+ * then the oldest ones while the history is larger than {@code historyMaxMegabytes}, and the names no segment refers
+ * to anymore are dropped. As segments span at most a day, records outlive {@code historyMaxAgeDays} by a day at
+ * most, and queries skip them until then.
+ * </p>
+ *
+ * <p>
+ * Queries read the segments through memory-mapped buffers, record by record, and keep only a log-linear histogram of
+ * the durations per JAR and JDK, so the percentiles are computed without loading the history onto the heap. They are
+ * within {@value #PERCENTILE_ERROR_PERCENT}% of the exact values.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     LaunchHistory.record(jdk, arguments, exitCode, metrics.getWallNanos(), metrics.getPeakRssKilobytes());
+ *     LaunchHistory.printReport("myapp", null, 7);
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.2
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class LaunchHistory {
+
+	static final int RECORD_BYTES = 48;
+	static final int SEGMENT_RECORDS = 16384;
+	static final int PERCENTILE_ERROR_PERCENT = 7;
+	static final int TOP_GROUPS = 20;
+
+	private static final Path historyDirectory = SettingsManager.getSettingsDirectory().resolve("history");
+	private static final Path namesPath = historyDirectory.resolve("names.tsv");
+	private static final Path lockPath = historyDirectory.resolve("history.lock");
+	private static final String SEGMENT_PREFIX = "runs-v1-";
+	private static final String SEGMENT_SUFFIX = ".bin";
+	private static final String JAR = "jar";
+	private static final String JDK_KIND = "jdk";
+
+	/** Offsets of the fields of a record. */
+	private static final int TIMESTAMP = 0;
+	private static final int JAR_HASH = 8;
+	private static final int JDK_HASH = 16;
+	private static final int DURATION_MICROS = 24;
+	private static final int PEAK_RSS_KILOBYTES = 32;
+	private static final int EXIT_CODE = 40;
+	private static final int VERSION = 44;
+
+	/**
+	 * Appends a launch to the history.
+	 *
+	 * @param jdk the JDK that ran the JAR
+	 * @param arguments the arguments of the launch
+	 * @param exitCode the exit code of the process
+	 * @param wallNanos how long the process ran
+	 * @param peakRssKilobytes the peak resident memory of the process, or -1 if unknown
+	 */
+	public static void record(JDK jdk, Arguments arguments, int exitCode, long wallNanos, long peakRssKilobytes) {
+		String jar = Paths.get(arguments.getJarPath()).toAbsolutePath().normalize().toString();
+		long jarHash = hash(jar);
+		long jdkHash = hash(jdk.getPath());
+		long now = System.currentTimeMillis();
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+		record.putLong(TIMESTAMP, now - TimeUnit.NANOSECONDS.toMillis(wallNanos));
+		record.putLong(JAR_HASH, jarHash);
+		record.putLong(JDK_HASH, jdkHash);
+		record.putLong(DURATION_MICROS, TimeUnit.NANOSECONDS.toMicros(wallNanos));
+		record.putLong(PEAK_RSS_KILOBYTES, peakRssKilobytes);
+		record.putInt(EXIT_CODE, exitCode);
+		record.putInt(VERSION, jdk.getVersion());
+
+		try {
+			Files.createDirectories(historyDirectory);
+			try (FileChannel lock = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				lock.lock();
+				List<Path> segments = listSegments();
+				Path segment = segments.isEmpty() ? segmentPath(1) : segments.get(segments.size() - 1);
+				if (Files.isRegularFile(segment) && (Files.size(segment) >= (long) SEGMENT_RECORDS * RECORD_BYTES
+						|| firstTimestamp(segment) < now - TimeUnit.DAYS.toMillis(1))) {
+					segment = segmentPath(segmentNumber(segment) + 1);
+					compact(segments);
+				}
+
+				rememberNames(jarHash, jar, jdkHash, jdk.getPath());
+				try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+					// One write of the whole record, so a reader never sees records out of step
+					if (channel.write(record) != RECORD_BYTES) {
+						log.warn("Could not write the whole launch record to {}", segment);
+					}
+				}
+			}
+		} catch (IOException ex) {
+			log.warn("Could not record the launch in {}: {}", historyDirectory, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Prints a summary of the recorded launches to the standard output: how many ran and failed, the duration
+	 * percentiles and histogram, and a line per JAR and JDK.
+	 *
+	 * @param jarFilter only count the JARs whose path contains this text, ignoring case, or {@code null} for all
+	 * @param jdkFilter only count the JDKs whose java path contains this text, ignoring case, or {@code null} for all
+	 * @param days only count the launches of the last days, or 0 for all
+	 * @return {@code 0}, or {@code 1} if the history cannot be read
+	 */
+	public static int printReport(String jarFilter, String jdkFilter, int days) {
+		try {
+			Map<Long, String> names = loadNames();
+			long[] jars = (jarFilter != null) ? matchingHashes(names, JAR, jarFilter) : null;
+			long[] jdks = (jdkFilter != null) ? matchingHashes(names, JDK_KIND, jdkFilter) : null;
+			long now = System.currentTimeMillis();
+			long since = now - TimeUnit.DAYS.toMillis(SettingsManager.getSettings().getHistoryMaxAgeDays());
+			if (days > 0) {
+				since = Math.max(since, now - TimeUnit.DAYS.toMillis(days));
+			}
+
+			Stats total = new Stats(0L, 0L);
+			GroupTable groups = new GroupTable();
+			for (Path segment : listSegments()) {
+				try {
+					scan(segment, jars, jdks, since, total, groups);
+				} catch (NoSuchFileException ex) {
+					// Deleted by a compaction since it was listed
+					log.debug("Launch history segment {} is gone", segment);
+				}
+			}
+
+			System.out.print(formatReport(total, groups, names));
+			System.out.flush();
+			return 0;
+		} catch (IOException ex) {
+			log.error("Could not read the launch history in {}: {}", historyDirectory, ex.getMessage());
+			return 1;
+		}
+	}
+
+	/**
+	 * Returns when the first launch of a segment started, or {@link Long#MAX_VALUE} if it has no complete record.
+	 */
+	private static long firstTimestamp(Path segment) throws IOException {
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			ByteBuffer timestamp = ByteBuffer.allocate(Long.BYTES);
+			return (channel.read(timestamp, TIMESTAMP) == Long.BYTES) ? timestamp.getLong(0) : Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Reads the records of a segment through a memory-mapped buffer and adds those matching the filters.
+	 */
+	private static void scan(Path segment, long[] jars, long[] jdks, long since, Stats total, GroupTable groups) throws IOException {
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			// A record being appended right now is not complete yet
+			long size = channel.size() - channel.size() % RECORD_BYTES;
+			if (size == 0) {
+				return;
+			}
+			MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+			for (int position = 0; position < size; position += RECORD_BYTES) {
+				long timestamp = records.getLong(position + TIMESTAMP);
+				long jarHash = records.getLong(position + JAR_HASH);
+				long jdkHash = records.getLong(position + JDK_HASH);
+				if (timestamp < since || (jars != null && Arrays.binarySearch(jars, jarHash) < 0)
+						|| (jdks != null && Arrays.binarySearch(jdks, jdkHash) < 0)) {
+					continue;
+				}
+				long duration = records.getLong(position + DURATION_MICROS);
+				long peakRss = records.getLong(position + PEAK_RSS_KILOBYTES);
+				int exitCode = records.getInt(position + EXIT_CODE);
+				total.add(timestamp, duration, peakRss, exitCode);
+				groups.get(jarHash, jdkHash, records.getInt(position + VERSION)).add(timestamp, duration, peakRss, exitCode);
+			}
+		}
+	}
+
+	private static String formatReport(Stats total, GroupTable groups, Map<Long, String> names) {
+		StringBuilder report = new StringBuilder();
+		if (total.count == 0) {
+			return report.append(String.format(Locale.ROOT, "No launches recorded in %s%n", historyDirectory)).toString();
+		}
+
+		SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.ROOT);
+		report.append(String.format(Locale.ROOT, "%d launch(es) from %s to %s, %d failed (%.1f%%)%n", total.count,
+				date.format(new Date(total.first)), date.format(new Date(total.last)), total.failed, 100.0 * total.failed / total.count));
+		report.append(String.format(Locale.ROOT, "Duration: p50 %s, p95 %s, p99 %s, max %s%n", formatMicros(total.percentile(50)),
+				formatMicros(total.percentile(95)), formatMicros(total.percentile(99)), formatMicros(total.maxDuration)));
+		if (total.rssCount > 0) {
+			report.append(String.format(Locale.ROOT, "Peak RSS: average %s, max %s%n",
+					formatKilobytes(total.rssSum / total.rssCount), formatKilobytes(total.maxRss)));
+		}
+
+		// One line per power of two between the shortest and the longest launch
+		report.append(String.format(Locale.ROOT, "%n"));
+		long[] powers = total.countsPerPowerOfTwo();
+		long highest = 0;
+		int firstPower = -1;
+		int lastPower = -1;
+		for (int i = 0; i < powers.length; i++) {
+			if (powers[i] > 0) {
+				firstPower = (firstPower < 0) ? i : firstPower;
+				lastPower = i;
+				highest = Math.max(highest, powers[i]);
+			}
+		}
+		for (int i = firstPower; i <= lastPower; i++) {
+			long low = (i == 0) ? 0L : 1L << i;
+			String range = formatMicros(low) + " - " + formatMicros((1L << (i + 1)) - 1);
+			int bar = (int) Math.round(40.0 * powers[i] / highest);
+			report.append(String.format(Locale.ROOT, "  %25s | %-40s %d%n", range, repeat('#', bar), powers[i]));
+		}
+
+		report.append(String.format(Locale.ROOT, "%n%8s %7s %10s %10s %10s %10s %10s  %s%n", "Launches", "Failed", "p50", "p95", "p99", "Max", "Peak RSS", "JAR / JDK"));
+		List<Stats> sorted = groups.all();
+		sorted.sort((a, b) -> Long.compare(b.count, a.count));
+		for (Stats group : sorted.subList(0, Math.min(TOP_GROUPS, sorted.size()))) {
+			report.append(String.format(Locale.ROOT, "%8d %7d %10s %10s %10s %10s %10s  %s%n", group.count, group.failed,
+					formatMicros(group.percentile(50)), formatMicros(group.percentile(95)), formatMicros(group.percentile(99)),
+					formatMicros(group.maxDuration), (group.rssCount > 0) ? formatKilobytes(group.maxRss) : "-",
+					nameOf(names, group.jarHash)));
+			report.append(String.format(Locale.ROOT, "%71s  %s (%d)%n", "", nameOf(names, group.jdkHash), group.version));
+		}
+		if (sorted.size() > TOP_GROUPS) {
+			report.append(String.format(Locale.ROOT, "... and %d more JAR and JDK pairs%n", sorted.size() - TOP_GROUPS));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Deletes the segments older than {@code historyMaxAgeDays}, then the oldest ones beyond
+	 * {@code historyMaxMegabytes}, and the names no remaining segment uses. The caller must hold {@code history.lock}
+	 * and have listed the segments while holding it.
+	 */
+	private static void compact(List<Path> segments) {
+		try {
+			Settings settings = SettingsManager.getSettings();
+			long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(settings.getHistoryMaxAgeDays());
+			long maxBytes = settings.getHistoryMaxMegabytes() * 1024L * 1024L;
+
+			List<Path> kept = new ArrayList<>();
+			long totalBytes = 0;
+			for (Path segment : segments) {
+				if (Files.getLastModifiedTime(segment).toMillis() < oldest) {
+					log.debug("Deleting launch history segment {}, older than {} days", segment, settings.getHistoryMaxAgeDays());
+					Files.deleteIfExists(segment);
+				} else {
+					kept.add(segment);
+					totalBytes += Files.size(segment);
+				}
+			}
+			while (totalBytes > maxBytes && !kept.isEmpty()) {
+				Path segment = kept.remove(0);
+				totalBytes -= Files.size(segment);
+				log.debug("Deleting launch history segment {}, the history is over {} MB", segment, settings.getHistoryMaxMegabytes());
+				Files.deleteIfExists(segment);
+			}
+
+			compactNames(listSegments());
+		} catch (IOException ex) {
+			log.debug("Could not compact the launch history: {}", ex.getMessage());
+		}
+	}
+
+	/**
+	 * Rewrites {@code names.tsv} with only the names the given segments refer to. The caller must hold
+	 * {@code history.lock}, so no segment or name is added in the meantime.
+	 */
+	private static void compactNames(List<Path> segments) throws IOException {
+		GroupTable used = new GroupTable();
+		for (Path segment : segments) {
+			scan(segment, null, null, Long.MIN_VALUE, new Stats(0L, 0L), used);
+		}
+		long[] hashes = new long[used.size * 2];
+		int count = 0;
+		for (Stats group : used.all()) {
+			hashes[count++] = group.jarHash;
+			hashes[count++] = group.jdkHash;
+		}
+		Arrays.sort(hashes);
+
+		StringBuilder content = new StringBuilder();
+		for (String line : readNameLines()) {
+			String[] fields = line.split("\t", 3);
+			if (fields.length == 3 && Arrays.binarySearch(hashes, parseHash(fields[0])) >= 0) {
+				content.append(line).append('\n');
+			}
+		}
+		Path temporary = SettingsManager.temporaryFileFor(namesPath);
+		try {
+			Files.write(temporary, content.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+			SettingsManager.moveAtomically(temporary, namesPath);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Appends the paths of the JAR and the JDK to {@code names.tsv} unless they are there already. The caller must
+	 * hold {@code history.lock}, so a compaction of the names cannot drop them.
+	 */
+	private static void rememberNames(long jarHash, String jar, long jdkHash, String java) throws IOException {
+		Map<Long, String> names = loadNames();
+		StringBuilder missing = new StringBuilder();
+		if (!names.containsKey(jarHash) && isStorable(jar)) {
+			missing.append(Long.toHexString(jarHash)).append('\t').append(JAR).append('\t').append(jar).append('\n');
+		}
+		if (!names.containsKey(jdkHash) && isStorable(java)) {
+			missing.append(Long.toHexString(jdkHash)).append('\t').append(JDK_KIND).append('\t').append(java).append('\n');
+		}
+		if (missing.length() > 0) {
+			Files.write(namesPath, missing.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+	}
+
+	/**
+	 * Loads the names, keyed by hash, with the kind in front of the path, e.g. {@code jar\t/opt/app.jar}.
+	 */
+	private static Map<Long, String> loadNames() throws IOException {
+		Map<Long, String> names = new HashMap<>();
+		for (String line : readNameLines()) {
+			String[] fields = line.split("\t", 3);
+			if (fields.length == 3) {
+				names.put(parseHash(fields[0]), fields[1] + '\t' + fields[2]);
+			}
+		}
+		return names;
+	}
+
+	private static List<String> readNameLines() throws IOException {
+		return Files.isRegularFile(namesPath) ? Files.readAllLines(namesPath, StandardCharsets.UTF_8) : new ArrayList<>();
+	}
+
+	private static long[] matchingHashes(Map<Long, String> names, String kind, String filter) {
+		String wanted = filter.toLowerCase(Locale.ROOT);
+		long[] hashes = new long[names.size()];
+		int count = 0;
+		for (Map.Entry<Long, String> name : names.entrySet()) {
+			String value = name.getValue();
+			if (value.startsWith(kind + '\t') && value.substring(kind.length() + 1).toLowerCase(Locale.ROOT).contains(wanted)) {
+				hashes[count++] = name.getKey();
+			}
+		}
+		long[] matching = Arrays.copyOf(hashes, count);
+		Arrays.sort(matching);
+		return matching;
+	}
+
+	private static String nameOf(Map<Long, String> names, long hash) {
+		String name = names.get(hash);
+		return (name != null) ? name.substring(name.indexOf('\t') + 1) : "(unknown " + Long.toHexString(hash) + ")";
+	}
+
+	private static List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		if (!Files.isDirectory(historyDirectory)) {
+			return segments;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(historyDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				if (segmentNumber(file) > 0) {
+					segments.add(file);
+				}
+			}
+		}
+		segments.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+		return segments;
+	}
+
+	private static Path segmentPath(long number) {
+		return historyDirectory.resolve(String.format(Locale.ROOT, "%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private static long segmentNumber(Path segment) {
+		String name = segment.getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException | IndexOutOfBoundsException ex) {
+			return -1L;
+		}
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of a path.
+	 */
+	static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static long parseHash(String hex) {
+		try {
+			return Long.parseUnsignedLong(hex, 16);
+		} catch (NumberFormatException ex) {
+			return 0L;
+		}
+	}
+
+	private static boolean isStorable(String path) {
+		return path.indexOf('\t') < 0 && path.indexOf('\n') < 0;
+	}
+
+	private static String formatMicros(long micros) {
+		if (micros >= 60_000_000L) {
+			return String.format(Locale.ROOT, "%.1f min", micros / 60_000_000.0);
+		} else if (micros >= 1_000_000L) {
+			return String.format(Locale.ROOT, "%.2f s", micros / 1_000_000.0);
+		}
+		return String.format(Locale.ROOT, "%.1f ms", micros / 1000.0);
+	}
+
+	private static String formatKilobytes(long kilobytes) {
+		if (kilobytes >= 1024L * 1024) {
+			return String.format(Locale.ROOT, "%.1f GB", kilobytes / (1024.0 * 1024));
+		}
+		return String.format(Locale.ROOT, "%.1f MB", kilobytes / 1024.0);
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	/**
+	 * Aggregates of a set of launches, with their durations in a log-linear histogram: {@value #SUB_BUCKETS} buckets
+	 * per power of two of microseconds.
+	 */
+	private static final class Stats {
+
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final long jarHash;
+		private final long jdkHash;
+		private final long[] buckets = new long[64 * SUB_BUCKETS];
+		private int version = 0;
+		private long count = 0L;
+		private long failed = 0L;
+		private long maxDuration = 0L;
+		private long rssSum = 0L;
+		private long rssCount = 0L;
+		private long maxRss = 0L;
+		private long first = Long.MAX_VALUE;
+		private long last = Long.MIN_VALUE;
+
+		private Stats(long jarHash, long jdkHash) {
+			this.jarHash = jarHash;
+			this.jdkHash = jdkHash;
+		}
+
+		private void add(long timestamp, long durationMicros, long peakRssKilobytes, int exitCode) {
+			long duration = Math.max(0L, durationMicros);
+			buckets[bucketOf(duration)]++;
+			count++;
+			if (exitCode != 0) {
+				failed++;
+			}
+			maxDuration = Math.max(maxDuration, duration);
+			if (peakRssKilobytes > 0) {
+				rssSum += peakRssKilobytes;
+				rssCount++;
+				maxRss = Math.max(maxRss, peakRssKilobytes);
+			}
+			first = Math.min(first, timestamp);
+			last = Math.max(last, timestamp);
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the given percentile, at most the longest duration.
+		 */
+		private long percentile(int percent) {
+			long rank = (long) Math.ceil(percent / 100.0 * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank && buckets[i] > 0) {
+					return Math.min(maxDuration, upperBoundOf(i));
+				}
+			}
+			return maxDuration;
+		}
+
+		private long[] countsPerPowerOfTwo() {
+			long[] powers = new long[64];
+			for (int i = 0; i < buckets.length; i++) {
+				if (buckets[i] > 0) {
+					powers[63 - Long.numberOfLeadingZeros(Math.max(1L, lowerBoundOf(i)))] += buckets[i];
+				}
+			}
+			return powers;
+		}
+
+		private static int bucketOf(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		private static long lowerBoundOf(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			long sub = bucket % SUB_BUCKETS;
+			return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+		}
+
+		private static long upperBoundOf(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			return lowerBoundOf(bucket) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+
+	}
+
+	/**
+	 * The {@link Stats} of each JAR and JDK pair, in an open-addressing table keyed by the two hashes, so counting a
+	 * record allocates nothing once its pair is known.
+	 */
+	private static final class GroupTable {
+
+		private Stats[] slots = new Stats[64];
+		private int size = 0;
+
+		private Stats get(long jarHash, long jdkHash, int version) {
+			int mask = slots.length - 1;
+			int slot = (int) mix(jarHash, jdkHash) & mask;
+			while (slots[slot] != null) {
+				Stats stats = slots[slot];
+				if (stats.jarHash == jarHash && stats.jdkHash == jdkHash) {
+					return stats;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			Stats stats = new Stats(jarHash, jdkHash);
+			stats.version = version;
+			slots[slot] = stats;
+			if (++size * 2 > slots.length) {
+				grow();
+			}
+			return stats;
+		}
+
+		private void grow() {
+			Stats[] old = slots;
+			slots = new Stats[old.length * 2];
+			int mask = slots.length - 1;
+			for (Stats stats : old) {
+				if (stats != null) {
+					int slot = (int) mix(stats.jarHash, stats.jdkHash) & mask;
+					while (slots[slot] != null) {
+						slot = (slot + 1) & mask;
+					}
+					slots[slot] = stats;
+				}
+			}
+		}
+
+		private List<Stats> all() {
+			List<Stats> all = new ArrayList<>(size);
+			for (Stats stats : slots) {
+				if (stats != null) {
+					all.add(stats);
+				}
+			}
+			return all;
+		}
+
+		private static long mix(long jarHash, long jdkHash) {
+			long mixed = jarHash * 31 + jdkHash;
+			return mixed ^ (mixed >>> 32);
+		}
+
+	}
+
+}
@@ -0,0 +1,358 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sizes each JVM launched by MultiJDK for its share of the container or host, instead of the whole of it.
+ * <p>
+ * With {@code "launchProfile": true} in the settings, every launch on Linux reads the CPU and memory limits of the
+ * cgroup MultiJDK runs in, v1 or v2, the NUMA nodes and the transparent huge page mode, and counts the JVMs launched
+ * by MultiJDK that are still running, which carry the {@value #MARKER} system property. The CPU budget
+ * ({@code launchProfileCpuPercent} of the CPU limit) and the heap budget ({@code launchProfileMemoryPercent} of the
+ * memory limit) are split evenly between them and the new JVM, or between the JVMs a {@code matrix} runs at once if
+ * there are more, with {@code -XX:ActiveProcessorCount} and {@code -XX:MaxRAMPercentage}. JDKs that predate those options, before 8u191 and 9, get {@code -Xmx} instead and no
+ * CPU limit. {@code -XX:+UseNUMA} is added on machines with several NUMA nodes, and
+ * {@code -XX:+UseTransparentHugePages} when huge pages are in {@code madvise} mode and the heap share is large
+ * enough to benefit from them.
+ * </p>
+ *
+ * <p>
+ * The injected flags are logged on every launch, and any of them is left out when the user passes an option that
+ * controls the same thing. The heap share is also handed to {@link JVMErgonomics}, which caps the heap it learned at
+ * that share, so a learned {@code -Xmx} never overrides the split.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     LaunchProfile.Profile profile = LaunchProfile.getProfile(jdk, arguments);
+ *     List&lt;String&gt; jvmArgs = profile.getFlags();
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class LaunchProfile {
+
+	static final String MARKER = "multijdk.launchProfile";
+
+	private static final Path cgroupRoot = Paths.get("/sys/fs/cgroup");
+	private static final long UNLIMITED = Long.MAX_VALUE;
+	private static final long HUGE_PAGE_HEAP_BYTES = 1024L * 1024 * 1024;
+	private static final String[] CPU_OPTIONS = { "-XX:ActiveProcessorCount" };
+	private static final String[] MEMORY_OPTIONS = { "-Xmx", "-XX:MaxHeapSize", "-XX:MaxRAM", "-XX:MaxRAMPercentage", "-XX:MaxRAMFraction" };
+	private static final String[] NUMA_OPTIONS = { "-XX:+UseNUMA", "-XX:-UseNUMA" };
+	private static final String[] LARGE_PAGE_OPTIONS = { "-XX:+UseLargePages", "-XX:-UseLargePages", "-XX:+UseTransparentHugePages", "-XX:-UseTransparentHugePages" };
+
+	/**
+	 * Returns the JVM arguments that size the JVM for its share of the container or host, and that heap share.
+	 *
+	 * @param jdk the JDK that will run the JAR
+	 * @param arguments the arguments of the launch
+	 * @return the profile, without flags if the launch profile is disabled or not supported here
+	 */
+	public static Profile getProfile(JDK jdk, Arguments arguments) {
+		Settings settings = SettingsManager.getSettings();
+		if (!settings.isLaunchProfile() || !Platform.IS_LINUX) {
+			return new Profile(Collections.emptyList(), 0L);
+		}
+
+		HostLimits limits = HostLimits.read();
+		// A matrix builds the commands of its first JVMs before any of them runs, so none would see the others
+		int children = Math.max(countRunningChildren() + 1, arguments.getParallelism());
+		List<String> userArgs = arguments.getJvmArgs();
+		List<String> flags = new ArrayList<>();
+		flags.add("-D" + MARKER + "=true");
+
+		boolean containerOptions = jdk.getVersion() >= 10 || (jdk.getVersion() == 8 && jdk.getUpdate() >= 191);
+		double memoryPercent = settings.getLaunchProfileMemoryPercent() / (double) children;
+		long heapBytes = (long) (limits.memoryBytes * memoryPercent / 100);
+
+		boolean userHeap = hasOption(userArgs, MEMORY_OPTIONS);
+		if (!userHeap) {
+			if (containerOptions) {
+				flags.add(String.format(Locale.ROOT, "-XX:MaxRAMPercentage=%.1f", memoryPercent));
+			} else {
+				flags.add("-Xmx" + Math.max(16, heapBytes / (1024 * 1024)) + "m");
+			}
+		}
+
+		if (containerOptions && !hasOption(userArgs, CPU_OPTIONS)) {
+			int cpus = (int) Math.max(1, Math.floor(limits.cpus * settings.getLaunchProfileCpuPercent() / 100.0 / children));
+			flags.add("-XX:ActiveProcessorCount=" + cpus);
+		}
+
+		if (limits.numaNodes > 1 && !hasOption(userArgs, NUMA_OPTIONS)) {
+			flags.add("-XX:+UseNUMA");
+		}
+
+		if ("madvise".equals(limits.transparentHugePages) && !userHeap && heapBytes >= HUGE_PAGE_HEAP_BYTES
+				&& !hasOption(userArgs, LARGE_PAGE_OPTIONS)) {
+			flags.add("-XX:+UseTransparentHugePages");
+		}
+
+		log.info("Launch profile for {} running JVM(s), {}: {}", children, limits, String.join(" ", flags.subList(1, flags.size())));
+		return new Profile(flags, userHeap ? 0L : heapBytes);
+	}
+
+	private static boolean hasOption(List<String> userArgs, String[] options) {
+		for (String arg : userArgs) {
+			for (String option : options) {
+				if (arg.startsWith(option)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the running JVMs launched with a launch profile, by looking for the marker in the command line of
+	 * every process. Only processes in the same PID namespace are visible, which is what a container shares.
+	 */
+	static int countRunningChildren() {
+		byte[] marker = ("-D" + MARKER + "=").getBytes(StandardCharsets.US_ASCII);
+		int count = 0;
+		try (DirectoryStream<Path> processes = Files.newDirectoryStream(Paths.get("/proc"))) {
+			for (Path process : processes) {
+				String name = process.getFileName().toString();
+				if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+					continue;
+				}
+				try {
+					if (contains(Files.readAllBytes(process.resolve("cmdline")), marker)) {
+						count++;
+					}
+				} catch (IOException ex) {
+					// The process exited, or belongs to another user
+				}
+			}
+		} catch (IOException ex) {
+			log.debug("Could not list processes: {}", ex.getMessage());
+		}
+		return count;
+	}
+
+	private static boolean contains(byte[] data, byte[] pattern) {
+		outer:
+		for (int i = 0; i <= data.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The flags of a launch profile, and the heap share they give the JVM.
+	 */
+	static final class Profile {
+
+		private final List<String> flags;
+		private final long heapBytes;
+
+		Profile(List<String> flags, long heapBytes) {
+			this.flags = flags;
+			this.heapBytes = heapBytes;
+		}
+
+		/**
+		 * Returns the JVM arguments to add.
+		 *
+		 * @return the flags, empty if the launch profile is disabled
+		 */
+		List<String> getFlags() {
+			return flags;
+		}
+
+		/**
+		 * Returns the heap share of the JVM.
+		 *
+		 * @return the share in bytes, or 0 if the profile leaves the heap alone, e.g. because the user sized it
+		 */
+		long getHeapBytes() {
+			return heapBytes;
+		}
+
+	}
+
+	/**
+	 * CPU and memory limits of the cgroup MultiJDK runs in, or of the host when there are none, and the NUMA and
+	 * transparent huge page layout of the host.
+	 */
+	static final class HostLimits {
+
+		double cpus;
+		long memoryBytes;
+		String cgroup = "none";
+		int numaNodes = 1;
+		String transparentHugePages = "unknown";
+
+		/**
+		 * Reads the limits from {@code /sys} and {@code /proc}. The limits of the parent cgroups apply too, so
+		 * the smallest limit from the cgroup of this process up to the root is used.
+		 *
+		 * @return the limits
+		 */
+		static HostLimits read() {
+			HostLimits limits = new HostLimits();
+			limits.cpus = Runtime.getRuntime().availableProcessors();
+			limits.memoryBytes = readHostMemory();
+
+			long cpuQuota = UNLIMITED;
+			long cpuPeriod = 100_000L;
+			long memory = UNLIMITED;
+			if (Files.isRegularFile(cgroupRoot.resolve("cgroup.controllers"))) {
+				limits.cgroup = "v2";
+				for (Path dir : hierarchy(cgroupRoot, readCgroupPath(""))) {
+					String[] cpuMax = readFirstLine(dir.resolve("cpu.max")).split(" ");
+					if (cpuMax.length == 2 && !cpuMax[0].equals("max") && parseLong(cpuMax[0]) < cpuQuota) {
+						cpuQuota = parseLong(cpuMax[0]);
+						cpuPeriod = parseLong(cpuMax[1]);
+					}
+					memory = Math.min(memory, parseLong(readFirstLine(dir.resolve("memory.max"))));
+				}
+			} else if (Files.isDirectory(cgroupRoot.resolve("memory")) || Files.isDirectory(cgroupRoot.resolve("cpu"))) {
+				limits.cgroup = "v1";
+				for (Path dir : hierarchy(cgroupRoot.resolve("cpu"), readCgroupPath("cpu"))) {
+					long quota = parseLong(readFirstLine(dir.resolve("cpu.cfs_quota_us")));
+					if (quota > 0 && quota < cpuQuota) {
+						cpuQuota = quota;
+						cpuPeriod = parseLong(readFirstLine(dir.resolve("cpu.cfs_period_us")));
+					}
+				}
+				for (Path dir : hierarchy(cgroupRoot.resolve("memory"), readCgroupPath("memory"))) {
+					memory = Math.min(memory, parseLong(readFirstLine(dir.resolve("memory.limit_in_bytes"))));
+				}
+			}
+
+			if (cpuQuota != UNLIMITED && cpuPeriod > 0) {
+				limits.cpus = Math.min(limits.cpus, cpuQuota / (double) cpuPeriod);
+			}
+			// cgroup v1 reports "no limit" as a huge page-aligned number
+			if (memory > 0 && memory < limits.memoryBytes) {
+				limits.memoryBytes = memory;
+			}
+
+			limits.numaNodes = countNumaNodes();
+			limits.transparentHugePages = readTransparentHugePages();
+			return limits;
+		}
+
+		/**
+		 * Returns the cgroup directories from the one of this process up to the mount point. In a container the
+		 * mount point usually is the cgroup itself, and the path from {@code /proc/self/cgroup} does not exist.
+		 */
+		private static List<Path> hierarchy(Path mount, String path) {
+			List<Path> dirs = new ArrayList<>();
+			Path dir = mount.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+			while (dir != null && dir.startsWith(mount)) {
+				if (Files.isDirectory(dir)) {
+					dirs.add(dir);
+				}
+				dir = dir.getParent();
+			}
+			return dirs;
+		}
+
+		/**
+		 * Returns the cgroup path of this process for a v1 controller, or for the v2 hierarchy when
+		 * {@code controller} is empty.
+		 */
+		private static String readCgroupPath(String controller) {
+			try {
+				for (String line : Files.readAllLines(Paths.get("/proc/self/cgroup"))) {
+					String[] fields = line.split(":", 3);
+					if (fields.length < 3) {
+						continue;
+					}
+					if (controller.isEmpty() ? fields[0].equals("0") : Arrays.asList(fields[1].split(",")).contains(controller)) {
+						return fields[2];
+					}
+				}
+			} catch (IOException ex) {
+				log.debug("Could not read the cgroup of this process: {}", ex.getMessage());
+			}
+			return "/";
+		}
+
+		private static long readHostMemory() {
+			try {
+				for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+					if (line.startsWith("MemTotal:")) {
+						return parseLong(line.substring("MemTotal:".length()).replace("kB", "").trim()) * 1024;
+					}
+				}
+			} catch (IOException ex) {
+				log.debug("Could not read the host memory: {}", ex.getMessage());
+			}
+			return Runtime.getRuntime().maxMemory() * 4;
+		}
+
+		private static int countNumaNodes() {
+			int nodes = 0;
+			try (DirectoryStream<Path> dirs = Files.newDirectoryStream(Paths.get("/sys/devices/system/node"), "node[0-9]*")) {
+				for (Path ignored : dirs) {
+					nodes++;
+				}
+			} catch (IOException ex) {
+				log.debug("Could not read the NUMA nodes: {}", ex.getMessage());
+			}
+			return Math.max(1, nodes);
+		}
+
+		/**
+		 * Returns the selected transparent huge page mode, e.g. {@code madvise} for {@code always [madvise] never}.
+		 */
+		private static String readTransparentHugePages() {
+			String modes = readFirstLine(Paths.get("/sys/kernel/mm/transparent_hugepage/enabled"));
+			int start = modes.indexOf('[');
+			int end = modes.indexOf(']');
+			return (start >= 0 && end > start) ? modes.substring(start + 1, end) : "unknown";
+		}
+
+		private static String readFirstLine(Path file) {
+			try {
+				List<String> lines = Files.readAllLines(file);
+				return lines.isEmpty() ? "" : lines.get(0).trim();
+			} catch (IOException ex) {
+				return "";
+			}
+		}
+
+		private static long parseLong(String value) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException ex) {
+				return UNLIMITED;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "cgroup %s, %.1f CPUs, %d MB, %d NUMA node(s), transparent huge pages %s",
+					cgroup, cpus, memoryBytes / (1024 * 1024), numaNodes, transparentHugePages);
+		}
+
+	}
+
+}
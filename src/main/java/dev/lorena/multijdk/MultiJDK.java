@@ -1,11 +1,15 @@
 package dev.lorena.multijdk;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import org.apache.commons.lang3.SystemUtils;
-
-import com.formdev.flatlaf.FlatLightLaf;
+import java.util.Optional;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -15,64 +19,289 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class MultiJDK {
-	
+
+	/**
+	 * JVM arguments for MultiJDK itself: it runs for a fraction of a second, so compiling beyond C1 and a
+	 * concurrent collector only compete with it for the CPU.
+	 */
+	static final List<String> LAUNCHER_JVM_ARGS = Arrays.asList("-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC");
+
 	@SneakyThrows
 	public static void main(String[] args) {
-		
-		JDKFinder finder = null;
-		
-		if (SystemUtils.IS_OS_WINDOWS) {
-			finder = new JDKFinder("windows");
-		} else if (SystemUtils.IS_OS_LINUX) {
-			finder = new JDKFinder("linux");
-		} else if (SystemUtils.IS_OS_MAC) {
-			log.error("MacOS is not supported yet.");
+
+		if (args.length > 0 && args[0].equals("daemon")) {
+			runDaemon(args);
+			return;
+		}
+
+		if (args.length > 0 && args[0].equals("matrix")) {
+			runMatrix(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
+		if (args.length > 0 && args[0].equals("history")) {
+			Arguments arguments = ArgumentsHandler.getHistoryArguments(Arrays.copyOfRange(args, 1, args.length));
+			System.exit(LaunchHistory.printReport(arguments.getJarPath(), arguments.getJdkFilter(), arguments.getDays()));
 		}
-		
-		List<JDK> jdks = finder.findJDKs();
+
+		long start = Timings.start();
+		JDKFinder finder = createFinder();
+
 		Arguments arguments = ArgumentsHandler.getArguments(args);
-			
+		Timings.record("arguments", start);
+
+		if (arguments.getTimings() != null) {
+			Timings.enable(arguments.getTimings());
+		}
+
 		log.debug("Found arguments: {}", arguments);
-		
-		int jdkCount = (int) jdks.stream().filter(jdk -> jdk.getVersion() == arguments.getVersion()).count();
-		
-		runMultiJDK(jdkCount, jdks);
+
+		start = Timings.start();
+		List<JDK> jdks = finder.findJDKs(arguments.isRescan());
+		Timings.record("findJDKs", start);
+
+		runMultiJDK(jdks, args);
 	}
-	
-	private static void runMultiJDK(int jdkCount, List<JDK> jdks) {
+
+	/**
+	 * Creates a {@link JDKFinder} for the current operating system.
+	 *
+	 * @return the finder, or {@code null} if the operating system is not supported
+	 */
+	static JDKFinder createFinder() {
+		if (Platform.IS_WINDOWS) {
+			return new JDKFinder("windows");
+		} else if (Platform.IS_LINUX) {
+			return new JDKFinder("linux");
+		} else if (Platform.IS_MAC) {
+			log.error("MacOS is not supported yet.");
+		}
+		return null;
+	}
+
+	private static void runDaemon(String[] args) {
+		if (!Platform.isJavaVersionAtLeast(16)) {
+			log.error("The MultiJDK daemon requires Java 16 or later, but is running on {}", System.getProperty("java.version"));
+			System.exit(1);
+		}
+
+		if (args.length > 1 && args[1].equals("stop")) {
+			System.exit(MultiJDKDaemon.stop() ? 0 : 1);
+		}
+
+		new MultiJDKDaemon(createFinder()).serve();
+	}
+
+	private static void runMatrix(String[] args) {
+		JDKFinder finder = createFinder();
+		Arguments arguments = ArgumentsHandler.getMatrixArguments(args);
+		List<JDK> jdks = finder.findJDKs(arguments.isRescan());
+		System.exit(new JDKMatrix(new JDKRunner()).run(jdks, arguments));
+	}
+
+	private static void runMultiJDK(List<JDK> jdks, String[] args) throws IOException {
 		JDKRunner runner = new JDKRunner();
 		Arguments arguments = ArgumentsHandler.getParsedArguments().orElseThrow(null);
-		JDK jdkToRun = null;
-		
-		switch (jdkCount) {
+
+		long start = Timings.start();
+		Optional<JDK> jdkToRun = (arguments.getJavaPath() != null)
+				? Optional.of(new JDK(arguments.getVersion(), arguments.getJavaPath(), null))
+				: selectJDK(new JDKResolver(jdks), arguments, true);
+		Timings.record("selectJDK", start);
+		Timings.describe(arguments, jdkToRun.orElse(null));
+
+		if (!jdkToRun.isPresent()) {
+			System.exit(1);
+		}
+
+		if (arguments.isResolve()) {
+			printCommand(buildResolvedCommand(jdkToRun.get(), arguments, args));
+			System.exit(0);
+		}
+
+		runner.runJDK(jdkToRun.get(), arguments);
+	}
+
+	/**
+	 * Builds the command a launcher script should run for {@code --resolve}.
+	 * <p>
+	 * Usually this is the command that runs the JAR with the selected JDK. When the arguments need supervision,
+	 * e.g. {@code --tee} or {@code --timings}, it is instead a command that runs MultiJDK again with the same arguments, without
+	 * {@code --resolve} and pinned to the selected JDK with {@code --java}, so MultiJDK stays in between.
+	 * </p>
+	 *
+	 * @param jdk the selected JDK
+	 * @param arguments the parsed arguments
+	 * @param args the raw command-line arguments they were parsed from
+	 * @return the command line, one element per argument
+	 */
+	static List<String> buildResolvedCommand(JDK jdk, Arguments arguments, String[] args) {
+		if (!arguments.isSupervised()) {
+			return new JDKRunner().buildCommand(jdk, arguments);
+		}
+
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(LAUNCHER_JVM_ARGS);
+		command.add("-cp");
+		command.add(getLauncherPath());
+		command.add(MultiJDK.class.getName());
+		command.add("--java=" + jdk.getPath());
+		if (arguments.isAutoVersion() || arguments.getVersionSpec() != null) {
+			// The first version given wins, so the relaunch skips the resolution
+			command.add("--version=" + jdk.getVersion());
+		}
+		Arrays.stream(args)
+				.filter(arg -> !arg.equals("--resolve"))
+				.forEach(command::add);
+		return command;
+	}
+
+	static String getLauncherPath() {
+		try {
+			return new File(MultiJDK.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		} catch (URISyntaxException ex) {
+			throw new IllegalStateException("Could not determine the MultiJDK JAR location", ex);
+		}
+	}
+
+	/**
+	 * Prints a command line to the standard output as NUL-terminated fields, so a launcher script can run it
+	 * without any shell quoting, e.g. with {@code exec}.
+	 *
+	 * @param command the command line to print
+	 */
+	private static void printCommand(List<String> command) throws IOException {
+		Charset charset = Charset.forName(System.getProperty("sun.jnu.encoding", Charset.defaultCharset().name()));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (String field : command) {
+			output.write(field.getBytes(charset));
+			output.write(0);
+		}
+		output.writeTo(System.out);
+		System.out.flush();
+	}
+
+	/**
+	 * Sets the version of {@code -v auto} to the lowest installed version that runs the class files of the JAR.
+	 *
+	 * @param resolver the index of the discovered JDKs
+	 * @param arguments the parsed arguments
+	 * @return {@code false} if the version the JAR needs cannot be found out, or no installed JDK is recent enough
+	 */
+	static boolean resolveAutoVersion(JDKResolver resolver, Arguments arguments) {
+		int required = BytecodeVersionDetector.getRequiredVersion(arguments.getJarPath());
+		if (required < 0) {
+			log.error("Cannot find out which Java version {} needs, please give one instead of {}", arguments.getJarPath(), ArgumentsHandler.AUTO_VERSION);
+			return false;
+		}
+
+		int lowest = resolver.getLowestVersionFrom(required);
+		if (lowest < 0) {
+			log.error("{} needs Java {} or later, but no such JDK was found", arguments.getJarPath(), required);
+			return false;
+		}
+
+		log.info("{} needs Java {}, using version {}", arguments.getJarPath(), required, lowest);
+		arguments.setVersion(lowest);
+		return true;
+	}
+
+	/**
+	 * Selects the JDK to run the given arguments with.
+	 * <p>
+	 * A single match is used as is. When several JDKs match the requested version, the JDK remembered for the JAR
+	 * is used first, see {@link JarIdentity}, then the newest release if it is unique, and finally the user is asked, unless {@code interactive}
+	 * is {@code false}. Only the last case loads the chooser, see {@link #chooseJDK(List, Arguments)}.
+	 * </p>
+	 *
+	 * <p>
+	 * A version spec such as {@code 17+} or {@code 21:temurin} is resolved by the {@link JDKResolver} instead,
+	 * which never asks.
+	 * </p>
+	 *
+	 * @param resolver the index of the discovered JDKs
+	 * @param arguments the parsed arguments
+	 * @param interactive whether the chooser dialog may be shown
+	 * @return the selected JDK, or an empty {@link Optional} if there is none or it cannot be chosen without asking
+	 */
+	static Optional<JDK> selectJDK(JDKResolver resolver, Arguments arguments, boolean interactive) {
+		if (arguments.isAutoVersion() && !resolveAutoVersion(resolver, arguments)) {
+			return Optional.empty();
+		}
+
+		if (arguments.getVersionSpec() != null) {
+			Optional<JDK> resolved = resolver.resolve(arguments.getVersionSpec());
+			if (resolved.isPresent()) {
+				log.info("Using {} from {} for {}", resolved.get().getFullVersion(), resolved.get().getPath(), arguments.getVersionSpec());
+				arguments.setVersion(resolved.get().getVersion());
+			} else {
+				log.error("No JDK found for version: {}", arguments.getVersionSpec());
+			}
+			return resolved;
+		}
+
+		List<JDK> selectedVersionJDKs = resolver.getJDKs(arguments.getVersion());
+
+		switch (selectedVersionJDKs.size()) {
 			case 0:
 				log.error("No JDK found for version: {}", arguments.getVersion());
-				System.exit(1);
-				break;
+				return Optional.empty();
 			case 1:
-				jdkToRun = jdks.stream().filter(j -> j.getVersion() == arguments.getVersion())
-								.collect(Collectors.toList())
-								.get(0);
-				runner.runJDK(jdkToRun, arguments);
-				break;
+				return Optional.of(selectedVersionJDKs.get(0));
 			default:
 				log.info("Multiple JDKs found for version: {}", arguments.getVersion());
-				if (ArgumentsHandler.getParsedArguments().isPresent()) {
-					Settings settings = SettingsManager.getSettings();
-					
-					 if (settings.getPreferredJDKPerFile().containsKey(arguments.getJarPath())) {
-						 jdkToRun = new JDK(arguments.getVersion(), settings.getPreferredJDKPerFile().get(arguments.getJarPath()), null);
-						 runner.runJDK(jdkToRun, arguments);
-					 } else {
-						List<JDK> selectedVersionJDKs = jdks.stream().filter(jdk -> jdk.getVersion() == arguments.getVersion()).collect(Collectors.toList());
-						FlatLightLaf.setup();
-						JDKVersionChooser chooser = new JDKVersionChooser(selectedVersionJDKs);
-						JDK selectedJDK = chooser.getChoosenJDK();
-						runner.runJDK(selectedJDK, arguments);
-					 }
+				Settings settings = SettingsManager.getSettings();
+
+				String preferredPath = JarIdentity.findPreferredJDK(settings.getPreferredJDKPerFile(), arguments.getJarPath());
+				if (preferredPath != null) {
+					Optional<JDK> preferred = selectedVersionJDKs.stream()
+							.filter(jdk -> jdk.getPath().equals(preferredPath))
+							.findFirst();
+					if (preferred.isPresent()) {
+						return preferred;
+					}
+					log.info("Remembered JDK {} is not a Java {} JDK, choosing again", preferredPath, arguments.getVersion());
 				}
-				break;
+
+				if (settings.isAutoSelectNewestPatch() && selectedVersionJDKs.get(0).compareReleaseTo(selectedVersionJDKs.get(1)) > 0) {
+					JDK newest = selectedVersionJDKs.get(0);
+					log.info("Using newest release {} from {}", newest.getFullVersion(), newest.getPath());
+					return Optional.of(newest);
+				}
+
+				if (!interactive) {
+					log.info("Cannot choose between {} JDKs for version {} without asking", selectedVersionJDKs.size(), arguments.getVersion());
+					return Optional.empty();
+				}
+
+				return Optional.ofNullable(chooseJDK(new ArrayList<>(selectedVersionJDKs), arguments));
+		}
+	}
+
+	/**
+	 * Asks the user to choose one of the given JDKs.
+	 * <p>
+	 * The {@link JDKVersionChooser} dialog, and with it Swing and FlatLaf, is only loaded when the {@code chooser}
+	 * setting is {@code gui}, {@code --no-gui} was not given and a display is available. Otherwise the
+	 * {@link ConsoleJDKChooser} asks on the terminal.
+	 * </p>
+	 *
+	 * @param jdks the JDKs to choose from
+	 * @param arguments the parsed arguments
+	 * @return the chosen JDK, or {@code null} if the user cancelled
+	 */
+	private static JDK chooseJDK(List<JDK> jdks, Arguments arguments) {
+		long start = Timings.start();
+		try {
+			boolean gui = "gui".equalsIgnoreCase(SettingsManager.getSettings().getChooser());
+			if (gui && !arguments.isNoGui() && Platform.hasDisplay()) {
+				return JDKVersionChooser.choose(jdks);
+			}
+			return new ConsoleJDKChooser(jdks).choose(arguments.getJarPath());
+		} finally {
+			Timings.record("chooser", start);
 		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,370 @@
+package dev.lorena.multijdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.ParseException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Long-running MultiJDK process that resolves launches over a Unix domain socket.
+ * <p>
+ * The daemon keeps the discovered JDKs and the {@link Settings} in memory and answers resolution requests on
+ * {@code multijdk.sock}, next to {@code settings.json}. A request is a list of NUL-terminated fields: a verb followed
+ * by its arguments. The answer uses the same framing and starts with {@code OK} or {@code ERR}.
+ * </p>
+ *
+ * <ul>
+ *   <li><b>RESOLVE</b> &lt;MultiJDK arguments&gt;: answers {@code OK} followed by the command line to run</li>
+ *   <li><b>RUN</b> &lt;FIFO directory&gt; &lt;working directory&gt; &lt;MultiJDK arguments&gt;: runs the JAR in the
+ *   {@link JVMPool} and answers {@code EXIT} followed by its exit code, or answers like {@code RESOLVE} when the JAR
+ *   must run as a normal process</li>
+ *   <li><b>PING</b>: answers {@code OK}</li>
+ *   <li><b>STOP</b>: answers {@code OK} and shuts the daemon down</li>
+ * </ul>
+ *
+ * <p>
+ * The daemon never shows the chooser dialog. When a JAR needs one, it answers {@code ERR} and the launcher script
+ * falls back to running MultiJDK in-process. Unix domain socket channels require Java 16 or later, so this class
+ * must only be loaded after checking the runtime version. With {@code "pool": true} in the settings, the daemon
+ * also keeps warm JVMs and creates {@code multijdk.pool} next to the socket, so the launcher script sends
+ * {@code RUN} requests instead of {@code RESOLVE}.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     java -jar jdk.jar daemon
+ *     printf 'RESOLVE\0-v\00017\0-j\0/path/app.jar\0' | socat -t 5 - UNIX-CONNECT:multijdk.sock
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.4
+ * @since 1.5
+ */
+@Slf4j
+public class MultiJDKDaemon {
+
+	private static final Path socketPath = SettingsManager.getSettingsDirectory().resolve("multijdk.sock");
+	private static final Path poolMarkerPath = SettingsManager.getSettingsDirectory().resolve("multijdk.pool");
+	private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+	private static final long REVALIDATION_INTERVAL_MILLIS = 10_000L;
+
+	private final JDKFinder finder;
+	// RUN requests last as long as the JAR, so requests are not limited to a fixed number of threads
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+	private ServerSocketChannel server = null;
+	private JVMPool pool = null;
+	private JDKResolver resolver = null;
+	private JDKWatcher watcher = null;
+	private long resolverGeneration = -1L;
+	private long lastValidation = 0L;
+
+	public MultiJDKDaemon(JDKFinder finder) {
+		this.finder = finder;
+	}
+
+	/**
+	 * Returns the path of the socket the daemon listens on.
+	 *
+	 * @return the socket path
+	 */
+	public static Path getSocketPath() {
+		return socketPath;
+	}
+
+	/**
+	 * Binds the socket and serves requests until a {@code STOP} request is received.
+	 */
+	public void serve() {
+		if (isRunning()) {
+			log.error("A MultiJDK daemon is already listening on {}", socketPath);
+			System.exit(1);
+		}
+
+		try {
+			Files.deleteIfExists(socketPath);
+			refreshJDKs(false);
+			startWatcher();
+
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			restrictToOwner(socketPath);
+			log.info("MultiJDK daemon listening on {}", socketPath);
+
+			if (SettingsManager.getSettings().isPool()) {
+				pool = new JVMPool(MultiJDK.getLauncherPath());
+				Files.write(poolMarkerPath, new byte[0]);
+				log.info("Running JARs in pre-started JVMs");
+			}
+
+			while (server.isOpen()) {
+				SocketChannel client = server.accept();
+				workers.submit(() -> handle(client));
+			}
+		} catch (IOException ex) {
+			if (server == null || server.isOpen()) {
+				log.error("MultiJDK daemon stopped unexpectedly", ex);
+			}
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Asks a running daemon to stop.
+	 *
+	 * @return {@code true} if a daemon was running and acknowledged the request
+	 */
+	public static boolean stop() {
+		Optional<List<String>> response = request(Collections.singletonList("STOP"));
+		if (response.isPresent()) {
+			log.info("MultiJDK daemon stopped");
+			return true;
+		}
+		log.error("No MultiJDK daemon is listening on {}", socketPath);
+		return false;
+	}
+
+	/**
+	 * Checks whether a daemon is answering on the socket.
+	 *
+	 * @return {@code true} if a daemon answered a {@code PING} request
+	 */
+	public static boolean isRunning() {
+		return request(Collections.singletonList("PING")).isPresent();
+	}
+
+	/**
+	 * Sends a request to the daemon and returns its answer without the leading status field.
+	 *
+	 * @param fields the verb and its arguments
+	 * @return the answer fields, or an empty {@link Optional} if no daemon is listening or the answer is not {@code OK}
+	 */
+	public static Optional<List<String>> request(List<String> fields) {
+		if (!Files.exists(socketPath)) {
+			return Optional.empty();
+		}
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+			writeFields(channel, fields);
+			channel.shutdownOutput();
+			List<String> response = readFields(channel);
+			if (!response.isEmpty() && response.get(0).equals("OK")) {
+				return Optional.of(response.subList(1, response.size()));
+			}
+		} catch (IOException ex) {
+			log.debug("Could not reach the MultiJDK daemon on {}: {}", socketPath, ex.getMessage());
+		}
+		return Optional.empty();
+	}
+
+	private void handle(SocketChannel client) {
+		try (SocketChannel channel = client) {
+			List<String> request = readFields(channel);
+			List<String> response = answer(request);
+			writeFields(channel, response);
+		} catch (IOException ex) {
+			log.debug("Error answering MultiJDK client: {}", ex.getMessage());
+		}
+	}
+
+	private List<String> answer(List<String> request) {
+		if (request.isEmpty()) {
+			return Arrays.asList("ERR", "Empty request");
+		}
+
+		switch (request.get(0)) {
+			case "PING":
+				return Collections.singletonList("OK");
+			case "STOP":
+				closeServer();
+				return Collections.singletonList("OK");
+			case "RESOLVE":
+				return resolve(request.subList(1, request.size()).toArray(new String[0]));
+			case "RUN":
+				if (request.size() < 3) {
+					return Arrays.asList("ERR", "RUN needs a FIFO directory and a working directory");
+				}
+				return run(request.get(1), request.get(2), request.subList(3, request.size()).toArray(new String[0]));
+			default:
+				return Arrays.asList("ERR", "Unknown request: " + request.get(0));
+		}
+	}
+
+	private List<String> resolve(String[] args) {
+		return run(null, null, args);
+	}
+
+	/**
+	 * Runs the JAR in the pool when {@code fifoDirectory} is given and the pool can take it, otherwise resolves
+	 * the command to run.
+	 */
+	private List<String> run(String fifoDirectory, String workingDirectory, String[] args) {
+		Arguments arguments;
+		try {
+			arguments = ArgumentsHandler.parseArguments(args);
+		} catch (ParseException ex) {
+			return Arrays.asList("ERR", ex.getMessage());
+		}
+
+		SettingsManager.reloadIfChanged();
+		Optional<JDK> jdk = (arguments.getJavaPath() != null)
+				? Optional.of(new JDK(arguments.getVersion(), arguments.getJavaPath(), null))
+				: MultiJDK.selectJDK(refreshJDKs(arguments.isRescan()), arguments, false);
+		if (!jdk.isPresent()) {
+			return Arrays.asList("ERR", "Could not select a JDK for version " + arguments.getRequestedVersion() + " without asking");
+		}
+
+		if (fifoDirectory != null && pool != null) {
+			Optional<Integer> exitCode = pool.run(jdk.get(), arguments, workingDirectory, fifoDirectory);
+			if (exitCode.isPresent()) {
+				return Arrays.asList("EXIT", String.valueOf(exitCode.get()));
+			}
+		}
+
+		List<String> response = new ArrayList<>();
+		response.add("OK");
+		response.addAll(MultiJDK.buildResolvedCommand(jdk.get(), arguments, args));
+		return response;
+	}
+
+	/**
+	 * Returns the resolver of the discovered JDKs. While the {@link JDKWatcher} runs, it is rebuilt only when the
+	 * watcher saw a JDK change; otherwise the index is revalidated at most once every
+	 * {@value #REVALIDATION_INTERVAL_MILLIS} ms. In between, resolving a version is a lookup in the resolver.
+	 */
+	private synchronized JDKResolver refreshJDKs(boolean rescan) {
+		if (rescan) {
+			List<JDK> jdks = finder.findJDKs(true);
+			if (watcher != null) {
+				watcher.reset(jdks);
+				resolverGeneration = watcher.getGeneration();
+			}
+			resolver = new JDKResolver(jdks);
+			lastValidation = System.currentTimeMillis();
+		} else if (watcher != null) {
+			if (resolverGeneration != watcher.getGeneration()) {
+				resolverGeneration = watcher.getGeneration();
+				resolver = new JDKResolver(watcher.getJDKs());
+			}
+		} else {
+			long now = System.currentTimeMillis();
+			if (resolver == null || now - lastValidation > REVALIDATION_INTERVAL_MILLIS) {
+				resolver = new JDKResolver(finder.findJDKs(false));
+				lastValidation = now;
+			}
+		}
+		return resolver;
+	}
+
+	/**
+	 * Starts the {@link JDKWatcher} on the JDKs just discovered, unless disabled in the settings. Without it, the
+	 * daemon falls back to revalidating the index periodically.
+	 */
+	private synchronized void startWatcher() {
+		if (!SettingsManager.getSettings().isWatchJDKLocations()) {
+			return;
+		}
+		JDKWatcher started = new JDKWatcher(finder);
+		try {
+			started.start(finder.findJDKs(false));
+			watcher = started;
+			resolverGeneration = -1L;
+			log.info("Watching the JDK locations for changes");
+		} catch (IOException ex) {
+			log.warn("Cannot watch the JDK locations, checking them every {} ms instead: {}", REVALIDATION_INTERVAL_MILLIS, ex.getMessage());
+		}
+	}
+
+	private synchronized void closeServer() {
+		try {
+			if (server != null) {
+				server.close();
+			}
+		} catch (IOException ex) {
+			log.debug("Error closing daemon socket: {}", ex.getMessage());
+		}
+	}
+
+	private void shutdown() {
+		closeServer();
+		if (watcher != null) {
+			watcher.stop();
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+		workers.shutdown();
+		try {
+			workers.awaitTermination(5, TimeUnit.SECONDS);
+			Files.deleteIfExists(poolMarkerPath);
+			Files.deleteIfExists(socketPath);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ex) {
+			log.debug("Could not delete daemon socket {}: {}", socketPath, ex.getMessage());
+		}
+	}
+
+	private static void restrictToOwner(Path path) {
+		try {
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+		} catch (UnsupportedOperationException | IOException ex) {
+			log.debug("Could not restrict permissions of {}: {}", path, ex.getMessage());
+		}
+	}
+
+	private static List<String> readFields(SocketChannel channel) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (channel.read(buffer) != -1) {
+			if (content.size() + buffer.position() > MAX_REQUEST_SIZE) {
+				throw new IOException("Request too large");
+			}
+			content.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+		}
+
+		List<String> fields = new ArrayList<>();
+		byte[] bytes = content.toByteArray();
+		int start = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == 0) {
+				fields.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+				start = i + 1;
+			}
+		}
+		return fields;
+	}
+
+	private static void writeFields(SocketChannel channel, List<String> fields) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (String field : fields) {
+			byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+			content.write(bytes, 0, bytes.length);
+			content.write(0);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(content.toByteArray());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package dev.lorena.multijdk;
+
+import java.lang.reflect.Field;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Minimal facts about the operating system and the Java runtime MultiJDK is running on.
+ * <p>
+ * The launcher path checks these on every launch, so they are read straight from the system properties
+ * instead of through commons-lang3 {@code SystemUtils}, whose initialization reads and parses every
+ * standard property up front.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     if (Platform.IS_LINUX &amp;&amp; Platform.isJavaVersionAtLeast(16)) { ... }
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class Platform {
+
+	private static final String OS_NAME = System.getProperty("os.name", "").toLowerCase();
+
+	public static final boolean IS_WINDOWS = OS_NAME.startsWith("windows");
+	public static final boolean IS_LINUX = OS_NAME.startsWith("linux");
+	public static final boolean IS_MAC = OS_NAME.startsWith("mac");
+
+	/**
+	 * Returns the feature version of the running Java, e.g. 8 for 1.8 or 21 for 21.0.1.
+	 *
+	 * @return the feature version
+	 */
+	public static int getJavaVersion() {
+		String specification = System.getProperty("java.specification.version", "1.8");
+		if (specification.startsWith("1.")) {
+			specification = specification.substring(2);
+		}
+		try {
+			return Integer.parseInt(specification);
+		} catch (NumberFormatException ex) {
+			return 8;
+		}
+	}
+
+	/**
+	 * Checks whether the running Java is at least the given feature version.
+	 *
+	 * @param version the feature version, e.g. 16
+	 * @return {@code true} if the running Java is that version or newer
+	 */
+	public static boolean isJavaVersionAtLeast(int version) {
+		return getJavaVersion() >= version;
+	}
+
+	/**
+	 * Returns the id of a process, with {@code Process.pid()} on Java 9 and later, or from the private field of the
+	 * Java 8 implementation otherwise.
+	 *
+	 * @param process the process
+	 * @return the process id, or -1 if it cannot be found out
+	 */
+	public static long pidOf(Process process) {
+		if (isJavaVersionAtLeast(9)) {
+			return process.pid();
+		}
+		try {
+			Field pid = process.getClass().getDeclaredField("pid");
+			pid.setAccessible(true);
+			return pid.getInt(process);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks whether a graphical display is available, without loading AWT.
+	 *
+	 * @return {@code true} on Windows and macOS, or on other systems when an X11 or Wayland display is set
+	 */
+	public static boolean hasDisplay() {
+		if (IS_WINDOWS || IS_MAC) {
+			return true;
+		}
+		return isSet(System.getenv("DISPLAY")) || isSet(System.getenv("WAYLAND_DISPLAY"));
+	}
+
+	private static boolean isSet(String value) {
+		return value != null && !value.isEmpty();
+	}
+
+}
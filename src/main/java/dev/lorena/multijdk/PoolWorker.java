@@ -0,0 +1,252 @@
+package dev.lorena.multijdk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Main class of the pre-started JVMs of the {@link JVMPool}, which run JARs on request.
+ * <p>
+ * The worker receives jobs from the daemon on its standard input and answers on its standard output. A job is a
+ * directory holding the {@code in}, {@code out} and {@code err} FIFOs created by the launcher script, the JAR and its
+ * parameters. The worker connects {@code System.in}, {@code System.out} and {@code System.err} to the FIFOs, runs the
+ * {@code Main-Class} of the JAR in a new class loader whose parent is the platform class loader, so the JAR sees
+ * none of the MultiJDK classes, waits for the non-daemon threads it started and answers the exit code.
+ * </p>
+ *
+ * <p>
+ * The worker is reused for the next job only while it is clean: fewer than {@code maxReuses} jobs, no thread of the
+ * JAR still alive and less than {@code heapThresholdPercent} of the heap in use after a full collection. Otherwise
+ * it exits and the pool starts a new one. If the JAR calls {@code System.exit}, the worker JVM exits with that code,
+ * which the pool reads from the process instead.
+ * </p>
+ *
+ * <p>
+ * This class runs on any JDK from 8 on and, unlike the rest of MultiJDK, does not log: while a job runs the
+ * standard streams belong to the JAR.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     java -cp jdk.jar dev.lorena.multijdk.PoolWorker 50 70
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.0
+ * @since 1.5
+ */
+public final class PoolWorker {
+
+	static final String READY = "READY";
+
+	private PoolWorker() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int maxReuses = Integer.parseInt(args[0]);
+		int heapThresholdPercent = Integer.parseInt(args[1]);
+
+		PrintStream console = System.err;
+		DataInputStream control = new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream replies = new DataOutputStream(new BufferedOutputStream(System.out));
+
+		// Whatever the JAR wrote must reach the FIFOs, also when it calls System.exit
+		Thread flush = new Thread(() -> {
+			System.out.flush();
+			System.err.flush();
+		});
+		flush.setName("poolWorkerFlush");
+		Runtime.getRuntime().addShutdownHook(flush);
+
+		replies.writeUTF(READY);
+		replies.flush();
+
+		for (int runs = 1; ; runs++) {
+			List<String> job = readJob(control);
+			if (job == null) {
+				// The daemon went away
+				System.exit(0);
+			}
+
+			ThreadGroup group = new ThreadGroup("pooledJar");
+			int exitCode = runJob(job, group, console);
+			replies.writeInt(exitCode);
+			replies.flush();
+
+			if (runs >= maxReuses || !isClean(group, heapThresholdPercent)) {
+				System.exit(0);
+			}
+			replies.writeUTF(READY);
+			replies.flush();
+		}
+	}
+
+	private static List<String> readJob(DataInputStream control) throws IOException {
+		try {
+			int count = control.readInt();
+			List<String> job = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				job.add(control.readUTF());
+			}
+			return job;
+		} catch (EOFException ex) {
+			return null;
+		}
+	}
+
+	private static int runJob(List<String> job, ThreadGroup group, PrintStream console) {
+		File fifos = new File(job.get(0));
+		String jarPath = job.get(1);
+		String[] params = job.subList(2, job.size()).toArray(new String[0]);
+
+		InputStream originalIn = System.in;
+		PrintStream originalOut = System.out;
+		PrintStream originalErr = System.err;
+		// Same order as the launcher script opens the other ends, so neither side blocks forever.
+		// System.out is built like the java launcher's, flushing on every write, so prompts show before reading stdin
+		try (InputStream in = new FileInputStream(new File(fifos, "in"));
+				PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(fifos, "out")), 128), true);
+				PrintStream err = new PrintStream(new FileOutputStream(new File(fifos, "err")), true)) {
+			System.setIn(in);
+			System.setOut(out);
+			System.setErr(err);
+			int exitCode = runMain(jarPath, params, group);
+			out.flush();
+			err.flush();
+			return exitCode;
+		} catch (IOException ex) {
+			console.println("MultiJDK pool worker could not open the FIFOs in " + fifos + ": " + ex.getMessage());
+			return 1;
+		} finally {
+			System.setIn(originalIn);
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+		}
+	}
+
+	/**
+	 * Runs the {@code Main-Class} of the JAR in a thread of {@code group}, as the {@code java} launcher would:
+	 * an uncaught exception is printed and gives exit code 1, otherwise the exit code is 0.
+	 */
+	private static int runMain(String jarPath, String[] params, ThreadGroup group) {
+		String mainClassName = readMainClass(jarPath);
+		if (mainClassName == null) {
+			System.err.println("no main manifest attribute, in " + jarPath);
+			return 1;
+		}
+
+		ClassLoader platform = ClassLoader.getSystemClassLoader().getParent();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { new File(jarPath).toURI().toURL() }, platform)) {
+			Method main = Class.forName(mainClassName, false, loader).getMethod("main", String[].class);
+
+			Throwable[] failure = new Throwable[1];
+			Thread thread = new Thread(group, () -> {
+				try {
+					main.invoke(null, (Object) Arrays.copyOf(params, params.length));
+				} catch (InvocationTargetException ex) {
+					failure[0] = ex.getCause();
+				} catch (ReflectiveOperationException ex) {
+					failure[0] = ex;
+				}
+			}, "main");
+			thread.setContextClassLoader(loader);
+			thread.start();
+			thread.join();
+			waitForNonDaemonThreads(group);
+
+			if (failure[0] != null) {
+				trimStackTrace(failure[0], mainClassName);
+				System.err.print("Exception in thread \"main\" ");
+				failure[0].printStackTrace();
+				return 1;
+			}
+			return 0;
+		} catch (ClassNotFoundException | NoSuchMethodException ex) {
+			System.err.println("Error: Could not find or load main class " + mainClassName + " in " + jarPath);
+			return 1;
+		} catch (LinkageError ex) {
+			System.err.println("Error: LinkageError occurred while loading main class " + mainClassName);
+			System.err.println("\t" + ex);
+			return 1;
+		} catch (IOException ex) {
+			System.err.println("Error: Could not open " + jarPath + ": " + ex.getMessage());
+			return 1;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+	}
+
+	/**
+	 * Removes the reflection and worker frames below the {@code main} method, so the stack trace looks like the one
+	 * the {@code java} launcher prints.
+	 */
+	private static void trimStackTrace(Throwable failure, String mainClassName) {
+		StackTraceElement[] frames = failure.getStackTrace();
+		for (int i = frames.length - 1; i >= 0; i--) {
+			if (frames[i].getClassName().equals(mainClassName) && frames[i].getMethodName().equals("main")) {
+				failure.setStackTrace(Arrays.copyOf(frames, i + 1));
+				return;
+			}
+		}
+	}
+
+	private static String readMainClass(String jarPath) {
+		try (JarFile jar = new JarFile(jarPath)) {
+			Manifest manifest = jar.getManifest();
+			return (manifest != null) ? manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS) : null;
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private static void waitForNonDaemonThreads(ThreadGroup group) throws InterruptedException {
+		while (true) {
+			Thread[] threads = new Thread[group.activeCount() + 8];
+			int count = group.enumerate(threads, true);
+			Thread pending = null;
+			for (int i = 0; i < count && pending == null; i++) {
+				if (!threads[i].isDaemon()) {
+					pending = threads[i];
+				}
+			}
+			if (pending == null) {
+				return;
+			}
+			pending.join();
+		}
+	}
+
+	/**
+	 * Checks that the JAR left nothing behind: no thread still running and, after a full collection, less than
+	 * {@code heapThresholdPercent} of the maximum heap in use.
+	 */
+	private static boolean isClean(ThreadGroup group, int heapThresholdPercent) {
+		if (group.activeCount() > 0) {
+			return false;
+		}
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return used * 100 < runtime.maxMemory() * heapThresholdPercent;
+	}
+
+}
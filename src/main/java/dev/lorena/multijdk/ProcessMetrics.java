@@ -0,0 +1,576 @@
+package dev.lorena.multijdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Measures what a launch cost, for {@code --metrics}: wall time, user and system CPU time, peak resident memory,
+ * context switches and bytes read and written by the process and, on Java 9 and later, its descendants.
+ * <p>
+ * While the process runs, a single scheduled thread reads {@code /proc/<pid>/stat}, {@code status} and {@code io}
+ * of every process of the tree, and the {@code status} of each of their threads, every
+ * {@code metricsIntervalMillis}. The files are opened once and read again from the start into a reused buffer,
+ * and parsed in place, so a sample allocates nothing. Looking for new descendants and threads, through
+ * {@code Process.toHandle()} and {@code /proc/<pid>/task}, does allocate, so it only happens every
+ * {@value #REFRESH_MILLIS} ms. The values of processes and threads that ended are kept from their last sample,
+ * except the I/O of a process whose parent is sampled too, since the kernel adds it to the parent's.
+ * </p>
+ *
+ * <p>
+ * The kernel forgets a process as soon as it is reaped, so its totals are those of the last sample, at most one
+ * interval before it exited, and processes that live shorter than an interval may not be seen at all. Peak memory
+ * is the highest sum of the resident memory of the tree at any sample, or the high-water mark of the process if it
+ * is higher. Only Linux is supported; elsewhere only the wall time is reported.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     ProcessMetrics metrics = ProcessMetrics.start(process, 100);
+ *     int exitCode = process.waitFor();
+ *     metrics.stop();
+ *     System.err.print(metrics.format("", command.get(0), exitCode));
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.2
+ * @since 1.5
+ */
+@Slf4j
+public class ProcessMetrics {
+
+	static final long REFRESH_MILLIS = 1000L;
+	static final int MAX_THREADS = 512;
+
+	/** Clock ticks per second of the CPU times in {@code /proc/<pid>/stat}, 100 on every mainstream Linux build. */
+	private static final long CLOCK_TICKS = 100L;
+	private static final byte[] VM_RSS = key("VmRSS:");
+	private static final byte[] VM_HWM = key("VmHWM:");
+	private static final byte[] VOLUNTARY = key("voluntary_ctxt_switches:");
+	private static final byte[] INVOLUNTARY = key("nonvoluntary_ctxt_switches:");
+	private static final byte[] RCHAR = key("rchar:");
+	private static final byte[] WCHAR = key("wchar:");
+	private static final byte[] READ_BYTES = key("read_bytes:");
+	private static final byte[] WRITE_BYTES = key("write_bytes:");
+
+	private final Process process;
+	private final long pid;
+	private final long intervalMillis;
+	private final long startNanos;
+	private final byte[] buffer = new byte[8192];
+	private final List<Sampled> processes = new ArrayList<>();
+	private final List<Sampled> threads = new ArrayList<>();
+	private ScheduledExecutorService sampler = null;
+	private long endNanos = 0L;
+	private long lastRefreshNanos = 0L;
+	private int samples = 0;
+	private int processesSeen = 0;
+	private long peakRssKilobytes = 0L;
+	private long endedCpuTicks = 0L;
+	private long endedUserTicks = 0L;
+	private long endedReadChars = 0L;
+	private long endedWrittenChars = 0L;
+	private long endedReadBytes = 0L;
+	private long endedWrittenBytes = 0L;
+	private long endedVoluntary = 0L;
+	private long endedInvoluntary = 0L;
+
+	private ProcessMetrics(Process process, long intervalMillis) {
+		this.process = process;
+		this.pid = Platform.IS_LINUX ? Platform.pidOf(process) : -1L;
+		this.intervalMillis = Math.max(1L, intervalMillis);
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Starts measuring a process that was just started.
+	 *
+	 * @param process the process
+	 * @param intervalMillis how often to sample it, in milliseconds
+	 * @return the metrics, to {@link #stop()} once the process exited
+	 */
+	public static ProcessMetrics start(Process process, long intervalMillis) {
+		ProcessMetrics metrics = new ProcessMetrics(process, intervalMillis);
+		if (metrics.pid < 0) {
+			log.info("Only the wall time of the process can be measured on this system");
+			return metrics;
+		}
+
+		metrics.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metricsSampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		metrics.sampler.scheduleAtFixedRate(metrics::sample, 0L, metrics.intervalMillis, TimeUnit.MILLISECONDS);
+		return metrics;
+	}
+
+	/**
+	 * Stops sampling, after a last sample of the descendants that are still running.
+	 */
+	public void stop() {
+		endNanos = System.nanoTime();
+		if (sampler == null) {
+			return;
+		}
+		sampler.shutdown();
+		try {
+			sampler.awaitTermination(intervalMillis + 1000L, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		sample();
+		for (Sampled sampled : processes) {
+			sampled.close();
+		}
+		for (Sampled thread : threads) {
+			thread.close();
+		}
+	}
+
+	/**
+	 * Returns how long the process ran, until {@link #stop()} or until now.
+	 *
+	 * @return the wall time, in nanoseconds
+	 */
+	public long getWallNanos() {
+		return ((endNanos != 0L) ? endNanos : System.nanoTime()) - startNanos;
+	}
+
+	/**
+	 * Returns the peak resident memory of the process and its descendants.
+	 *
+	 * @return the peak, in kilobytes, or -1 if it cannot be measured on this system
+	 */
+	public synchronized long getPeakRssKilobytes() {
+		return (pid >= 0) ? peakRssKilobytes : -1L;
+	}
+
+	/**
+	 * Formats the metrics, as a few lines for the terminal, or as a single JSON line.
+	 *
+	 * @param format {@code json} for a JSON line, anything else for text
+	 * @param java the java executable that ran the process
+	 * @param exitCode the exit code of the process
+	 * @return the formatted metrics, ending with a line separator
+	 */
+	public synchronized String format(String format, String java, int exitCode) {
+		long wallNanos = getWallNanos();
+		long cpuTicks = endedCpuTicks;
+		long userTicks = endedUserTicks;
+		long readChars = endedReadChars;
+		long writtenChars = endedWrittenChars;
+		long readBytes = endedReadBytes;
+		long writtenBytes = endedWrittenBytes;
+		for (Sampled sampled : processes) {
+			cpuTicks += sampled.values[0];
+			userTicks += sampled.values[1];
+			readChars += sampled.values[2];
+			writtenChars += sampled.values[3];
+			readBytes += sampled.values[4];
+			writtenBytes += sampled.values[5];
+		}
+		long voluntary = endedVoluntary;
+		long involuntary = endedInvoluntary;
+		for (Sampled thread : threads) {
+			voluntary += thread.values[0];
+			involuntary += thread.values[1];
+		}
+		long userMillis = userTicks * 1000L / CLOCK_TICKS;
+		long systemMillis = (cpuTicks - userTicks) * 1000L / CLOCK_TICKS;
+
+		if ("json".equalsIgnoreCase(format)) {
+			return JsonLines.toJsonLine(new Report(System.currentTimeMillis(), java, exitCode, JsonLines.millis(wallNanos),
+					userMillis, systemMillis, peakRssKilobytes * 1024L, voluntary, involuntary, readChars, writtenChars,
+					readBytes, writtenBytes, processesSeen, samples, intervalMillis));
+		}
+
+		StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "MultiJDK metrics, exit code %d, %d process(es), %d samples every %d ms:%n",
+				exitCode, processesSeen, samples, intervalMillis));
+		text.append(String.format(Locale.ROOT, "  %-16s %s%n", "wall", formatMillis(wallNanos / 1_000_000L)));
+		if (pid >= 0) {
+			text.append(String.format(Locale.ROOT, "  %-16s %s (%.0f%% of one core)%n", "user cpu", formatMillis(userMillis), percent(userMillis, wallNanos)));
+			text.append(String.format(Locale.ROOT, "  %-16s %s (%.0f%% of one core)%n", "system cpu", formatMillis(systemMillis), percent(systemMillis, wallNanos)));
+			text.append(String.format(Locale.ROOT, "  %-16s %s%n", "peak rss", formatBytes(peakRssKilobytes * 1024L)));
+			text.append(String.format(Locale.ROOT, "  %-16s %d voluntary, %d involuntary%n", "context switches", voluntary, involuntary));
+			text.append(String.format(Locale.ROOT, "  %-16s %s (%s from storage)%n", "read", formatBytes(readChars), formatBytes(readBytes)));
+			text.append(String.format(Locale.ROOT, "  %-16s %s (%s to storage)%n", "written", formatBytes(writtenChars), formatBytes(writtenBytes)));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Reads the files of every known process and thread. Runs on the sampler thread, and once more from {@link #stop()}.
+	 */
+	private synchronized void sample() {
+		try {
+			long now = System.nanoTime();
+			if (samples == 0 || now - lastRefreshNanos >= TimeUnit.MILLISECONDS.toNanos(REFRESH_MILLIS)) {
+				lastRefreshNanos = now;
+				refresh();
+			}
+			samples++;
+
+			long rssKilobytes = 0L;
+			for (int i = processes.size() - 1; i >= 0; i--) {
+				Sampled sampled = processes.get(i);
+				if (!sampleProcess(sampled)) {
+					endProcess(i);
+					continue;
+				}
+				rssKilobytes += sampled.rssKilobytes;
+				peakRssKilobytes = Math.max(peakRssKilobytes, sampled.hwmKilobytes);
+			}
+			peakRssKilobytes = Math.max(peakRssKilobytes, rssKilobytes);
+
+			for (int i = threads.size() - 1; i >= 0; i--) {
+				Sampled thread = threads.get(i);
+				int length = read(thread.status);
+				if (length < 0) {
+					endThread(i);
+					continue;
+				}
+				thread.values[0] = Math.max(thread.values[0], findValue(length, VOLUNTARY));
+				thread.values[1] = Math.max(thread.values[1], findValue(length, INVOLUNTARY));
+			}
+		} catch (RuntimeException ex) {
+			// Keep sampling; a scheduled task that throws is never run again
+			log.debug("Could not sample process {}: {}", pid, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Reads {@code stat}, {@code status} and {@code io} of a process into its values.
+	 *
+	 * @return {@code false} if the process is gone
+	 */
+	private boolean sampleProcess(Sampled sampled) {
+		int length = read(sampled.stat);
+		if (length < 0) {
+			return false;
+		}
+		sampled.parentId = statField(length, 4);
+		long user = statField(length, 14);
+		long system = statField(length, 15);
+		if (user >= 0 && system >= 0) {
+			sampled.values[0] = Math.max(sampled.values[0], user + system);
+			sampled.values[1] = Math.max(sampled.values[1], user);
+		}
+
+		length = read(sampled.status);
+		if (length < 0) {
+			return false;
+		}
+		sampled.rssKilobytes = Math.max(0L, findValue(length, VM_RSS));
+		sampled.hwmKilobytes = Math.max(0L, findValue(length, VM_HWM));
+
+		length = (sampled.io != null) ? read(sampled.io) : -1;
+		if (length >= 0) {
+			sampled.values[2] = Math.max(sampled.values[2], findValue(length, RCHAR));
+			sampled.values[3] = Math.max(sampled.values[3], findValue(length, WCHAR));
+			sampled.values[4] = Math.max(sampled.values[4], findValue(length, READ_BYTES));
+			sampled.values[5] = Math.max(sampled.values[5], findValue(length, WRITE_BYTES));
+		}
+		return true;
+	}
+
+	private void endProcess(int index) {
+		Sampled sampled = processes.remove(index);
+		endedCpuTicks += sampled.values[0];
+		endedUserTicks += sampled.values[1];
+		// The kernel adds the I/O of a reaped process to its parent, which counts it if it is sampled too
+		if (find(processes, sampled.parentId) < 0) {
+			endedReadChars += sampled.values[2];
+			endedWrittenChars += sampled.values[3];
+			endedReadBytes += sampled.values[4];
+			endedWrittenBytes += sampled.values[5];
+		}
+		sampled.close();
+	}
+
+	private void endThread(int index) {
+		Sampled thread = threads.remove(index);
+		endedVoluntary += thread.values[0];
+		endedInvoluntary += thread.values[1];
+		thread.close();
+	}
+
+	/**
+	 * Opens the files of the processes and threads that appeared since the last refresh.
+	 */
+	private void refresh() {
+		List<Long> pids = new ArrayList<>();
+		if (process.isAlive()) {
+			pids.add(pid);
+		}
+		if (Platform.isJavaVersionAtLeast(9)) {
+			addDescendants(pids);
+		}
+
+		for (Long processId : pids) {
+			if (find(processes, processId) < 0) {
+				Sampled sampled = Sampled.open(processId, new File("/proc/" + processId));
+				if (sampled != null) {
+					processes.add(sampled);
+					processesSeen++;
+				}
+			}
+
+			String[] tids = new File("/proc/" + processId + "/task").list();
+			for (int i = 0; tids != null && i < tids.length && threads.size() < MAX_THREADS; i++) {
+				long tid = parseId(tids[i]);
+				if (tid >= 0 && find(threads, tid) < 0) {
+					Sampled thread = Sampled.openThread(tid, new File("/proc/" + processId + "/task/" + tid + "/status"));
+					if (thread != null) {
+						threads.add(thread);
+					}
+				}
+			}
+		}
+	}
+
+	private void addDescendants(List<Long> pids) {
+		process.toHandle().descendants().forEach(handle -> pids.add(handle.pid()));
+	}
+
+	private static int find(List<Sampled> list, long id) {
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i).id == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a whole {@code /proc} file into the buffer, from the start.
+	 *
+	 * @return the number of bytes read, or -1 if the process or thread is gone
+	 */
+	private int read(RandomAccessFile file) {
+		try {
+			file.seek(0L);
+			int length = 0;
+			int read;
+			while (length < buffer.length && (read = file.read(buffer, length, buffer.length - length)) > 0) {
+				length += read;
+			}
+			return (length > 0) ? length : -1;
+		} catch (IOException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns a numeric field of {@code stat}, numbered as in proc(5), counting from after the command name, which may
+	 * contain spaces.
+	 */
+	private long statField(int length, int field) {
+		int position = length - 1;
+		while (position >= 0 && buffer[position] != ')') {
+			position--;
+		}
+		if (position < 0) {
+			return -1L;
+		}
+		// The field after the command name is field 3
+		int current = 2;
+		for (position++; position < length && current < field; position++) {
+			if (buffer[position] == ' ') {
+				current++;
+			}
+		}
+		return parseNumber(position, length);
+	}
+
+	/**
+	 * Returns the number after a key at the start of a line, e.g. {@code VmRSS:}.
+	 */
+	private long findValue(int length, byte[] key) {
+		for (int line = 0; line < length;) {
+			if (startsWith(line, length, key)) {
+				int position = line + key.length;
+				while (position < length && (buffer[position] == ' ' || buffer[position] == '\t')) {
+					position++;
+				}
+				return parseNumber(position, length);
+			}
+			while (line < length && buffer[line] != '\n') {
+				line++;
+			}
+			line++;
+		}
+		return -1L;
+	}
+
+	private boolean startsWith(int position, int length, byte[] key) {
+		if (position + key.length > length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (buffer[position + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long parseNumber(int position, int length) {
+		long value = 0L;
+		int start = position;
+		while (position < length && buffer[position] >= '0' && buffer[position] <= '9') {
+			value = value * 10 + (buffer[position] - '0');
+			position++;
+		}
+		return (position > start) ? value : -1L;
+	}
+
+	private static long parseId(String name) {
+		try {
+			return Long.parseLong(name);
+		} catch (NumberFormatException ex) {
+			return -1L;
+		}
+	}
+
+	private static byte[] key(String key) {
+		return key.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static double percent(long millis, long wallNanos) {
+		return (wallNanos > 0) ? 100.0 * millis * 1_000_000L / wallNanos : 0.0;
+	}
+
+	private static String formatMillis(long millis) {
+		return String.format(Locale.ROOT, "%.3f s", millis / 1000.0);
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes >= 1024L * 1024 * 1024) {
+			return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024 * 1024));
+		} else if (bytes >= 1024L * 1024) {
+			return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+		}
+		return String.format(Locale.ROOT, "%.1f kB", bytes / 1024.0);
+	}
+
+	/**
+	 * The open {@code /proc} files of a process or thread, and the highest values read from them.
+	 */
+	private static final class Sampled {
+
+		private final long id;
+		private final RandomAccessFile stat;
+		private final RandomAccessFile status;
+		private final RandomAccessFile io;
+		/** CPU ticks, user ticks, chars read, chars written, storage read and written for a process; voluntary and involuntary switches for a thread. */
+		private final long[] values = new long[6];
+		private long parentId = -1L;
+		private long rssKilobytes = 0L;
+		private long hwmKilobytes = 0L;
+
+		private Sampled(long id, RandomAccessFile stat, RandomAccessFile status, RandomAccessFile io) {
+			this.id = id;
+			this.stat = stat;
+			this.status = status;
+			this.io = io;
+		}
+
+		private static Sampled open(long pid, File directory) {
+			RandomAccessFile stat = null;
+			try {
+				stat = new RandomAccessFile(new File(directory, "stat"), "r");
+				RandomAccessFile status = new RandomAccessFile(new File(directory, "status"), "r");
+				RandomAccessFile io = null;
+				try {
+					io = new RandomAccessFile(new File(directory, "io"), "r");
+				} catch (IOException ex) {
+					// Only readable by the owner of the process
+					log.debug("Cannot read the I/O counters of process {}: {}", pid, ex.getMessage());
+				}
+				return new Sampled(pid, stat, status, io);
+			} catch (IOException ex) {
+				closeQuietly(stat);
+				return null;
+			}
+		}
+
+		private static Sampled openThread(long tid, File status) {
+			try {
+				return new Sampled(tid, null, new RandomAccessFile(status, "r"), null);
+			} catch (IOException ex) {
+				return null;
+			}
+		}
+
+		private void close() {
+			closeQuietly(stat);
+			closeQuietly(status);
+			closeQuietly(io);
+		}
+
+		private static void closeQuietly(RandomAccessFile file) {
+			try {
+				if (file != null) {
+					file.close();
+				}
+			} catch (IOException ex) {
+				// Nothing to do
+			}
+		}
+
+	}
+
+	/**
+	 * The JSON line printed by {@code --metrics=json}.
+	 */
+	private static final class Report {
+		private final long timestamp;
+		private final String java;
+		private final int exitCode;
+		private final double wallMs;
+		private final long userMs;
+		private final long systemMs;
+		private final long peakRssBytes;
+		private final long voluntaryContextSwitches;
+		private final long involuntaryContextSwitches;
+		private final long readBytes;
+		private final long writtenBytes;
+		private final long storageReadBytes;
+		private final long storageWrittenBytes;
+		private final int processes;
+		private final int samples;
+		private final long intervalMs;
+
+		private Report(long timestamp, String java, int exitCode, double wallMs, long userMs, long systemMs, long peakRssBytes,
+				long voluntaryContextSwitches, long involuntaryContextSwitches, long readBytes, long writtenBytes,
+				long storageReadBytes, long storageWrittenBytes, int processes, int samples, long intervalMs) {
+			this.timestamp = timestamp;
+			this.java = java;
+			this.exitCode = exitCode;
+			this.wallMs = wallMs;
+			this.userMs = userMs;
+			this.systemMs = systemMs;
+			this.peakRssBytes = peakRssBytes;
+			this.voluntaryContextSwitches = voluntaryContextSwitches;
+			this.involuntaryContextSwitches = involuntaryContextSwitches;
+			this.readBytes = readBytes;
+			this.writtenBytes = writtenBytes;
+			this.storageReadBytes = storageReadBytes;
+			this.storageWrittenBytes = storageWrittenBytes;
+			this.processes = processes;
+			this.samples = samples;
+			this.intervalMs = intervalMs;
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Utility class that builds a {@link JDK} from the 'release' file of a JDK home.
+ * <p>
+ * The file is read once into a byte array and scanned in place, and every {@code KEY="VALUE"} pair the model cares about is
+ * copied into the {@link JDK}: the full {@code JAVA_VERSION} split into feature, interim, update and
+ * patch numbers, {@code IMPLEMENTOR}, {@code IMPLEMENTOR_VERSION}, {@code OS_ARCH}, {@code JVM_VARIANT}
+ * and the list of {@code MODULES}.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     Optional&lt;JDK&gt; jdk = ReleaseFileParser.parse(Paths.get("/usr/lib/jvm/java-17-openjdk-amd64"));
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.2
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ReleaseFileParser {
+
+	/**
+	 * Parses the 'release' file of the given JDK home.
+	 *
+	 * @param home the JDK home containing the 'release' file and 'bin/java'
+	 * @return the parsed {@link JDK}, or an empty {@link Optional} if the file cannot be read or has no {@code JAVA_VERSION}
+	 */
+	public static Optional<JDK> parse(Path home) {
+		Path releaseFile = home.resolve("release");
+		Timings.add(Timings.Counter.RELEASE_FILES_READ, 1);
+		JDK jdk = new JDK();
+		jdk.setPath(JDKDirectoryWalker.getJavaExecutable(home).toString());
+
+		byte[] content;
+		try {
+			content = Files.readAllBytes(releaseFile);
+		} catch (IOException ex) {
+			log.error("There was an error reading the RELEASE file for JDK at path: {}", home);
+			return Optional.empty();
+		}
+
+		int lineStart = 0;
+		while (lineStart < content.length) {
+			int lineEnd = indexOf(content, (byte) '\n', lineStart, content.length);
+			applyLine(jdk, content, lineStart, lineEnd);
+			lineStart = lineEnd + 1;
+		}
+
+		if (jdk.getFullVersion() == null) {
+			log.error("RELEASE file has no JAVA_VERSION: {}", releaseFile);
+			return Optional.empty();
+		}
+		return Optional.of(jdk);
+	}
+
+	/**
+	 * Applies one {@code KEY="VALUE"} line. Only the key is decoded up front, the value is decoded only for the keys
+	 * the model keeps, so long lines such as {@code SOURCE} are skipped without a copy.
+	 */
+	private static void applyLine(JDK jdk, byte[] content, int from, int to) {
+		int separator = indexOf(content, (byte) '=', from, to);
+		if (separator == to) {
+			return;
+		}
+		int keyStart = skipWhitespace(content, from, separator);
+		int keyEnd = trimWhitespace(content, keyStart, separator);
+		if (keyStart == keyEnd) {
+			return;
+		}
+
+		int valueStart = skipWhitespace(content, separator + 1, to);
+		int valueEnd = trimWhitespace(content, valueStart, to);
+		if (valueEnd - valueStart >= 2 && content[valueStart] == '"' && content[valueEnd - 1] == '"') {
+			valueStart++;
+			valueEnd--;
+		}
+
+		switch (new String(content, keyStart, keyEnd - keyStart, StandardCharsets.ISO_8859_1)) {
+			case "JAVA_VERSION":
+				String version = decode(content, valueStart, valueEnd);
+				jdk.setFullVersion(version);
+				applyVersion(jdk, version);
+				break;
+			case "IMPLEMENTOR":
+				jdk.setVendor(decode(content, valueStart, valueEnd));
+				break;
+			case "IMPLEMENTOR_VERSION":
+				jdk.setImplementorVersion(decode(content, valueStart, valueEnd));
+				break;
+			case "OS_ARCH":
+				jdk.setOsArch(decode(content, valueStart, valueEnd));
+				break;
+			case "JVM_VARIANT":
+				jdk.setJvmVariant(decode(content, valueStart, valueEnd));
+				break;
+			case "MODULES":
+				jdk.setModules(splitModules(content, valueStart, valueEnd));
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static List<String> splitModules(byte[] content, int from, int to) {
+		List<String> modules = new ArrayList<>();
+		int start = skipWhitespace(content, from, to);
+		while (start < to) {
+			int end = start;
+			while (end < to && !isWhitespace(content[end])) {
+				end++;
+			}
+			modules.add(new String(content, start, end - start, StandardCharsets.ISO_8859_1));
+			start = skipWhitespace(content, end, to);
+		}
+		return modules;
+	}
+
+	/**
+	 * Splits a {@code JAVA_VERSION} value into its numeric components.
+	 * <p>
+	 * Handles both the legacy scheme ({@code 1.8.0_392}: feature 8, update 392) and the JEP 322 scheme
+	 * ({@code 11.0.20.1}: feature 11, interim 0, update 20, patch 1). Pre-release and build suffixes are ignored.
+	 * </p>
+	 */
+	static void applyVersion(JDK jdk, String version) {
+		int end = version.length();
+		for (int i = 0; i < end; i++) {
+			char c = version.charAt(i);
+			if (c == '-' || c == '+') {
+				end = i;
+				break;
+			}
+		}
+		int[] components = new int[4];
+
+		if (version.startsWith("1.")) {
+			components[0] = parseComponent(version, 2, end);
+			int underscore = version.indexOf('_', 2);
+			components[2] = (underscore >= 0 && underscore < end) ? parseComponent(version, underscore + 1, end) : 0;
+		} else {
+			int start = 0;
+			for (int i = 0; i < components.length; i++) {
+				components[i] = parseComponent(version, start, end);
+				int dot = version.indexOf('.', start);
+				if (dot < 0 || dot >= end) {
+					break;
+				}
+				start = dot + 1;
+			}
+		}
+
+		jdk.setVersion(components[0]);
+		jdk.setInterim(components[1]);
+		jdk.setUpdate(components[2]);
+		jdk.setPatch(components[3]);
+	}
+
+	/**
+	 * Reads the run of digits at {@code from}, clamped to {@link Integer#MAX_VALUE} so a malformed release file
+	 * cannot abort discovery.
+	 */
+	private static int parseComponent(String value, int from, int to) {
+		long number = 0;
+		for (int i = from; i < to; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			number = Math.min(number * 10 + (c - '0'), Integer.MAX_VALUE);
+		}
+		return (int) number;
+	}
+
+	private static String decode(byte[] content, int from, int to) {
+		return new String(content, from, to - from, StandardCharsets.UTF_8);
+	}
+
+	private static int indexOf(byte[] content, byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (content[i] == b) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	private static int skipWhitespace(byte[] content, int from, int to) {
+		while (from < to && isWhitespace(content[from])) {
+			from++;
+		}
+		return from;
+	}
+
+	private static int trimWhitespace(byte[] content, int from, int to) {
+		while (to > from && isWhitespace(content[to - 1])) {
+			to--;
+		}
+		return to;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f';
+	}
+
+}
@@ -1,5 +1,8 @@
 package dev.lorena.multijdk;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,5 +13,45 @@ public class Settings {
 	
 	private List<String> customJDKlocations;
 	private Map<String, String> preferredJDKPerFile;
+	private Map<String, Long> preferredJDKLastUsed = new HashMap<>();
+	private List<String> excludedDirectories = new ArrayList<>(Arrays.asList("node_modules", ".git", ".m2", ".gradle"));
+	private int defaultSearchDepth = 8;
+	private Map<String, Integer> searchDepthPerLocation = new HashMap<>();
+	private boolean autoSelectNewestPatch = true;
+	private List<String> preferredVendors = new ArrayList<>();
+	private String chooser = "gui";
+	private long teeMaxFileSize = 64L * 1024 * 1024;
+	private long teeRotationIntervalMinutes = 24 * 60L;
+	private boolean teeCompressRotated = true;
+	private int teeBufferSize = 4 * 1024 * 1024;
+	private boolean classDataSharing = true;
+	private long classDataSharingCacheMaxMegabytes = 512;
+	private String ergonomics = "off";
+	private int profileMaxRecordings = 20;
+	private long metricsIntervalMillis = 100;
+	private boolean recordHistory = false;
+	private long historyMaxMegabytes = 64;
+	private int historyMaxAgeDays = 365;
+	private boolean watchJDKLocations = true;
+	private boolean pool = false;
+	private int poolWorkersPerJDK = 1;
+	private int poolMaxReuses = 50;
+	private int poolHeapThresholdPercent = 70;
+	private long poolIdleTimeoutMinutes = 30;
+	private List<String> poolExcludedJars = new ArrayList<>();
+	private boolean launchProfile = false;
+	private int launchProfileCpuPercent = 100;
+	private int launchProfileMemoryPercent = 50;
+	
+	/**
+	 * Returns the maximum depth at which JDK homes are looked for below the given location.
+	 *
+	 * @param location a JDK search location, as listed in {@link JDKFinder} or {@link #getCustomJDKlocations()}
+	 * @return the depth configured for the location, or {@link #getDefaultSearchDepth()} if there is none
+	 */
+	public int getSearchDepthFor(String location) {
+		Integer depth = (searchDepthPerLocation != null) ? searchDepthPerLocation.get(location) : null;
+		return (depth != null) ? depth : defaultSearchDepth;
+	}
 
 }
@@ -0,0 +1,226 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of the JDKs remembered per JAR, kept next to {@code settings.json} as {@code settings.journal}.
+ * <p>
+ * Remembering a choice appends one line, {@code <jar key> TAB <java path> TAB <time>}, instead of rewriting the whole
+ * settings file, so the cost does not grow with the number of remembered JARs. The entries are replayed on top of
+ * {@code preferredJDKPerFile} and {@code preferredJDKLastUsed} when the settings are loaded, and {@link SettingsManager} folds them into
+ * {@code settings.json} and starts an empty journal once {@value #COMPACTION_ENTRIES} have accumulated.
+ * </p>
+ *
+ * <p>
+ * The first line of the journal holds a random generation, which changes whenever the journal is compacted. A
+ * reader remembers the generation and how many bytes it applied, so it only reads what other processes appended
+ * since, and knows it must read {@code settings.json} again when the generation changed. Only complete lines are
+ * applied, so a reader never sees half of an entry that is being appended. Writers must hold the lock of
+ * {@link SettingsManager}.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     SettingsJournal journal = new SettingsJournal(settingsDirectory.resolve("settings.journal"));
+ *     journal.readNewEntries(settings.getPreferredJDKPerFile(), settings.getPreferredJDKLastUsed());
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+public class SettingsJournal {
+
+	static final int COMPACTION_ENTRIES = 1024;
+
+	private static final String HEADER = "# MultiJDK settings journal ";
+	private static final int HEADER_LENGTH = HEADER.length() + 17;
+
+	private final Path path;
+	private String generation = null;
+	private long offset = 0L;
+	private int entries = 0;
+
+	public SettingsJournal(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Applies the entries appended since the last call.
+	 *
+	 * @param preferredJDKPerFile the map the entries are applied to
+	 * @param preferredJDKLastUsed the map the times of the entries are applied to
+	 * @return {@code false} if the journal was compacted since the last call, in which case nothing was applied and
+	 *         {@code settings.json} must be read again before calling {@link #reset()} and this method
+	 * @throws IOException if the journal cannot be read
+	 */
+	public boolean readNewEntries(Map<String, String> preferredJDKPerFile, Map<String, Long> preferredJDKLastUsed) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_LENGTH) {
+				// Not written yet, or being created
+				return generation == null;
+			}
+
+			String current = readHeader(channel);
+			if (generation == null) {
+				generation = current;
+				offset = HEADER_LENGTH;
+			} else if (!generation.equals(current)) {
+				return false;
+			}
+
+			if (size > offset) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+				while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+					// Read until the buffer is full
+				}
+				offset += apply(buffer.array(), buffer.position(), preferredJDKPerFile, preferredJDKLastUsed);
+			}
+			return true;
+		} catch (NoSuchFileException ex) {
+			return generation == null;
+		}
+	}
+
+	/**
+	 * Forgets what was read, so the next {@link #readNewEntries} starts from the beginning of the journal.
+	 */
+	public void reset() {
+		generation = null;
+		offset = 0L;
+		entries = 0;
+	}
+
+	/**
+	 * Appends an entry. The caller must hold the settings lock and have read the entries appended by other
+	 * processes first.
+	 *
+	 * @param jarKey the key of the JAR
+	 * @param jdkPath the java executable remembered for it
+	 * @param lastUsed when the JAR was last run with it, in milliseconds since the epoch
+	 * @throws IOException if the journal cannot be written
+	 */
+	public void append(String jarKey, String jdkPath, long lastUsed) throws IOException {
+		if (generation == null) {
+			start();
+		}
+		byte[] line = (escape(jarKey) + '\t' + escape(jdkPath) + '\t' + lastUsed + '\n').getBytes(StandardCharsets.UTF_8);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer buffer = ByteBuffer.wrap(line);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		offset += line.length;
+		entries++;
+	}
+
+	/**
+	 * Tells whether enough entries accumulated to fold them into {@code settings.json}.
+	 *
+	 * @return {@code true} if the journal should be compacted
+	 */
+	public boolean needsCompaction() {
+		return entries >= COMPACTION_ENTRIES;
+	}
+
+	/**
+	 * Replaces the journal with an empty one of a new generation. The caller must hold the settings lock and have
+	 * written every entry to {@code settings.json} first; should the process die in between, the old entries are
+	 * simply applied again.
+	 *
+	 * @throws IOException if the journal cannot be written
+	 */
+	public void start() throws IOException {
+		String next = String.format("%016x", ThreadLocalRandom.current().nextLong());
+		Path temporary = SettingsManager.temporaryFileFor(path);
+		try {
+			Files.write(temporary, (HEADER + next + '\n').getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+			SettingsManager.moveAtomically(temporary, path);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		generation = next;
+		offset = HEADER_LENGTH;
+		entries = 0;
+		log.debug("Started settings journal {} at {}", next, path);
+	}
+
+	private static String readHeader(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH);
+		while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+			// Read until the buffer is full
+		}
+		return new String(buffer.array(), HEADER.length(), HEADER_LENGTH - HEADER.length() - 1, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Applies the complete lines of {@code data} and returns how many bytes they span. Lines written before the time
+	 * was journaled have no third field.
+	 */
+	private int apply(byte[] data, int length, Map<String, String> preferredJDKPerFile, Map<String, Long> preferredJDKLastUsed) {
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			if (data[i] != '\n') {
+				continue;
+			}
+			String line = new String(data, start, i - start, StandardCharsets.UTF_8);
+			int tab = line.indexOf('\t');
+			if (tab > 0) {
+				String key = unescape(line.substring(0, tab));
+				int timeTab = line.indexOf('\t', tab + 1);
+				preferredJDKPerFile.put(key, unescape(line.substring(tab + 1, (timeTab > 0) ? timeTab : line.length())));
+				if (timeTab > 0) {
+					try {
+						preferredJDKLastUsed.put(key, Long.parseLong(line.substring(timeTab + 1)));
+					} catch (NumberFormatException ex) {
+						log.debug("Ignoring the malformed time of {} in {}", key, path);
+					}
+				}
+				entries++;
+			} else {
+				log.warn("Ignoring malformed line in {}: {}", path, line);
+			}
+			start = i + 1;
+		}
+		return start;
+	}
+
+	private static String escape(String value) {
+		if (value.indexOf('\\') < 0 && value.indexOf('\t') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder builder = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				builder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+}
@@ -1,15 +1,21 @@
 package dev.lorena.multijdk;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.gson.FormattingStyle;
 import com.google.gson.Gson;
@@ -24,61 +30,75 @@ import lombok.extern.slf4j.Slf4j;
  * SettingsManager is responsible for managing application settings, including loading,
  * saving, and initializing the settings file. It uses Gson for JSON serialization and
  * deserialization. This class is implemented as a singleton utility class.
+ * <p>
+ * Several MultiJDK processes may use the settings at once. {@code settings.json} is always replaced
+ * as a whole, by writing a temporary file and renaming it, so readers never see a half-written file,
+ * and writers take an exclusive lock on {@code settings.lock} first, so they do not overwrite each
+ * other's changes. Remembered JDKs are appended to the {@link SettingsJournal} rather than rewriting
+ * {@code settings.json} on every choice.
+ * </p>
  * 
  * @author Lorena Nuñez
- * @version 1.1
+ * @version 2.0
  */
 
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class SettingsManager {
 	
+	/**
+	 * System property that overrides the settings directory, e.g. for benchmarks that must not touch the real settings.
+	 */
+	public static final String SETTINGS_DIRECTORY_PROPERTY = "multijdk.settings.dir";
+	
 	private static final Gson gson = new GsonBuilder().setFormattingStyle(FormattingStyle.PRETTY).create();
 	private static final Path settingsPath = getSettingsPath();
+	private static final Path lockPath = settingsPath.resolveSibling("settings.lock");
+	private static final ReentrantLock threadLock = new ReentrantLock();
+	private static final SettingsJournal journal = new SettingsJournal(settingsPath.resolveSibling("settings.journal"));
 	private static Settings settings = null;
+	private static long settingsLastModified = 0L;
 	
 	/**
 	 * Loads or initializes the settings file. If the file does not exist, it creates a new one
-	 * with default values. If it exists, it loads the properties from the file.
+	 * with default values. If it exists, it loads the properties from the file and the JDKs
+	 * remembered in the journal since it was last compacted.
 	 */
 	static {
+		long start = Timings.start();
 		try {
 			File file = settingsPath.toFile();
 			if (!Files.exists(settingsPath) && file.getAbsoluteFile().getParentFile().canWrite()) {
-				if (Files.createFile(settingsPath) != null) {
-					log.debug("Creating new settings file at {}", file.getAbsolutePath());
-					
-					settings = new Settings();
-					settings.setCustomJDKlocations(new ArrayList<>());
-					settings.setPreferredJDKPerFile(new HashMap<>());
-					
-					FileWriter writer = new FileWriter(file);
-					writer.write(gson.toJson(settings));
-					writer.flush();
-					writer.close();
-				} else {
-					log.error("An error has ocurred creating settings file at {}", file.getAbsolutePath());
-				}
-			} else {
-				log.debug("Loading properties from {}", file.getAbsolutePath());
+				log.debug("Creating new settings file at {}", file.getAbsolutePath());
 				
-				StringBuilder sb = new StringBuilder();
-				Scanner sc = new Scanner(file);
+				settings = new Settings();
+				settings.setCustomJDKlocations(new ArrayList<>());
+				settings.setPreferredJDKPerFile(new HashMap<>());
+				settings.setPreferredJDKLastUsed(new HashMap<>());
 				
-				while (sc.hasNext()) {
-					sb.append(sc.nextLine());
+				FileLock lock = lock();
+				try {
+					// Another process may have created it in the meantime
+					if (Files.exists(settingsPath)) {
+						settings = readSettingsFile(file);
+					} else {
+						writeSettingsFile(settings);
+					}
+				} finally {
+					unlock(lock);
 				}
-				
-				settings = gson.fromJson(sb.toString(), Settings.class);
-				
-				sc.close();
+			} else {
+				log.debug("Loading properties from {}", file.getAbsolutePath());
+				settings = readSettingsFile(file);
 			}
+			readJournal();
 		} catch (JsonSyntaxException ex) {
 			log.error("Settings file is corrupted. Please fix or delete it.");
 			System.exit(0);
 		} catch (Exception ex) {
 			log.error("An error has ocurred", ex);
 		}
+		Timings.record("settings", start);
 	}
 	
 	/**
@@ -92,26 +112,247 @@ public class SettingsManager {
 	
 	/**
 	 * Saves the provided settings object to the settings file and updates the in-memory settings instance.
+	 * <p>
+	 * JDKs remembered by other processes since the settings were loaded are merged into the provided
+	 * settings first, and the journal is compacted along the way.
+	 * </p>
 	 *
 	 * @param settings the Settings object to be saved and set as the current settings
 	 */
 	public static synchronized void saveSettings(Settings settings) {
-		try (FileWriter writer = new FileWriter(settingsPath.toFile())){
+		initializePreferredJDKs(settings);
+		FileLock lock = null;
+		try {
+			lock = lock();
+			if (!readJournal(settings)) {
+				Settings current = readSettingsFile(settingsPath.toFile());
+				if (current != null && current.getPreferredJDKPerFile() != null) {
+					current.getPreferredJDKPerFile().forEach(settings.getPreferredJDKPerFile()::putIfAbsent);
+				}
+				if (current != null && current.getPreferredJDKLastUsed() != null) {
+					current.getPreferredJDKLastUsed().forEach((key, lastUsed) -> settings.getPreferredJDKLastUsed().merge(key, lastUsed, Math::max));
+				}
+				journal.reset();
+				readJournal(settings);
+			}
 			SettingsManager.settings = settings;
-			writer.write(gson.toJson(settings));
-			writer.flush();
-		} catch (IOException ex) {
+			JarIdentity.evictUnused(settings.getPreferredJDKPerFile(), settings.getPreferredJDKLastUsed());
+			writeSettingsFile(settings);
+			journal.start();
+		} catch (IOException | JsonSyntaxException ex) {
 			log.error("Error saving property.", ex);
+		} finally {
+			unlock(lock);
+		}
+	}
+
+	/**
+	 * Remembers the JDK to use for a JAR, in memory and in the journal, along with the current time as its last use.
+	 * This appends a single line, however many JARs are remembered; every {@value SettingsJournal#COMPACTION_ENTRIES}
+	 * entries the journal is folded into the settings file, without the entries of JARs that are gone or unused for
+	 * long, see {@link JarIdentity#evictUnused(java.util.Map, java.util.Map)}.
+	 *
+	 * @param jarKey the key of the JAR, see {@link JarIdentity#keyOf(String)}
+	 * @param jdkPath the java executable to use for it
+	 */
+	public static synchronized void rememberPreferredJDK(String jarKey, String jdkPath) {
+		FileLock lock = null;
+		try {
+			lock = lock();
+			if (!readJournal(settings)) {
+				reload();
+			}
+			long now = System.currentTimeMillis();
+			settings.getPreferredJDKPerFile().put(jarKey, jdkPath);
+			settings.getPreferredJDKLastUsed().put(jarKey, now);
+			journal.append(jarKey, jdkPath, now);
+			if (journal.needsCompaction()) {
+				log.debug("Compacting settings journal into {}", settingsPath);
+				JarIdentity.evictUnused(settings.getPreferredJDKPerFile(), settings.getPreferredJDKLastUsed());
+				writeSettingsFile(settings);
+				journal.start();
+			}
+		} catch (IOException | JsonSyntaxException ex) {
+			log.error("Could not remember the JDK for {}: {}", jarKey, ex.getMessage());
+		} finally {
+			unlock(lock);
 		}
 	}
 
+	/**
+	 * Reloads the settings file if it was modified since it was last read or written by this process,
+	 * and applies the JDKs remembered by other processes since.
+	 * <p>
+	 * Long-running callers, such as the {@link MultiJDKDaemon}, use this to pick up choices remembered
+	 * by other MultiJDK processes.
+	 * </p>
+	 */
+	public static synchronized void reloadIfChanged() {
+		try {
+			if (settingsPath.toFile().lastModified() != settingsLastModified
+					|| !readJournal(settings)) {
+				reload();
+			}
+		} catch (IOException | JsonSyntaxException ex) {
+			log.error("Could not reload settings file: {}", ex.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the settings file and the whole journal again.
+	 */
+	private static void reload() throws IOException {
+		File file = settingsPath.toFile();
+		log.debug("Reloading properties from {}", file.getAbsolutePath());
+		Settings reloaded = readSettingsFile(file);
+		if (reloaded != null) {
+			settings = reloaded;
+		}
+		journal.reset();
+		readJournal();
+	}
+
+	private static void readJournal() throws IOException {
+		initializePreferredJDKs(settings);
+		readJournal(settings);
+	}
+
+	/**
+	 * Applies the journal entries appended since it was last read to the given settings.
+	 *
+	 * @return {@code false} if the journal was compacted in the meantime, see {@link SettingsJournal#readNewEntries}
+	 */
+	private static boolean readJournal(Settings settings) throws IOException {
+		return journal.readNewEntries(settings.getPreferredJDKPerFile(), settings.getPreferredJDKLastUsed());
+	}
+
+	/**
+	 * Replaces the missing maps of remembered JDKs, e.g. of a settings file written before they existed, with empty ones.
+	 */
+	private static void initializePreferredJDKs(Settings settings) {
+		if (settings.getPreferredJDKPerFile() == null) {
+			settings.setPreferredJDKPerFile(new HashMap<>());
+		}
+		if (settings.getPreferredJDKLastUsed() == null) {
+			settings.setPreferredJDKLastUsed(new HashMap<>());
+		}
+	}
+	
+	private static Settings readSettingsFile(File file) throws IOException {
+		settingsLastModified = file.lastModified();
+		
+		// Read the whole file at once, a Scanner would pull in the regex engine on every launch
+		String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		return gson.fromJson(content, Settings.class);
+	}
+
+	/**
+	 * Replaces the settings file with a temporary file holding the new settings. The caller must hold the lock.
+	 */
+	private static void writeSettingsFile(Settings settings) throws IOException {
+		Path temporary = temporaryFileFor(settingsPath);
+		try {
+			Files.write(temporary, gson.toJson(settings).getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+			moveAtomically(temporary, settingsPath);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		settingsLastModified = settingsPath.toFile().lastModified();
+	}
+
+	/**
+	 * Returns a new temporary file name next to {@code target}. Unlike {@link Files#createTempFile}, the file gets the
+	 * usual permissions when it is created, so the file it replaces keeps being readable by others.
+	 *
+	 * @param target the file that will be replaced
+	 * @return the temporary file name
+	 */
+	static Path temporaryFileFor(Path target) {
+		return target.resolveSibling(target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+	}
+
+	/**
+	 * Renames a file over another one, atomically where the file system supports it.
+	 *
+	 * @param source the file to rename
+	 * @param target the file to replace
+	 * @throws IOException if the file cannot be renamed
+	 */
+	static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Takes the lock that serializes the writers of the settings across processes, and of the other files next to
+	 * them that are read, updated and written back, such as {@code ergonomics.tsv}. Release it with
+	 * {@link #unlock(FileLock)} in a {@code finally} block.
+	 *
+	 * @return the lock
+	 * @throws IOException if the lock file cannot be opened
+	 */
+	static FileLock lock() throws IOException {
+		// A file lock is held by the whole process, so the threads of the daemon take turns first
+		threadLock.lock();
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			return channel.lock();
+		} catch (IOException | RuntimeException ex) {
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} finally {
+				threadLock.unlock();
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Releases a lock taken with {@link #lock()} and closes its channel.
+	 *
+	 * @param lock the lock, or {@code null} if it could not be taken
+	 */
+	static void unlock(FileLock lock) {
+		if (lock == null) {
+			return;
+		}
+		try {
+			lock.channel().close();
+		} catch (IOException ex) {
+			log.debug("Could not release {}: {}", lockPath, ex.getMessage());
+		} finally {
+			threadLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the directory that holds the settings file and the other files MultiJDK persists.
+	 *
+	 * @return the settings directory
+	 */
+	public static Path getSettingsDirectory() {
+		return settingsPath.toAbsolutePath().getParent();
+	}
+
 	/**
 	 * Determines the path where the settings.json file should be created.
-	 * Attempts to use the directory of the running JAR file.
+	 * Attempts to use the directory of the running JAR file, unless the {@value #SETTINGS_DIRECTORY_PROPERTY}
+	 * system property points to another directory.
 	 *
 	 * @return the Path to the settings.json file
 	 */
 	private static Path getSettingsPath() {
+		String overridden = System.getProperty(SETTINGS_DIRECTORY_PROPERTY);
+		if (overridden != null) {
+			return Paths.get(overridden, "settings.json");
+		}
+		
 		String jarDir = null;
 		try {
 			String path = SettingsManager.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
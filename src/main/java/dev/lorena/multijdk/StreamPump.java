@@ -0,0 +1,98 @@
+package dev.lorena.multijdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link Runnable} that copies raw bytes from an input stream to an output stream.
+ * <p>
+ * Data is moved in large chunks through a single reusable buffer, without decoding it to characters,
+ * so binary data passes through unchanged. The target is only flushed when the source has nothing more
+ * available right now, which coalesces bursts of small writes into one system call while still showing
+ * interactive output as soon as the process stops writing. Every chunk can also be offered to a {@link TeeLog},
+ * which never blocks the pump.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     Thread stdoutThread = new Thread(new StreamPump(process.getInputStream(), stdout, false));
+ *     stdoutThread.start();
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+public class StreamPump implements Runnable {
+
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream source;
+	private final OutputStream target;
+	private final boolean closeTarget;
+	private final TeeLog tap;
+
+	/**
+	 * Creates a pump between two streams.
+	 *
+	 * @param source the stream to read from, until end of stream
+	 * @param target the stream to write to
+	 * @param closeTarget whether to close the target once the source is exhausted, e.g. to signal EOF to a process
+	 */
+	public StreamPump(InputStream source, OutputStream target, boolean closeTarget) {
+		this(source, target, closeTarget, null);
+	}
+
+	/**
+	 * Creates a pump between two streams that also copies every chunk to a {@link TeeLog}.
+	 *
+	 * @param source the stream to read from, until end of stream
+	 * @param target the stream to write to
+	 * @param closeTarget whether to close the target once the source is exhausted, e.g. to signal EOF to a process
+	 * @param tap the log to copy the data to, or {@code null} for none
+	 */
+	public StreamPump(InputStream source, OutputStream target, boolean closeTarget, TeeLog tap) {
+		this.source = source;
+		this.target = target;
+		this.closeTarget = closeTarget;
+		this.tap = tap;
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			int read;
+			while ((read = source.read(buffer)) != -1) {
+				if (tap != null) {
+					tap.offer(buffer, 0, read);
+				}
+				target.write(buffer, 0, read);
+				if (source.available() == 0) {
+					target.flush();
+				}
+			}
+			target.flush();
+		} catch (IOException ex) {
+			// The other end went away, e.g. the process exited while we were still forwarding input
+			log.debug("Stream pump stopped: {}", ex.getMessage());
+		} finally {
+			if (closeTarget) {
+				closeQuietly(target);
+			}
+		}
+	}
+
+	private static void closeQuietly(OutputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException ex) {
+			log.debug("Error closing stream: {}", ex.getMessage());
+		}
+	}
+
+}
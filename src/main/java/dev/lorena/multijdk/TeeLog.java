@@ -0,0 +1,232 @@
+package dev.lorena.multijdk;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Copies a stream of bytes to size- and time-rotated log files without ever blocking the producer.
+ * <p>
+ * Bytes offered by a {@link StreamPump} are copied into a preallocated ring buffer and written to disk
+ * by a background thread. When the buffer is full, because the disk is slower than the process output,
+ * the offered bytes are dropped and counted instead of slowing the process down. The current segment is
+ * {@code <name>.log}; once it grows over the configured size or gets older than the configured interval it
+ * is renamed with a timestamp and, optionally, compressed with gzip on a separate thread.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     TeeLog tee = new TeeLog(Paths.get("/var/log/app"), "app.stdout", SettingsManager.getSettings());
+ *     tee.offer(buffer, 0, read);
+ *     tee.close();
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+public class TeeLog implements Closeable {
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	/** The smallest ring buffer, one read of the {@link StreamPump}, so a single read is never dropped for its size alone. */
+	private static final int MIN_BUFFER_SIZE = StreamPump.BUFFER_SIZE;
+
+	private final Path directory;
+	private final String name;
+	private final long maxFileSize;
+	private final long rotationIntervalMillis;
+	private final boolean compressRotated;
+
+	private final byte[] ring;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong droppedBytes = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean closed = false;
+	private volatile boolean failed = false;
+
+	private ExecutorService compressor = null;
+	private OutputStream segment = null;
+	private long segmentSize = 0L;
+	private long segmentStart = 0L;
+
+	/**
+	 * Creates the log and starts its background writer.
+	 *
+	 * @param directory the directory that holds the log files, created if needed
+	 * @param name the base name of the log files
+	 * @param settings the settings to read the buffer size and rotation policy from
+	 * @throws IOException if the directory cannot be created
+	 */
+	public TeeLog(Path directory, String name, Settings settings) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.name = name;
+		this.maxFileSize = settings.getTeeMaxFileSize();
+		this.rotationIntervalMillis = TimeUnit.MINUTES.toMillis(settings.getTeeRotationIntervalMinutes());
+		this.compressRotated = settings.isTeeCompressRotated();
+		if (settings.getTeeBufferSize() < MIN_BUFFER_SIZE) {
+			log.debug("teeBufferSize {} is too small, using {} bytes", settings.getTeeBufferSize(), MIN_BUFFER_SIZE);
+		}
+		this.ring = new byte[Math.max(MIN_BUFFER_SIZE, settings.getTeeBufferSize())];
+
+		this.writer = new Thread(this::drain);
+		this.writer.setName("teeWriter-" + name);
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Copies the given bytes into the ring buffer, or drops them if there is not enough free space.
+	 * <p>
+	 * Must only be called from a single producer thread.
+	 * </p>
+	 *
+	 * @param bytes the buffer holding the data
+	 * @param offset the offset of the data in the buffer
+	 * @param length the number of bytes to copy
+	 */
+	public void offer(byte[] bytes, int offset, int length) {
+		long writePosition = tail.get();
+		long free = ring.length - (writePosition - head.get());
+		if (failed || length > free) {
+			droppedBytes.addAndGet(length);
+			return;
+		}
+
+		int start = (int) (writePosition % ring.length);
+		int firstChunk = Math.min(length, ring.length - start);
+		System.arraycopy(bytes, offset, ring, start, firstChunk);
+		System.arraycopy(bytes, offset + firstChunk, ring, 0, length - firstChunk);
+		tail.lazySet(writePosition + length);
+	}
+
+	/**
+	 * Returns the number of bytes dropped so far because the ring buffer was full.
+	 *
+	 * @return the dropped byte count
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes.get();
+	}
+
+	/**
+	 * Writes out everything still buffered, closes the current segment and waits for pending compressions.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+			if (compressor != null) {
+				compressor.shutdown();
+				compressor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (droppedBytes.get() > 0) {
+			log.warn("Dropped {} bytes of {} output because the log disk could not keep up", droppedBytes.get(), name);
+		}
+	}
+
+	private void drain() {
+		try {
+			openSegment();
+			while (true) {
+				long readPosition = head.get();
+				long available = tail.get() - readPosition;
+
+				if (available == 0) {
+					if (closed && tail.get() == readPosition) {
+						break;
+					}
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					continue;
+				}
+
+				int start = (int) (readPosition % ring.length);
+				int chunk = (int) Math.min(available, ring.length - start);
+				segment.write(ring, start, chunk);
+				segmentSize += chunk;
+				head.lazySet(readPosition + chunk);
+
+				if (segmentSize >= maxFileSize || System.currentTimeMillis() - segmentStart >= rotationIntervalMillis) {
+					rotate();
+				}
+			}
+			segment.close();
+		} catch (IOException ex) {
+			log.error("Error writing {} log in {}: {}", name, directory, ex.getMessage());
+			// The producer keeps running, everything it offers from now on is dropped
+			failed = true;
+		}
+	}
+
+	private void openSegment() throws IOException {
+		Path current = directory.resolve(name + ".log");
+		segment = new FileOutputStream(current.toFile(), true);
+		segmentSize = Files.size(current);
+		segmentStart = System.currentTimeMillis();
+	}
+
+	private void rotate() throws IOException {
+		segment.close();
+
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		Path rotated = directory.resolve(name + "-" + timestamp + ".log");
+		for (int i = 1; Files.exists(rotated) || Files.exists(rotated.resolveSibling(rotated.getFileName() + ".gz")); i++) {
+			rotated = directory.resolve(name + "-" + timestamp + "-" + i + ".log");
+		}
+		Files.move(directory.resolve(name + ".log"), rotated);
+		log.debug("Rotated {} log to {}", name, rotated);
+
+		if (compressRotated) {
+			if (compressor == null) {
+				compressor = Executors.newSingleThreadExecutor();
+			}
+			Path toCompress = rotated;
+			compressor.submit(() -> compress(toCompress));
+		}
+
+		openSegment();
+	}
+
+	private static void compress(Path file) {
+		Path compressed = file.resolveSibling(file.getFileName() + ".gz");
+		try (InputStream in = Files.newInputStream(file);
+				OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed), StreamPump.BUFFER_SIZE)) {
+			byte[] buffer = new byte[StreamPump.BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException ex) {
+			log.error("Error compressing rotated log {}: {}", file, ex.getMessage());
+			return;
+		}
+
+		try {
+			Files.delete(file);
+		} catch (IOException ex) {
+			log.error("Error deleting compressed log {}: {}", file, ex.getMessage());
+		}
+	}
+
+}
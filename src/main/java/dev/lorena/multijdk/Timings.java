@@ -0,0 +1,232 @@
+package dev.lorena.multijdk;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records how long each phase of a launch takes, and a few counters, for {@code --timings}.
+ * <p>
+ * Spans are measured with {@link System#nanoTime()} relative to the first use of this class, at the start of
+ * {@code main}, and stored in preallocated arrays, so recording is cheap enough to be always on. Nothing is printed
+ * unless {@link #enable(String)} is called: the report is then written when the JVM exits, to the standard error or
+ * appended as one JSON line to a file, so launches can be aggregated. Through {@code jdk.sh}, a launch that pumps the
+ * output is resolved by one JVM and supervised by another, so it produces two reports: {@code resolve} and {@code run}.
+ * </p>
+ *
+ * <p><b>Usage example:</b></p>
+ * <pre>
+ *     long start = Timings.start();
+ *     List&lt;JDK&gt; jdks = finder.findJDKs(false);
+ *     Timings.record("findJDKs", start);
+ *     Timings.add(Timings.Counter.JDKS_FOUND, jdks.size());
+ * </pre>
+ *
+ * @author Lorena Nuñez
+ * @version 1.1
+ * @since 1.5
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class Timings {
+
+	/**
+	 * Counters reported next to the spans.
+	 */
+	public enum Counter {
+		DIRECTORIES_VISITED("directoriesVisited"),
+		RELEASE_FILES_READ("releaseFilesRead"),
+		JDKS_FOUND("jdksFound");
+
+		private final String key;
+
+		Counter(String key) {
+			this.key = key;
+		}
+	}
+
+	private static final int MAX_SPANS = 32;
+	private static final long origin = System.nanoTime();
+	private static final String[] names = new String[MAX_SPANS];
+	private static final long[] starts = new long[MAX_SPANS];
+	private static final long[] durations = new long[MAX_SPANS];
+	private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+	private static int spanCount = 0;
+	private static String stage = "run";
+	private static String jarPath = null;
+	private static int version = 0;
+	private static String jdkPath = null;
+	private static boolean enabled = false;
+
+	/**
+	 * Returns the current time, to be passed to {@link #record(String, long)} when the phase ends.
+	 *
+	 * @return the current {@link System#nanoTime()}
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a phase that started at {@code start} and ends now. Phases beyond the first {@value #MAX_SPANS} are ignored.
+	 *
+	 * @param name the phase name
+	 * @param start the value returned by {@link #start()} when the phase began
+	 */
+	public static synchronized void record(String name, long start) {
+		if (spanCount < MAX_SPANS) {
+			names[spanCount] = name;
+			starts[spanCount] = start - origin;
+			durations[spanCount] = System.nanoTime() - start;
+			spanCount++;
+		}
+	}
+
+	/**
+	 * Records a phase only if no phase with the same name was recorded yet, e.g. the first output of either stream.
+	 *
+	 * @param name the phase name
+	 * @param start the value returned by {@link #start()} when the phase began
+	 */
+	public static synchronized void recordOnce(String name, long start) {
+		for (int i = 0; i < spanCount; i++) {
+			if (names[i].equals(name)) {
+				return;
+			}
+		}
+		record(name, start);
+	}
+
+	/**
+	 * Adds to a counter. Safe to call from several threads.
+	 *
+	 * @param counter the counter
+	 * @param delta the amount to add
+	 */
+	public static void add(Counter counter, long delta) {
+		counters.addAndGet(counter.ordinal(), delta);
+	}
+
+	/**
+	 * Remembers what is being launched, to identify the launch in the report.
+	 *
+	 * @param arguments the parsed arguments
+	 * @param jdk the selected JDK, or {@code null} if none was selected
+	 */
+	public static synchronized void describe(Arguments arguments, JDK jdk) {
+		stage = arguments.isResolve() ? "resolve" : "run";
+		jarPath = arguments.getJarPath();
+		version = arguments.getVersion();
+		jdkPath = (jdk != null) ? jdk.getPath() : null;
+	}
+
+	/**
+	 * Prints the report when the JVM exits.
+	 *
+	 * @param target an empty string to print to the standard error, or a file to append a JSON line to
+	 */
+	public static synchronized void enable(String target) {
+		if (enabled) {
+			return;
+		}
+		enabled = true;
+		Thread hook = new Thread(() -> report(target));
+		hook.setName("timingsReport");
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+
+	private static synchronized void report(String target) {
+		long total = System.nanoTime() - origin;
+		if (target.isEmpty()) {
+			System.err.print(toText(total));
+			System.err.flush();
+			return;
+		}
+
+		try (OutputStream out = new FileOutputStream(target, true)) {
+			out.write(toJson(total).getBytes(StandardCharsets.UTF_8));
+		} catch (IOException ex) {
+			log.error("Could not write timings to {}: {}", target, ex.getMessage());
+		}
+	}
+
+	private static String toText(long total) {
+		StringBuilder text = new StringBuilder("MultiJDK timings, ")
+				.append(stage).append(" (ms since start):\n");
+		for (int i = 0; i < spanCount; i++) {
+			text.append(String.format(Locale.ROOT, "  %-16s %9.3f  at %9.3f%n", names[i], millis(durations[i]), millis(starts[i])));
+		}
+		text.append(String.format(Locale.ROOT, "  %-16s %9.3f%n", "total", millis(total)));
+		for (Counter counter : Counter.values()) {
+			text.append(String.format(Locale.ROOT, "  %-16s %9d%n", counter.key, counters.get(counter.ordinal())));
+		}
+		return text.toString();
+	}
+
+	private static String toJson(long total) {
+		List<Span> spans = new ArrayList<>(spanCount);
+		for (int i = 0; i < spanCount; i++) {
+			spans.add(new Span(names[i], JsonLines.millis(starts[i]), JsonLines.millis(durations[i])));
+		}
+		Map<String, Long> counterValues = new LinkedHashMap<>();
+		for (Counter counter : Counter.values()) {
+			counterValues.put(counter.key, counters.get(counter.ordinal()));
+		}
+		return JsonLines.toJsonLine(new Report(System.currentTimeMillis(), stage, jarPath, version, jdkPath,
+				JsonLines.millis(total), spans, counterValues));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	/**
+	 * The JSON line written by {@code --timings=<file>}.
+	 */
+	private static final class Report {
+		private final long timestamp;
+		private final String stage;
+		private final String jar;
+		private final int version;
+		private final String jdk;
+		private final double totalMs;
+		private final List<Span> spans;
+		private final Map<String, Long> counters;
+
+		private Report(long timestamp, String stage, String jar, int version, String jdk, double totalMs, List<Span> spans,
+				Map<String, Long> counters) {
+			this.timestamp = timestamp;
+			this.stage = stage;
+			this.jar = jar;
+			this.version = version;
+			this.jdk = jdk;
+			this.totalMs = totalMs;
+			this.spans = spans;
+			this.counters = counters;
+		}
+	}
+
+	private static final class Span {
+		private final String name;
+		private final double startMs;
+		private final double durationMs;
+
+		private Span(String name, double startMs, double durationMs) {
+			this.name = name;
+			this.startMs = startMs;
+			this.durationMs = durationMs;
+		}
+	}
+
+}